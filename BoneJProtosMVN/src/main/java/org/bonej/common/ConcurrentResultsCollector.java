@@ -0,0 +1,142 @@
+package org.bonej.common;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.google.common.base.Strings;
+
+/**
+ * A ResultsSink which collects measurements from several threads, and merges them into another sink.
+ *
+ * Neither ResultsInserter nor the ResultsTable it wraps are thread safe, so ops running concurrently on different
+ * images would interleave or lose rows if they inserted their results directly. Instead each thread adds its
+ * measurements to a buffer of its own, which doesn't need a shared lock. When the collector is flushed, a single
+ * writer drains the buffers and adds their measurements into the target sink ordered by the label of the specimen.
+ * Thus the results are in the same order regardless of which thread finished first.
+ *
+ * @implNote The measurements of a label keep the order in which they were added by a thread. If several threads add
+ *           measurements with the same label, their order within the label is not deterministic
+ * @author Richard Domander
+ */
+public class ConcurrentResultsCollector implements ResultsSink {
+    private final ResultsSink target;
+    private final Queue<Buffer> buffers = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Buffer> threadBuffer = ThreadLocal.withInitial(this::registerBuffer);
+
+    /**
+     * Creates a collector which merges the measurements into the given sink
+     *
+     * @param target    The sink where the measurements end up. It should not be used by other code while the
+     *                  collector is in use
+     * @throws NullPointerException if target == null
+     */
+    public ConcurrentResultsCollector(final ResultsSink target) throws NullPointerException {
+        checkNotNull(target, "Target sink cannot be null");
+
+        this.target = target;
+    }
+
+    /**
+     * Adds the measurement to the buffer of the calling thread
+     *
+     * @implNote The measurement goes to the target sink when the collector is flushed
+     */
+    @Override
+    public void addMeasurement(final String rowLabel, final String measurementHeading, final double measurementValue)
+            throws IllegalArgumentException {
+        checkArgument(!Strings.isNullOrEmpty(rowLabel), "Row label must not be null or empty");
+        checkArgument(!Strings.isNullOrEmpty(measurementHeading), "Measurement heading must not be null or empty");
+
+        threadBuffer.get().add(new Measurement(rowLabel, measurementHeading, measurementValue));
+    }
+
+    /**
+     * Merges the measurements added so far into the target sink, and flushes it
+     *
+     * @implNote The measurements of each flush are ordered by label. Only one thread at a time merges
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        final Map<String, List<Measurement>> byLabel = new TreeMap<>();
+        for (Buffer buffer : buffers) {
+            for (Measurement measurement : buffer.drain()) {
+                byLabel.computeIfAbsent(measurement.label, l -> new ArrayList<>()).add(measurement);
+            }
+        }
+        // Buffers of finished threads can't receive measurements anymore
+        buffers.removeIf(buffer -> !buffer.owner.isAlive() && buffer.isEmpty());
+
+        for (List<Measurement> measurements : byLabel.values()) {
+            for (Measurement measurement : measurements) {
+                target.addMeasurement(measurement.label, measurement.heading, measurement.value);
+            }
+        }
+        target.flush();
+    }
+
+    /**
+     * Flushes the collector, and closes the target sink
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            target.close();
+        }
+    }
+
+    //region -- Helper methods --
+    private Buffer registerBuffer() {
+        final Buffer buffer = new Buffer();
+        buffers.add(buffer);
+        return buffer;
+    }
+    //endregion
+
+    //region -- Helper classes --
+    private static final class Measurement {
+        private final String label;
+        private final String heading;
+        private final double value;
+
+        private Measurement(final String label, final String heading, final double value) {
+            this.label = label;
+            this.heading = heading;
+            this.value = value;
+        }
+    }
+
+    /**
+     * The measurements of one thread
+     *
+     * @implNote The lock of a buffer is contended only when the measurements are drained
+     */
+    private static final class Buffer {
+        private final Thread owner = Thread.currentThread();
+        private List<Measurement> measurements = new ArrayList<>();
+
+        private synchronized void add(final Measurement measurement) {
+            measurements.add(measurement);
+        }
+
+        private synchronized List<Measurement> drain() {
+            final List<Measurement> drained = measurements;
+            measurements = new ArrayList<>();
+            return drained;
+        }
+
+        private synchronized boolean isEmpty() {
+            return measurements.isEmpty();
+        }
+    }
+    //endregion
+}
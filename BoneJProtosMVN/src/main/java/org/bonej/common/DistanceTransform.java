@@ -0,0 +1,266 @@
+package org.bonej.common;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.stream.IntStream;
+
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+/**
+ * A multithreaded exact Euclidean distance transform of binary stacks.
+ *
+ * The transform is separable: the squared distances are first calculated along the rows (x), then along the columns
+ * (y), and finally along the slices (z) with the 1D lower envelope algorithm of Felzenszwalb & Huttenlocher. Each 1D
+ * pass processes its lines in parallel. The result is the same as that of EDT_S1D in LocalThickness: the distance of
+ * a voxel is measured to the centre of the nearest voxel outside the phase, and the voxels outside the image are not
+ * considered to be outside the phase.
+ *
+ * Each pass can weight the distances along its axis, so the transform of anisotropic voxels is calculated at their
+ * native size without resampling the stack.
+ *
+ * @author Richard Domander
+ * @see <a href="http://dx.doi.org/10.4086/toc.2012.v008a019">Felzenszwalb P, Huttenlocher D (2012) Distance
+ * Transforms of Sampled Functions. Theory of Computing 8:415-428</a>
+ */
+public class DistanceTransform {
+    /** The binary value of the foreground voxels */
+    public static final int FOREGROUND = 0xFF;
+
+    private DistanceTransform() {
+    }
+
+    /**
+     * Calculates the distance of each voxel in the phase to the nearest voxel outside it
+     *
+     * @implNote The stack is not modified
+     * @param stack         A binary 8-bit stack
+     * @param foreground    If true, the distances of the foreground (0xFF) voxels are calculated, otherwise the
+     *                      distances of the background voxels
+     * @throws NullPointerException if stack == null
+     * @throws IllegalArgumentException if the stack is not 8-bit, or has no slices
+     * @return The distances in voxels, one float array per slice. Voxels outside the phase are 0.0f
+     */
+    public static float[][] compute(final ImageStack stack, final boolean foreground)
+            throws NullPointerException, IllegalArgumentException {
+        return compute(stack, foreground, new Calibration());
+    }
+
+    /**
+     * Calculates the calibrated distance of each voxel in the phase to the nearest voxel outside it
+     *
+     * @implNote The stack is not modified. The voxels may be anisotropic
+     * @param stack         A binary 8-bit stack
+     * @param foreground    If true, the distances of the foreground (0xFF) voxels are calculated, otherwise the
+     *                      distances of the background voxels
+     * @param calibration   The calibration of the voxels
+     * @throws NullPointerException if stack == null or calibration == null
+     * @throws IllegalArgumentException if the stack is not 8-bit, or has no slices
+     * @throws IllegalArgumentException if the voxel size isn't positive
+     * @return The distances in the units of the calibration, one float array per slice. Voxels outside the phase
+     *         are 0.0f
+     */
+    public static float[][] compute(final ImageStack stack, final boolean foreground, final Calibration calibration)
+            throws NullPointerException, IllegalArgumentException {
+        final byte[][] slices = slicesOf(stack);
+        final double[] weights = axisWeights(calibration);
+        final float[][] map = squaredDistances(slices, stack.getWidth(), stack.getHeight(), foreground, weights);
+        final double scale = calibration.pixelWidth;
+        IntStream.range(0, map.length).parallel().forEach(z -> {
+            final float[] slice = map[z];
+            for (int i = 0; i < slice.length; i++) {
+                slice[i] = (float) (Math.sqrt(slice[i]) * scale);
+            }
+        });
+        return map;
+    }
+
+    /**
+     * Returns the weights of the x-, y- and z-axes relative to the width of the voxels
+     *
+     * @throws NullPointerException if calibration == null
+     * @throws IllegalArgumentException if the voxel size isn't positive
+     * @return {1.0, pixelHeight / pixelWidth, pixelDepth / pixelWidth}
+     */
+    public static double[] axisWeights(final Calibration calibration)
+            throws NullPointerException, IllegalArgumentException {
+        checkNotNull(calibration, "Calibration cannot be null");
+        final double width = calibration.pixelWidth;
+        final double height = calibration.pixelHeight;
+        final double depth = calibration.pixelDepth;
+        checkArgument(width > 0.0 && height > 0.0 && depth > 0.0, "Voxel size must be positive");
+
+        return new double[]{1.0, height / width, depth / width};
+    }
+
+    /**
+     * @return true if all the axis weights are 1.0
+     */
+    public static boolean isIsotropic(final double[] weights) {
+        return weights[0] == 1.0 && weights[1] == 1.0 && weights[2] == 1.0;
+    }
+
+    /**
+     * Calculates the squared distance of each voxel in the phase to the nearest voxel outside it
+     *
+     * @param weights   The weights of the x-, y- and z-axes
+     * @return The squared distances in voxel widths, one float array per slice
+     */
+    public static float[][] squaredDistances(final byte[][] slices, final int width, final int height,
+                                             final boolean foreground, final double[] weights) {
+        checkNotNull(slices, "Slices cannot be null");
+        checkArgument(slices.length > 0, "Stack must have slices");
+
+        final int depth = slices.length;
+        final int longest = Math.max(width, Math.max(height, depth));
+        final double maxWeight = Math.max(weights[0], Math.max(weights[1], weights[2]));
+        // Same value as in EDT_S1D for lines which don't meet the other phase
+        final float noResult = (float) (3.0 * (longest + 1) * (longest + 1) * maxWeight * maxWeight);
+
+        final float[][] map = new float[depth][];
+        IntStream.range(0, depth).parallel().forEach(z -> {
+            final byte[] pixels = slices[z];
+            final float[] slice = new float[width * height];
+            for (int i = 0; i < slice.length; i++) {
+                final boolean inPhase = ((pixels[i] & 0xFF) == FOREGROUND) == foreground;
+                slice[i] = inPhase ? noResult : 0.0f;
+            }
+            map[z] = slice;
+        });
+
+        transformRowsAndColumns(map, width, height, weights[0], weights[1]);
+        transformSlices(map, width, height, weights[2]);
+        return map;
+    }
+
+    /**
+     * Returns the pixel arrays of the stack
+     *
+     * @throws NullPointerException if stack == null
+     * @throws IllegalArgumentException if the stack has no slices, or it's not 8-bit
+     */
+    public static byte[][] slicesOf(final ImageStack stack) throws NullPointerException, IllegalArgumentException {
+        checkNotNull(stack, "Stack cannot be null");
+        checkArgument(stack.getSize() > 0, "Stack must have slices");
+
+        final byte[][] slices = new byte[stack.getSize()][];
+        for (int z = 0; z < slices.length; z++) {
+            final Object pixels = stack.getPixels(z + 1);
+            checkArgument(pixels instanceof byte[], "Stack must be 8-bit");
+            slices[z] = (byte[]) pixels;
+        }
+
+        return slices;
+    }
+
+    //region -- Helper methods --
+    private static void transformRowsAndColumns(final float[][] map, final int width, final int height,
+                                                final double xWeight, final double yWeight) {
+        IntStream.range(0, map.length).parallel().forEach(z -> {
+            final float[] slice = map[z];
+            final Envelope envelope = new Envelope(Math.max(width, height));
+
+            for (int y = 0; y < height; y++) {
+                envelope.transform(slice, y * width, 1, width, xWeight);
+            }
+
+            for (int x = 0; x < width; x++) {
+                envelope.transform(slice, x, width, height, yWeight);
+            }
+        });
+    }
+
+    private static void transformSlices(final float[][] map, final int width, final int height,
+                                        final double zWeight) {
+        final int depth = map.length;
+        if (depth < 2) {
+            return;
+        }
+
+        IntStream.range(0, height).parallel().forEach(y -> {
+            final Envelope envelope = new Envelope(depth);
+            final float[] line = new float[depth];
+            for (int x = 0; x < width; x++) {
+                final int index = y * width + x;
+                for (int z = 0; z < depth; z++) {
+                    line[z] = map[z][index];
+                }
+
+                envelope.transform(line, 0, 1, depth, zWeight);
+
+                for (int z = 0; z < depth; z++) {
+                    map[z][index] = line[z];
+                }
+            }
+        });
+    }
+    //endregion
+
+    //region -- Helper classes --
+    /**
+     * Scratch space for calculating the lower envelope of the parabolas rooted at the samples of a line. One instance
+     * per thread.
+     */
+    private static final class Envelope {
+        private final double[] values;
+        private final int[] vertices;
+        private final double[] boundaries;
+
+        private Envelope(final int length) {
+            values = new double[length];
+            vertices = new int[length];
+            boundaries = new double[length + 1];
+        }
+
+        /**
+         * Replaces the squared distances of a line with the squared distances along it
+         *
+         * @param data      The array containing the line
+         * @param start     Index of the first sample of the line
+         * @param stride    Distance between consecutive samples in the array
+         * @param length    Number of samples in the line
+         * @param weight    Distance between consecutive samples
+         */
+        private void transform(final float[] data, final int start, final int stride, final int length,
+                               final double weight) {
+            final double weightSq = weight * weight;
+            for (int q = 0; q < length; q++) {
+                values[q] = data[start + q * stride];
+            }
+
+            int k = 0;
+            vertices[0] = 0;
+            boundaries[0] = Double.NEGATIVE_INFINITY;
+            boundaries[1] = Double.POSITIVE_INFINITY;
+            for (int q = 1; q < length; q++) {
+                double s = intersection(q, vertices[k], weightSq);
+                while (s <= boundaries[k]) {
+                    k--;
+                    s = intersection(q, vertices[k], weightSq);
+                }
+                k++;
+                vertices[k] = q;
+                boundaries[k] = s;
+                boundaries[k + 1] = Double.POSITIVE_INFINITY;
+            }
+
+            k = 0;
+            for (int q = 0; q < length; q++) {
+                while (boundaries[k + 1] < q) {
+                    k++;
+                }
+                final int d = q - vertices[k];
+                data[start + q * stride] = (float) (weightSq * d * d + values[vertices[k]]);
+            }
+        }
+
+        /**
+         * @return The position where the parabolas rooted at q and p intersect
+         */
+        private double intersection(final int q, final int p, final double weightSq) {
+            return ((values[q] + weightSq * q * q) - (values[p] + weightSq * p * p)) / (2.0 * weightSq * (q - p));
+        }
+    }
+    //endregion
+}
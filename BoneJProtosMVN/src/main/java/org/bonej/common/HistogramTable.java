@@ -0,0 +1,106 @@
+package org.bonej.common;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Creates tables of the histograms of StreamingStatistics. Each bin is a row with the label of its measurement, the
+ * limits of the bin and its count, so the histograms of several measurements fit in one table.
+ *
+ * @author Richard Domander
+ */
+public class HistogramTable {
+    public static final String BIN_START_HEADING = "Bin start";
+    public static final String BIN_END_HEADING = "Bin end";
+    public static final String COUNT_HEADING = "Count";
+
+    private HistogramTable() {
+    }
+
+    /**
+     * Creates a ResultsTable of the histograms
+     *
+     * @param histograms    Statistics by the label of their measurement, e.g. "Tb.Th"
+     * @param units         The units of the values
+     * @throws NullPointerException if histograms == null or units == null
+     * @throws IllegalArgumentException if a label or statistics is null
+     * @return A new table, where the label of each row is the label of the measurement
+     */
+    public static ResultsTable toResultsTable(final Map<String, StreamingStatistics> histograms, final String units)
+            throws NullPointerException, IllegalArgumentException {
+        checkHistograms(histograms, units);
+
+        final ResultsTable table = new ResultsTable();
+        table.setPrecision(-4);
+        histograms.forEach((label, statistics) -> {
+            final long[] counts = statistics.getHistogram();
+            for (int i = 0; i < counts.length; i++) {
+                table.incrementCounter();
+                table.addLabel(label);
+                table.addValue(heading(BIN_START_HEADING, units), binStart(statistics, i));
+                table.addValue(heading(BIN_END_HEADING, units), binStart(statistics, i + 1));
+                table.addValue(COUNT_HEADING, counts[i]);
+            }
+        });
+
+        return table;
+    }
+
+    /**
+     * Writes the histograms into a CSV file
+     *
+     * @implNote The rows are written as they're formatted, so the table is never in memory as a whole
+     * @param histograms    Statistics by the label of their measurement, e.g. "Tb.Th"
+     * @param units         The units of the values
+     * @param file          The file to write. An existing file is overwritten
+     * @throws NullPointerException if histograms == null, units == null or file == null
+     * @throws IllegalArgumentException if a label or statistics is null
+     * @throws IOException if writing the file fails
+     */
+    public static void writeCsv(final Map<String, StreamingStatistics> histograms, final String units,
+                                final Path file) throws NullPointerException, IllegalArgumentException, IOException {
+        checkHistograms(histograms, units);
+        checkNotNull(file, "File cannot be null");
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(String.join(",", "Label", heading(BIN_START_HEADING, units), heading(BIN_END_HEADING, units),
+                    COUNT_HEADING));
+            writer.newLine();
+            for (Map.Entry<String, StreamingStatistics> entry : histograms.entrySet()) {
+                final StreamingStatistics statistics = entry.getValue();
+                final long[] counts = statistics.getHistogram();
+                for (int i = 0; i < counts.length; i++) {
+                    writer.write(String.join(",", entry.getKey(), Double.toString(binStart(statistics, i)),
+                            Double.toString(binStart(statistics, i + 1)), Long.toString(counts[i])));
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    //region -- Helper methods --
+    private static void checkHistograms(final Map<String, StreamingStatistics> histograms, final String units) {
+        checkNotNull(histograms, "Histograms cannot be null");
+        checkNotNull(units, "Units cannot be null");
+        histograms.forEach((label, statistics) -> checkArgument(label != null && statistics != null,
+                "Labels and statistics cannot be null"));
+    }
+
+    private static double binStart(final StreamingStatistics statistics, final int bin) {
+        return statistics.getHistogramMin() + bin * statistics.getBinWidth();
+    }
+
+    private static String heading(final String heading, final String units) {
+        return units.isEmpty() ? heading : heading + " (" + units + ")";
+    }
+    //endregion
+}
@@ -1,13 +1,16 @@
 package org.bonej.common;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
 import javax.annotation.Nullable;
 
 import com.google.common.collect.ImmutableList;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.measure.Calibration;
-import ij.process.ImageStatistics;
 
 /**
  * Check if an image conforms to the type defined by each method.
@@ -31,8 +34,18 @@ public class ImageCheck {
 			"1.48a");
 
 	/**
-	 * Check if image is binary
+	 * Number of pixels checked between polls of whether another slice has
+	 * already been found non-binary
+	 */
+	private static final int BINARY_CHUNK_SIZE = 4096;
+
+	/**
+	 * Check if image is binary, i.e. if every pixel in every slice is either
+	 * Common.BINARY_BLACK or Common.BINARY_WHITE
 	 *
+	 * @implNote The slices are checked in parallel, and the check stops at the
+	 *           first pixel which isn't black or white. The result is not
+	 *           memoised, because the pixels can be changed in place at any time
 	 * @param imp
 	 *            image to test
 	 * @return true if image is binary
@@ -46,11 +59,12 @@ public class ImageCheck {
 			return false;
 		}
 
-		ImageStatistics stats = imp.getStatistics();
-		int blackCount = stats.histogram[Common.BINARY_BLACK];
-		int whiteCount = stats.histogram[Common.BINARY_WHITE];
+		final ImageStack stack = imp.getStack();
+		if (stack == null) {
+			return false;
+		}
 
-		return blackCount + whiteCount == stats.pixelCount;
+		return isBinary(stack);
 	}
 
 	/**
@@ -170,4 +184,46 @@ public class ImageCheck {
 					+ "Please update to at least ImageJ v" + requiredIJVersion + " using Help-Update ImageJ.");
 		}
 	}
+
+	//region -- Helper methods --
+	private static boolean isBinary(final ImageStack stack) {
+		final AtomicBoolean nonBinaryFound = new AtomicBoolean(false);
+		return IntStream.rangeClosed(1, stack.getSize()).parallel().allMatch(i -> {
+			final boolean binary = isBinarySlice(stack.getPixels(i), nonBinaryFound);
+			if (!binary) {
+				nonBinaryFound.set(true);
+			}
+			return binary;
+		});
+	}
+
+	/**
+	 * @return true if all pixels are black or white, false if not, or if
+	 *         another slice has been found non-binary before this one was
+	 *         checked to the end
+	 */
+	private static boolean isBinarySlice(final Object pixels, final AtomicBoolean nonBinaryFound) {
+		if (!(pixels instanceof byte[])) {
+			return false;
+		}
+
+		final byte black = (byte) Common.BINARY_BLACK;
+		final byte white = (byte) Common.BINARY_WHITE;
+		final byte[] slice = (byte[]) pixels;
+		for (int start = 0; start < slice.length; start += BINARY_CHUNK_SIZE) {
+			if (nonBinaryFound.get()) {
+				return false;
+			}
+
+			final int end = Math.min(start + BINARY_CHUNK_SIZE, slice.length);
+			for (int i = start; i < end; i++) {
+				if (slice[i] != black && slice[i] != white) {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+	//endregion
 }
@@ -0,0 +1,82 @@
+package org.bonej.common;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+import ij.ImageStack;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * A utility class which calculates a content hash for an ImageStack.
+ *
+ * ImageJ1 images don't have a modification counter, so a hash of the pixel data is the only reliable way to tell if
+ * an image has changed between two runs of a plugin. Hashing is a single memory bound pass over the stack, which is
+ * cheap compared to e.g. meshing or skeletonising the image.
+ *
+ * @author Richard Domander
+ */
+public class ImageFingerprint {
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    /**
+     * Calculates a 64-bit hash of the dimensions and the pixel data of the given stack
+     *
+     * @implNote The slices are hashed in parallel with the 128-bit MurmurHash3 of their pixel bytes, and the slice
+     *           hashes are combined with the dimensions into the result
+     * @param stack An ImageStack
+     * @throws NullPointerException if stack == null
+     * @return A hash value, which changes if any pixel value in the stack changes
+     */
+    public static long of(final ImageStack stack) throws NullPointerException {
+        checkNotNull(stack, "Cannot calculate the fingerprint of a null stack");
+
+        final int size = stack.getSize();
+        final HashCode[] sliceHashes = new HashCode[size];
+        IntStream.range(0, size).parallel().forEach(i -> sliceHashes[i] = hashSlice(stack.getPixels(i + 1)));
+
+        final Hasher hasher = HASH_FUNCTION.newHasher().putInt(stack.getWidth()).putInt(stack.getHeight())
+                .putInt(size);
+        for (HashCode sliceHash : sliceHashes) {
+            hasher.putBytes(sliceHash.asBytes());
+        }
+
+        return hasher.hash().asLong();
+    }
+
+    //region -- Helper methods --
+    private static HashCode hashSlice(final Object pixels) {
+        if (pixels instanceof byte[]) {
+            return HASH_FUNCTION.hashBytes((byte[]) pixels);
+        }
+
+        if (pixels instanceof short[]) {
+            final short[] values = (short[]) pixels;
+            final ByteBuffer buffer = ByteBuffer.allocate(values.length * Short.BYTES);
+            buffer.asShortBuffer().put(values);
+            return HASH_FUNCTION.hashBytes(buffer.array());
+        }
+
+        if (pixels instanceof float[]) {
+            final float[] values = (float[]) pixels;
+            final ByteBuffer buffer = ByteBuffer.allocate(values.length * Float.BYTES);
+            buffer.asFloatBuffer().put(values);
+            return HASH_FUNCTION.hashBytes(buffer.array());
+        }
+
+        if (pixels instanceof int[]) {
+            final int[] values = (int[]) pixels;
+            final ByteBuffer buffer = ByteBuffer.allocate(values.length * Integer.BYTES);
+            buffer.asIntBuffer().put(values);
+            return HASH_FUNCTION.hashBytes(buffer.array());
+        }
+
+        return HASH_FUNCTION.hashInt(0);
+    }
+    //endregion
+}
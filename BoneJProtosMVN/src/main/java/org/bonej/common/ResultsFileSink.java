@@ -0,0 +1,148 @@
+package org.bonej.common;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.google.common.base.Strings;
+
+/**
+ * A ResultsSink which streams the measurements into a CSV or a TSV file.
+ *
+ * Each measurement is a line with the label, the heading and the value of the measurement, so the lines can be written
+ * as the measurements arrive, and the measurements of different plugins fit into the same file. The lines are
+ * appended to an existing file, and the header line is written only if the file is new or empty. Thus the results of
+ * a batch of images, e.g. a headless run on a cluster, accumulate into one file without being kept in memory.
+ *
+ * @implNote The lines are buffered, call flush() or close() to make sure they're on disk
+ * @author Richard Domander
+ */
+public class ResultsFileSink implements ResultsSink {
+    public static final String LABEL_HEADING = "Label";
+    public static final String MEASUREMENT_HEADING = "Measurement";
+    public static final String VALUE_HEADING = "Value";
+
+    private final BufferedWriter writer;
+    private final char delimiter;
+
+    public enum Delimiter {
+        COMMA(','),
+        TAB('\t');
+
+        private final char character;
+
+        Delimiter(final char character) {
+            this.character = character;
+        }
+
+        /**
+         * Returns the delimiter used in files with the given name: tabs for ".tsv" and ".txt" files, and commas for
+         * the rest
+         */
+        public static Delimiter of(final Path file) {
+            final String name = file.getFileName().toString().toLowerCase();
+            return name.endsWith(".tsv") || name.endsWith(".txt") ? TAB : COMMA;
+        }
+    }
+
+    private ResultsFileSink(final BufferedWriter writer, final Delimiter delimiter) {
+        this.writer = writer;
+        this.delimiter = delimiter.character;
+    }
+
+    /**
+     * Opens a sink into the given file, with the delimiter chosen by the extension of the file
+     *
+     * @see #open(Path, Delimiter)
+     * @see Delimiter#of(Path)
+     */
+    public static ResultsFileSink open(final Path file) throws NullPointerException, IOException {
+        checkNotNull(file, "File cannot be null");
+
+        return open(file, Delimiter.of(file));
+    }
+
+    /**
+     * Opens a sink which appends to the given file
+     *
+     * @param file      The file to write. Created if it doesn't exist
+     * @param delimiter The delimiter between the fields of a line
+     * @throws NullPointerException if file == null or delimiter == null
+     * @throws IOException if opening the file, or writing the header fails
+     * @return A sink which must be closed after use
+     */
+    public static ResultsFileSink open(final Path file, final Delimiter delimiter)
+            throws NullPointerException, IOException {
+        checkNotNull(file, "File cannot be null");
+        checkNotNull(delimiter, "Delimiter cannot be null");
+
+        final boolean hasHeader = Files.exists(file) && Files.size(file) > 0;
+        final BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        final ResultsFileSink sink = new ResultsFileSink(writer, delimiter);
+        if (!hasHeader) {
+            try {
+                sink.writeLine(LABEL_HEADING, MEASUREMENT_HEADING, VALUE_HEADING);
+            } catch (IOException e) {
+                writer.close();
+                throw e;
+            }
+        }
+
+        return sink;
+    }
+
+    /**
+     * Appends the measurement as a new line
+     *
+     * @implNote Unlike in ResultsInserter, a repeated measurement doesn't go to the first free row, it's just another
+     *           line after the previous ones
+     */
+    @Override
+    public void addMeasurement(final String rowLabel, final String measurementHeading, final double measurementValue)
+            throws IllegalArgumentException, IOException {
+        checkArgument(!Strings.isNullOrEmpty(rowLabel), "Row label must not be null or empty");
+        checkArgument(!Strings.isNullOrEmpty(measurementHeading), "Measurement heading must not be null or empty");
+
+        writeLine(rowLabel, measurementHeading, Double.toString(measurementValue));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    //region -- Helper methods --
+    private void writeLine(final String label, final String heading, final String value) throws IOException {
+        writer.write(quote(label));
+        writer.write(delimiter);
+        writer.write(quote(heading));
+        writer.write(delimiter);
+        writer.write(value);
+        writer.newLine();
+    }
+
+    /**
+     * Quotes the field if it contains a delimiter, a quote or a line break, e.g. an image title with a comma
+     */
+    private String quote(final String field) {
+        if (field.indexOf(delimiter) < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 &&
+                field.indexOf('\r') < 0) {
+            return field;
+        }
+
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+    //endregion
+}
@@ -3,9 +3,20 @@ package org.bonej.common;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import com.google.common.base.Strings;
+import java.awt.GraphicsEnvironment;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
 import ij.measure.ResultsTable;
 
+import com.google.common.base.Strings;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
 /**
  * A wrapper class for ResultsTable used to insert measurements according to the
  * following policy:
@@ -19,15 +30,37 @@ import ij.measure.ResultsTable;
  *
  * By default the class uses the instance returned by
  * ResultsTable.getResultsTable()
+ *
+ * The rows of each label, and the first row of each label that may be free in
+ * each column are indexed, so that an insertion doesn't need to search the
+ * whole table. There's one index per table, which is shared by all the
+ * inserters of the table, so a new inserter doesn't scan the table again. The
+ * index is rebuilt if the number of rows or columns, or the label of the last
+ * row has changed by other means than this class, e.g. the table has been
+ * reset. The search for a free row in a column starts from the beginning again,
+ * if the column has been deleted, moved or re-created.
+ *
+ * In headless mode the table is not shown, and the measurements stay in memory
+ * until the table is reset. Use ResultsFileSink to stream them into a file
+ * instead.
+ *
+ * The class is not thread safe. Use ConcurrentResultsCollector to insert
+ * results from several threads.
  * 
  * @author Richard Domander
  * @author Michael Doube
- *
- * @todo add behaviour for headless mode: ResultsTable.saveAs...?
+ * @see ResultsSink
  */
-public class ResultsInserter {
+public class ResultsInserter implements ResultsSink {
 	private static final String DEFAULT_RESULTS_TABLE_TITLE = "Results";
+	/**
+	 * The indices of the tables. The keys are weak and compared by identity,
+	 * so the indices don't keep tables in memory
+	 */
+	private static final LoadingCache<ResultsTable, TableIndex> tableIndices = CacheBuilder.newBuilder().weakKeys()
+			.build(CacheLoader.from(table -> new TableIndex()));
 	private ResultsTable resultsTable;
+	private TableIndex index;
 
 	public ResultsInserter() {
 		setResultsTable(ResultsTable.getResultsTable());
@@ -48,6 +81,7 @@ public class ResultsInserter {
 
 		this.resultsTable = resultsTable;
 		this.resultsTable.setNaNEmptyCells(true);
+		index = tableIndices.getUnchecked(resultsTable);
 	}
 
 	/**
@@ -67,19 +101,25 @@ public class ResultsInserter {
 		checkArgument(!Strings.isNullOrEmpty(rowLabel), "Row label must not be null or empty");
 		checkArgument(!Strings.isNullOrEmpty(measurementHeading), "Measurement heading must not be null or empty");
 
-		int rowNumber = rowOfLabel(rowLabel);
-		if (rowNumber < 0) {
+		if (!index.isCurrent(resultsTable)) {
+			index.rebuild(resultsTable);
+		}
+
+		LabelRows rows = index.labelRows.get(rowLabel);
+		if (rows == null) {
 			addNewRow(rowLabel, measurementHeading, measurementValue);
 			return;
 		}
 
 		int columnNumber = resultsTable.getColumnIndex(measurementHeading);
 		if (columnNumber == ResultsTable.COLUMN_NOT_FOUND) {
-			resultsTable.setValue(measurementHeading, rowNumber, measurementValue);
+			rows.resetCursor(measurementHeading);
+			resultsTable.setValue(measurementHeading, rows.first(), measurementValue);
+			index.updateColumns(resultsTable);
 			return;
 		}
 
-		int firstFreeDataRow = rowOfLabelWithNoColumnData(rowLabel, measurementHeading);
+		int firstFreeDataRow = rows.firstWithNoData(resultsTable, measurementHeading, columnNumber);
 		if (firstFreeDataRow < 0) {
 			addNewRow(rowLabel, measurementHeading, measurementValue);
 			return;
@@ -88,60 +128,188 @@ public class ResultsInserter {
 		resultsTable.setValue(measurementHeading, firstFreeDataRow, measurementValue);
 	}
 
+	/**
+	 * Adds the measurement according to the policy described in @see
+	 * ResultsInserter
+	 *
+	 * @see #setMeasurementInFirstFreeRow(String, String, double)
+	 */
+	@Override
+	public void addMeasurement(String rowLabel, String measurementHeading, double measurementValue)
+			throws IllegalArgumentException {
+		setMeasurementInFirstFreeRow(rowLabel, measurementHeading, measurementValue);
+	}
+
+	/**
+	 * Shows the underlying ResultsTable, unless running headless
+	 */
     public void updateTable() {
+		if (GraphicsEnvironment.isHeadless()) {
+			return;
+		}
+
         resultsTable.show(DEFAULT_RESULTS_TABLE_TITLE);
     }
 
+	@Override
+	public void flush() {
+		updateTable();
+	}
+
+	/**
+	 * Does nothing, the measurements stay in the ResultsTable
+	 */
+	@Override
+	public void close() {
+	}
+
     //region -- Helper methods --
 	private void addNewRow(String label, String measurementTitle, double measurementValue) {
 		resultsTable.incrementCounter();
 		resultsTable.addLabel(label);
 		resultsTable.addValue(measurementTitle, measurementValue);
+		index.addRow(label, resultsTable.getCounter() - 1);
+		index.updateColumns(resultsTable);
 	}
+    //endregion
 
+    //region -- Helper classes --
 	/**
-	 * Searches the first row, which has the given label.
+	 * The rows of each label in a table, and the state of the table when the
+	 * index was last updated
 	 *
-	 * @param label
-	 *            The label to be searched
-	 * @return Index of the row, or -1 if none of rows has the given label.
+	 * @implNote Doesn't refer to the table, so that it doesn't keep the weak
+	 *           key of its entry alive
 	 */
-	private int rowOfLabel(String label) {
-		final int rows = resultsTable.getCounter();
-		for (int row = 0; row < rows; row++) {
-			String rowLabel = resultsTable.getLabel(row);
-			if (label.equals(rowLabel)) {
-				return row;
+	private static final class TableIndex {
+		private final Map<String, LabelRows> labelRows = new HashMap<>();
+		/** Number of rows in the table when the index was last updated */
+		private int indexedRows = 0;
+		/** Label of the last row when the index was last updated */
+		private String lastIndexedLabel = null;
+		/** Index of the last column when the index was last updated */
+		private int indexedLastColumn = -1;
+
+		private boolean isCurrent(ResultsTable table) {
+			final int rows = table.getCounter();
+			if (rows != indexedRows || table.getLastColumn() != indexedLastColumn) {
+				return false;
 			}
+
+			return rows == 0 || Objects.equals(table.getLabel(rows - 1), lastIndexedLabel);
+		}
+
+		/**
+		 * Indexes the rows of each label in the table
+		 */
+		private void rebuild(ResultsTable table) {
+			labelRows.clear();
+			final int rows = table.getCounter();
+			for (int row = 0; row < rows; row++) {
+				String rowLabel = table.getLabel(row);
+				if (rowLabel != null) {
+					indexRow(rowLabel, row);
+				}
+			}
+			indexedRows = rows;
+			lastIndexedLabel = rows == 0 ? null : table.getLabel(rows - 1);
+			updateColumns(table);
+		}
+
+		/**
+		 * Records the columns of the table after this class has added one
+		 */
+		private void updateColumns(ResultsTable table) {
+			indexedLastColumn = table.getLastColumn();
+		}
+
+		/**
+		 * Indexes a row added to the end of the table
+		 */
+		private void addRow(String label, int row) {
+			indexRow(label, row);
+			indexedRows = row + 1;
+			lastIndexedLabel = label;
 		}
 
-		return -1;
+		private void indexRow(String label, int row) {
+			labelRows.computeIfAbsent(label, l -> new LabelRows()).rows.add(row);
+		}
 	}
 
 	/**
-	 * Returns the number of the first row which has the given label and no data
-	 * in the given column
-	 * 
-	 * @param label
-	 *            The label of the row
-	 * @param heading
-	 *            The heading of the column
-	 * @return Index of the first row with no data, or -1 if there are no such
-	 *         rows
-	 *
-	 *         No data means that the value in the column is Double.NaN
+	 * The rows with a label, and for each column the position in the rows
+	 * before which there are no free rows
 	 */
-	private int rowOfLabelWithNoColumnData(String label, String heading) {
-		final int rows = resultsTable.getCounter();
-		for (int row = 0; row < rows; row++) {
-			String rowLabel = resultsTable.getLabel(row);
-			double columnValue = resultsTable.getValue(heading, row);
-			if (label.equals(rowLabel) && Double.isNaN(columnValue)) {
-				return row;
+	private static final class LabelRows {
+		private final List<Integer> rows = new ArrayList<>();
+		private final Map<String, FreeCursor> freeCursors = new HashMap<>();
+
+		private int first() {
+			return rows.get(0);
+		}
+
+		private void resetCursor(String heading) {
+			freeCursors.remove(heading);
+		}
+
+		/**
+		 * Returns the number of the first row which has no data in the given
+		 * column
+		 *
+		 * @implNote The search continues from where the last search stopped,
+		 *           because a row with data never becomes free again. Thus each
+		 *           row is checked only once per column. The search starts from
+		 *           the beginning if the column has moved since, or the row
+		 *           before the cursor has become free, e.g. because the column
+		 *           was deleted and added again
+		 * @param table
+		 *            The table of the rows
+		 * @param heading
+		 *            The heading of the column
+		 * @param column
+		 *            The current index of the column in the table
+		 * @return Index of the first row with no data, or -1 if there are no
+		 *         such rows
+		 *
+		 *         No data means that the value in the column is Double.NaN
+		 */
+		private int firstWithNoData(ResultsTable table, String heading, int column) {
+			final FreeCursor cursor = freeCursors.get(heading);
+			int position = cursor == null || !cursor.isValid(table, heading, column, rows) ? 0 : cursor.position;
+			while (position < rows.size()) {
+				int row = rows.get(position);
+				if (Double.isNaN(table.getValue(heading, row))) {
+					break;
+				}
+				position++;
 			}
+			freeCursors.put(heading, new FreeCursor(column, position));
+
+			return position < rows.size() ? rows.get(position) : -1;
 		}
+	}
 
-		return -1;
+	/**
+	 * The position of the first row which may be free in a column, and the
+	 * index the column had when the position was found
+	 */
+	private static final class FreeCursor {
+		private final int column;
+		private final int position;
+
+		private FreeCursor(int column, int position) {
+			this.column = column;
+			this.position = position;
+		}
+
+		private boolean isValid(ResultsTable table, String heading, int column, List<Integer> rows) {
+			if (this.column != column) {
+				return false;
+			}
+
+			return position == 0 || !Double.isNaN(table.getValue(heading, rows.get(position - 1)));
+		}
 	}
     //endregion
 }
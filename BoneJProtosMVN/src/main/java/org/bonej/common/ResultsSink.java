@@ -0,0 +1,51 @@
+package org.bonej.common;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A destination for the measurements of a plugin.
+ *
+ * The measurements are labelled by the specimen, e.g. the title of the image, and by the heading of the
+ * measurement. Depending on the implementation they go into a ResultsTable, or into a file.
+ *
+ * @author Richard Domander
+ * @see ResultsInserter
+ * @see ResultsFileSink
+ */
+public interface ResultsSink extends Closeable {
+    /**
+     * Returns a sink for the results of a plugin
+     *
+     * @param file  The file where the results are appended, or null if they should go into the ResultsTable
+     * @throws IOException if the file can't be opened
+     * @return A ResultsFileSink if file != null, otherwise a ResultsInserter
+     */
+    static ResultsSink open(final File file) throws IOException {
+        if (file == null) {
+            return new ResultsInserter();
+        }
+
+        return ResultsFileSink.open(file.toPath());
+    }
+
+    /**
+     * Adds a measurement to the results
+     *
+     * @param rowLabel              The label of the specimen
+     * @param measurementHeading    The heading of the measurement
+     * @param measurementValue      The value of the measurement
+     * @throws IllegalArgumentException if either String argument is null or empty
+     * @throws IOException if writing the measurement fails
+     */
+    void addMeasurement(String rowLabel, String measurementHeading, double measurementValue)
+            throws IllegalArgumentException, IOException;
+
+    /**
+     * Publishes the measurements added so far, e.g. shows the table or writes the buffered rows to disk
+     *
+     * @throws IOException if writing the measurements fails
+     */
+    void flush() throws IOException;
+}
@@ -0,0 +1,232 @@
+package org.bonej.common;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Objects;
+
+import ij.gui.Roi;
+import ij.process.FloatPolygon;
+import ij.process.ImageProcessor;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+/**
+ * A bounded cache for the rasterised masks of ROIs.
+ *
+ * Rasterising a polygon or an oval ROI takes time proportional to its area, and ROIs that are active on all slices
+ * would otherwise be rasterised again for every slice and every run. The masks are keyed by the identity and the
+ * geometry of the ROI, so a ROI that has been moved or edited since is rasterised again.
+ *
+ * The masks are stored packed into bits, and the cache is bounded by their size in bytes. The least recently used
+ * masks are evicted first. The values are held with soft references so that the garbage collector can reclaim them
+ * if memory runs low.
+ *
+ * @author Richard Domander
+ */
+public class RoiMaskCache {
+    private static final long MAX_CACHE_BYTES = Runtime.getRuntime().maxMemory() / 32;
+
+    private static final LoadingCache<Key, Mask> cache = CacheBuilder.newBuilder().maximumWeight(MAX_CACHE_BYTES)
+            .weigher((Key key, Mask mask) -> mask.getBytes()).softValues()
+            .build(CacheLoader.from((Key key) -> Mask.of(key.roi)));
+
+    private RoiMaskCache() {
+    }
+
+    /**
+     * Returns the mask of the given ROI
+     *
+     * @implNote Rectangular ROIs aren't cached, because their mask doesn't need rasterising
+     * @param roi A ROI
+     * @throws NullPointerException if roi == null
+     * @return The mask of the ROI, rasterised once and shared between callers
+     */
+    public static Mask get(final Roi roi) throws NullPointerException {
+        checkNotNull(roi, "ROI cannot be null");
+
+        if (roi.getType() == Roi.RECTANGLE && roi.getCornerDiameter() == 0) {
+            return new Mask(roi.getBounds(), null, 0);
+        }
+
+        return cache.getUnchecked(new Key(roi));
+    }
+
+    public static void clear() {
+        cache.invalidateAll();
+    }
+
+    //region -- Helper classes --
+    /**
+     * The pixels inside a ROI, packed into bits
+     *
+     * Each row starts from a new word. The coordinates of the methods are image coordinates, i.e. the mask is
+     * positioned at the bounds of its ROI.
+     */
+    public static final class Mask {
+        /** Rough size of the object and its bounds in addition to the words (bytes) */
+        private static final int OVERHEAD_BYTES = 64;
+        private final Rectangle bounds;
+        /** The bits of the mask, or null if every pixel in the bounds is inside */
+        private final long[] words;
+        private final int wordsPerRow;
+
+        private Mask(final Rectangle bounds, final long[] words, final int wordsPerRow) {
+            this.bounds = bounds;
+            this.words = words;
+            this.wordsPerRow = wordsPerRow;
+        }
+
+        /**
+         * Packs the given mask pixels into bits
+         *
+         * @param bounds        The position and size of the mask in the image
+         * @param pixels        The pixels of the mask, non-zero pixels are inside
+         * @param pixelsWidth   Width of the rows in the pixel array
+         */
+        static Mask of(final Rectangle bounds, final byte[] pixels, final int pixelsWidth) {
+            final int width = Math.min(bounds.width, pixelsWidth);
+            final int height = Math.min(bounds.height, pixels.length / pixelsWidth);
+            final int wordsPerRow = (bounds.width + 63) >>> 6;
+            final long[] words = new long[wordsPerRow * bounds.height];
+            for (int y = 0; y < height; y++) {
+                final int maskOffset = y * pixelsWidth;
+                final int wordOffset = y * wordsPerRow;
+                for (int x = 0; x < width; x++) {
+                    if (pixels[maskOffset + x] != 0) {
+                        words[wordOffset + (x >>> 6)] |= 1L << x;
+                    }
+                }
+            }
+
+            return new Mask(new Rectangle(bounds), words, wordsPerRow);
+        }
+
+        private static Mask of(final Roi roi) {
+            final Rectangle bounds = roi.getBounds();
+            final ImageProcessor mask = roi.getMask();
+            if (mask == null) {
+                return new Mask(bounds, null, 0);
+            }
+
+            return of(bounds, (byte[]) mask.getPixels(), mask.getWidth());
+        }
+
+        /** Returns a copy of the bounds of the mask, which may extend outside the image */
+        public Rectangle getBounds() {
+            return new Rectangle(bounds);
+        }
+
+        /** Returns true if every pixel in the bounds of the mask is inside */
+        public boolean isRectangle() {
+            return words == null;
+        }
+
+        public boolean contains(final int x, final int y) {
+            if (!bounds.contains(x, y)) {
+                return false;
+            }
+
+            if (words == null) {
+                return true;
+            }
+
+            final int maskX = x - bounds.x;
+            return (words[(y - bounds.y) * wordsPerRow + (maskX >>> 6)] & (1L << maskX)) != 0;
+        }
+
+        /**
+         * Finds the first pixel inside the mask on a row
+         *
+         * @param x     Horizontal start of the search, bounds.x <= x
+         * @param y     The row, bounds.y <= y < bounds.y + bounds.height
+         * @param end   Horizontal end of the search, end <= bounds.x + bounds.width
+         * @return x-coordinate of the pixel, or end if there isn't one in [x, end)
+         */
+        public int nextInside(final int x, final int y, final int end) {
+            return next(x, y, end, false);
+        }
+
+        /**
+         * Finds the first pixel outside the mask on a row
+         *
+         * @see #nextInside(int, int, int)
+         */
+        public int nextOutside(final int x, final int y, final int end) {
+            return next(x, y, end, true);
+        }
+
+        private int next(final int x, final int y, final int end, final boolean outside) {
+            if (words == null) {
+                return outside ? end : Math.min(x, end);
+            }
+
+            final int rowOffset = (y - bounds.y) * wordsPerRow;
+            final int maskEnd = end - bounds.x;
+            int maskX = x - bounds.x;
+            while (maskX < maskEnd) {
+                long word = words[rowOffset + (maskX >>> 6)];
+                if (outside) {
+                    word = ~word;
+                }
+                // Ignore the bits before maskX
+                word &= -1L << maskX;
+                if (word != 0) {
+                    return Math.min(end, bounds.x + (maskX & ~63) + Long.numberOfTrailingZeros(word));
+                }
+                maskX = (maskX & ~63) + 64;
+            }
+            return end;
+        }
+
+        private int getBytes() {
+            final int wordBytes = words == null ? 0 : words.length * Long.BYTES;
+            return OVERHEAD_BYTES + wordBytes;
+        }
+    }
+
+    /**
+     * Identifies a ROI and the geometry it had when its mask was rasterised
+     */
+    private static final class Key {
+        private final Roi roi;
+        private final int type;
+        private final Rectangle bounds;
+        private final float[] xPoints;
+        private final float[] yPoints;
+
+        private Key(final Roi roi) {
+            this.roi = roi;
+            type = roi.getType();
+            bounds = roi.getBounds();
+            final FloatPolygon polygon = roi.getFloatPolygon();
+            xPoints = Arrays.copyOf(polygon.xpoints, polygon.npoints);
+            yPoints = Arrays.copyOf(polygon.ypoints, polygon.npoints);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) o;
+            return roi == other.roi && type == other.type && bounds.equals(other.bounds) &&
+                    Arrays.equals(xPoints, other.xPoints) && Arrays.equals(yPoints, other.yPoints);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(roi), type, bounds, Arrays.hashCode(xPoints),
+                    Arrays.hashCode(yPoints));
+        }
+    }
+    //endregion
+}
@@ -2,15 +2,25 @@ package org.bonej.common;
 
 import java.awt.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.IntStream;
 
 import javax.annotation.Nullable;
 
 import ij.ImageStack;
+import ij.VirtualStack;
 import ij.gui.Roi;
 import ij.plugin.frame.RoiManager;
 import ij.process.ImageProcessor;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 /**
  * A class containing utility methods for a ImageJ RoiManager
  *
@@ -186,58 +196,40 @@ public class RoiUtil {
 	public static Optional<ImageStack> cropToRois(@Nullable final RoiManager roiMan,
                                                   @Nullable final ImageStack sourceStack, final boolean fillBackground,
                                                   final int fillColor, final int padding) {
+		return cropToRois(roiMan, sourceStack, fillBackground, fillColor, padding, false);
+	}
+
+	/**
+	 * Same as @see RoiUtil.cropToRois, but optionally interpolates the ROIs
+	 * between the slices that have them.
+	 *
+	 * @param interpolate
+	 *            If true, the slices between two slices with ROIs are cropped
+	 *            to masks interpolated from them, see SliceMasks
+	 */
+	public static Optional<ImageStack> cropToRois(@Nullable final RoiManager roiMan,
+			@Nullable final ImageStack sourceStack, final boolean fillBackground, final int fillColor,
+			final int padding, final boolean interpolate) {
         if (roiMan == null || sourceStack == null) {
             return Optional.empty();
         }
 
-        Optional<int[]> optionalLimits = getLimits(roiMan, sourceStack);
-        if (!optionalLimits.isPresent()) {
+        Optional<Crop> optionalCrop = Crop.of(roiMan, sourceStack, fillBackground, fillColor, padding, interpolate);
+        if (!optionalCrop.isPresent()) {
             return Optional.empty();
         }
 
-		int[] limits = optionalLimits.get();
-
-        final int xMin = limits[0];
-		final int xMax = limits[1];
-		final int yMin = limits[2];
-		final int yMax = limits[3];
-		final int zMin = limits[4];
-		final int zMax = limits[5];
-
-		final int croppedWidth = xMax - xMin + 2 * padding;
-		final int croppedHeight = yMax - yMin + 2 * padding;
-
-		ImageStack targetStack = new ImageStack(croppedWidth, croppedHeight);
+		final Crop crop = optionalCrop.get();
+		ImageStack targetStack = new ImageStack(crop.width, crop.height);
 
 		// copy
-		ImageProcessor sourceProcessor;
-		ImageProcessor targetProcessor;
-		ArrayList<Roi> sliceRois;
-
-		for (int sourceZ = zMin; sourceZ <= zMax; sourceZ++) {
-			sliceRois = getSliceRoi(roiMan, sourceStack, sourceZ);
-			if (sliceRois.size() == 0) {
-				continue;
-			}
-
-			sourceProcessor = sourceStack.getProcessor(sourceZ);
-			targetProcessor = sourceProcessor.createProcessor(croppedWidth, croppedHeight);
-
-			if (fillBackground) {
-				targetProcessor.setColor(fillColor);
-				targetProcessor.fill();
-			}
-
-			copySlice(sourceProcessor, targetProcessor, sliceRois, padding);
-			targetStack.addSlice("", targetProcessor);
-		}
+		final ImageProcessor[] targetProcessors = new ImageProcessor[crop.sourceSlices.length];
+		IntStream.range(0, targetProcessors.length).parallel()
+				.forEach(i -> targetProcessors[i] = crop.createSlice(sourceStack, i));
+		Arrays.stream(targetProcessors).forEach(slice -> targetStack.addSlice("", slice));
 
 		// z padding
-		targetProcessor = targetStack.getProcessor(1).createProcessor(croppedWidth, croppedHeight);
-		if (fillBackground) {
-			targetProcessor.setColor(fillColor);
-			targetProcessor.fill();
-		}
+		ImageProcessor targetProcessor = crop.createBackground(targetStack.getProcessor(1));
 		for (int i = 0; i < padding; i++) {
 			targetStack.addSlice("", targetProcessor.duplicate(), 0);
 			targetStack.addSlice(targetProcessor.duplicate());
@@ -245,126 +237,266 @@ public class RoiUtil {
 
 		return Optional.of(targetStack);
 	}
+
+	/**
+	 * Same as @see RoiUtil.cropToRois, but returns a view that crops the slices
+	 * only when they're requested.
+	 *
+	 * @implNote The ROIs of each slice are gathered when the view is created, so
+	 *           changes to the ROI Manager after that don't affect it. The last
+	 *           few slices are cached, and each call returns a copy of the cached
+	 *           slice, which the caller may modify
+	 * @param roiMan
+	 *            The manager containing the ROIs
+	 * @param sourceStack
+	 *            The image to be cropped
+	 * @param fillBackground
+	 *            If true, fill the background of the cropped image
+	 * @param fillColor
+	 *            Color of the background of the cropped image
+	 * @param padding
+	 *            Number of pixels added to the each side of the resulting image
+	 * @return An Optional with a virtual stack, whose slices are cropped from
+	 *         the given image. The Optional is empty if roiMan == null, or
+	 *         sourceStack == null, or roiMan is empty
+	 */
+	public static Optional<ImageStack> cropToRoisVirtual(@Nullable final RoiManager roiMan,
+			@Nullable final ImageStack sourceStack, final boolean fillBackground, final int fillColor,
+			final int padding) {
+		return cropToRoisVirtual(roiMan, sourceStack, fillBackground, fillColor, padding, false);
+	}
+
+	/**
+	 * Same as @see RoiUtil.cropToRoisVirtual, but optionally interpolates the
+	 * ROIs between the slices that have them.
+	 *
+	 * @implNote The interpolated masks are created when a slice is cropped, and
+	 *           aren't stored
+	 * @param interpolate
+	 *            If true, the slices between two slices with ROIs are cropped
+	 *            to masks interpolated from them, see SliceMasks
+	 */
+	public static Optional<ImageStack> cropToRoisVirtual(@Nullable final RoiManager roiMan,
+			@Nullable final ImageStack sourceStack, final boolean fillBackground, final int fillColor,
+			final int padding, final boolean interpolate) {
+		if (roiMan == null || sourceStack == null) {
+			return Optional.empty();
+		}
+
+		return Crop.of(roiMan, sourceStack, fillBackground, fillColor, padding, interpolate)
+				.map(crop -> new CroppedView(sourceStack, crop));
+	}
     //endregion
 
     //region -- Helper methods --
 	/**
 	 * Copies pixels under all the ROIs on a slide
 	 *
+	 * @implNote The pixels are copied row by row with System.arraycopy. If a ROI
+	 *           isn't rectangular, only the runs of pixels inside its mask are
+	 *           copied
 	 * @param sourceProcessor
 	 *            The source image slide
 	 * @param targetProcessor
-	 *            The target slide
-	 * @param sliceRois
-	 *            List of all the ROIs on the source slide
-	 * @param padding
-	 *            Number of pixels added on each side of the target slide
+	 *            The target slide of the same type
+	 * @param sliceMasks
+	 *            The masks of all the ROIs on the source slide
+	 * @param targetX
+	 *            The x-coordinate of the source, which is copied to the left edge
+	 *            of the target
+	 * @param targetY
+	 *            The y-coordinate of the source, which is copied to the top edge
+	 *            of the target
 	 */
 	private static void copySlice(final ImageProcessor sourceProcessor, final ImageProcessor targetProcessor,
-			final ArrayList<Roi> sliceRois, final int padding) {
-		for (Roi sliceRoi : sliceRois) {
-			Rectangle rectangle = sliceRoi.getBounds();
-			boolean valid = getSafeRoiBounds(rectangle, sourceProcessor.getWidth(), sourceProcessor.getHeight());
+			final List<RoiMaskCache.Mask> sliceMasks, final int targetX, final int targetY) {
+		final int sourceWidth = sourceProcessor.getWidth();
+		final int targetWidth = targetProcessor.getWidth();
+		final Object sourcePixels = sourceProcessor.getPixels();
+		final Object targetPixels = targetProcessor.getPixels();
+
+		for (RoiMaskCache.Mask mask : sliceMasks) {
+			Rectangle rectangle = mask.getBounds();
+			boolean valid = getSafeRoiBounds(rectangle, sourceWidth, sourceProcessor.getHeight());
 
 			if (!valid) {
 				continue;
 			}
 
-			int minY = rectangle.y;
-			int minX = rectangle.x;
-			int maxY = rectangle.y + rectangle.height;
-			int maxX = rectangle.x + rectangle.width;
-
-			ImageProcessor mask = sourceProcessor.getMask();
-			if (mask == null) {
-				copyRoi(sourceProcessor, targetProcessor, minX, minY, maxX, maxY, padding);
-			} else {
-				copyRoiWithMask(sourceProcessor, targetProcessor, minX, minY, maxX, maxY, padding);
+			for (int sourceY = rectangle.y; sourceY < rectangle.y + rectangle.height; sourceY++) {
+				int sourceStart = sourceY * sourceWidth;
+				int targetStart = (sourceY - targetY) * targetWidth - targetX;
+				if (mask.isRectangle()) {
+					System.arraycopy(sourcePixels, sourceStart + rectangle.x, targetPixels,
+							targetStart + rectangle.x, rectangle.width);
+				} else {
+					copyMaskedRow(sourcePixels, targetPixels, sourceStart, targetStart, mask, sourceY,
+							rectangle.x, rectangle.x + rectangle.width);
+				}
 			}
 		}
 	}
 
 	/**
-	 * Copies the pixels in the given ROI from the source image to the target
-	 * image. Copies only those pixels where the color of the given mask > 0.
+	 * Copies the runs of pixels inside the mask on a row
 	 *
-     * @implNote Calls copyRoi with the given parameters if sourceProcessor.getMask() == null
-	 * @param sourceProcessor
-	 *            Copy source
-	 * @param targetProcessor
-	 *            Copy target
+	 * @param sourceStart
+	 *            Index of the first pixel of the row in the source
+	 * @param targetStart
+	 *            Index in the target where the first pixel of the source row
+	 *            would be copied
+	 * @param mask
+	 *            The mask of the ROI
 	 * @param minX
 	 *            Horizontal start of the copy area 0 <= minX < width
-	 * @param minY
-	 *            Vertical start of the copy area 0 <= minY < height
 	 * @param maxX
 	 *            Horizontal end of the copy area 0 <= maxX <= width
-	 * @param maxY
-	 *            Vertical end of the copy area 0 <= maxY <= height
-	 * @param padding
-	 *            Number pixels added to each side of the copy target
 	 */
-	private static void copyRoiWithMask(final ImageProcessor sourceProcessor, final ImageProcessor targetProcessor,
-                                       final int minX, final int minY, final int maxX, final int maxY,
-                                       final int padding) {
-        ImageProcessor mask = sourceProcessor.getMask();
-		if (mask == null) {
-			copyRoi(sourceProcessor, targetProcessor, minX, minY, maxX, maxY, padding);
-			return;
+	private static void copyMaskedRow(final Object sourcePixels, final Object targetPixels, final int sourceStart,
+			final int targetStart, final RoiMaskCache.Mask mask, final int sourceY, final int minX,
+			final int maxX) {
+		int runStart = mask.nextInside(minX, sourceY, maxX);
+		while (runStart < maxX) {
+			final int runEnd = mask.nextOutside(runStart, sourceY, maxX);
+			System.arraycopy(sourcePixels, sourceStart + runStart, targetPixels, targetStart + runStart,
+					runEnd - runStart);
+			runStart = mask.nextInside(runEnd, sourceY, maxX);
 		}
+	}
 
-		int targetY = padding;
-		for (int sourceY = minY; sourceY < maxY; sourceY++) {
-			int targetX = padding;
-			for (int sourceX = minX; sourceX < maxX; sourceX++) {
-				int maskColor = mask.get(sourceX, sourceY);
-				if (maskColor > 0) {
-					int sourceColor = sourceProcessor.get(sourceX, sourceY);
-					targetProcessor.set(targetX, targetY, sourceColor);
-				}
-				targetX++;
+    private static boolean isActiveOnAllSlices(final int sliceNumber) {
+        return sliceNumber == NO_SLICE_NUMBER;
+    }
+    //endregion
+
+    //region -- Helper classes --
+	/**
+	 * The limits of a crop, and the masks of the source slices inside them
+	 */
+	private static final class Crop {
+		private final int width;
+		private final int height;
+		private final int targetX;
+		private final int targetY;
+		private final int padding;
+		private final boolean fillBackground;
+		private final int fillColor;
+		/** Numbers of the source slices that have masks, in order */
+		private final int[] sourceSlices;
+		private final SliceMasks masks;
+
+		private Crop(final int[] limits, final int[] sourceSlices, final SliceMasks masks,
+				final boolean fillBackground, final int fillColor, final int padding) {
+			this.width = limits[1] - limits[0] + 2 * padding;
+			this.height = limits[3] - limits[2] + 2 * padding;
+			this.targetX = limits[0] - padding;
+			this.targetY = limits[2] - padding;
+			this.padding = padding;
+			this.fillBackground = fillBackground;
+			this.fillColor = fillColor;
+			this.sourceSlices = sourceSlices;
+			this.masks = masks;
+		}
+
+		private static Optional<Crop> of(final RoiManager roiMan, final ImageStack sourceStack,
+				final boolean fillBackground, final int fillColor, final int padding, final boolean interpolate) {
+			Optional<int[]> optionalLimits = getLimits(roiMan, sourceStack);
+			if (!optionalLimits.isPresent()) {
+				return Optional.empty();
+			}
+
+			final int[] limits = optionalLimits.get();
+			final SliceMasks masks = SliceMasks.of(roiMan, sourceStack, interpolate);
+			final int[] slices = IntStream.rangeClosed(limits[4], limits[5]).filter(masks::hasMasks).toArray();
+			return Optional.of(new Crop(limits, slices, masks, fillBackground, fillColor, padding));
+		}
+
+		/** Number of slices in the crop including padding */
+		private int getDepth() {
+			return sourceSlices.length + 2 * padding;
+		}
+
+		/**
+		 * Creates the cropped slice of the i:th source slice with ROIs
+		 */
+		private ImageProcessor createSlice(final ImageStack sourceStack, final int i) {
+			ImageProcessor sourceProcessor = sourceStack.getProcessor(sourceSlices[i]);
+			ImageProcessor slice = createBackground(sourceProcessor);
+			copySlice(sourceProcessor, slice, masks.getMasks(sourceSlices[i]), targetX, targetY);
+			return slice;
+		}
+
+		/**
+		 * Creates an empty slice of the same type as the given processor
+		 */
+		private ImageProcessor createBackground(final ImageProcessor processor) {
+			ImageProcessor slice = processor.createProcessor(width, height);
+			if (fillBackground) {
+				slice.setColor(fillColor);
+				slice.fill();
 			}
-			targetY++;
+			return slice;
 		}
 	}
 
 	/**
-	 * Copies the pixels in the given ROI from the source image to the target
-	 * image.
+	 * A virtual stack, which crops the slices from the source when they're
+	 * requested
 	 *
-	 * @param sourceProcessor
-	 *            Copy source
-	 * @param targetProcessor
-	 *            Copy target
-	 * @param minX
-	 *            Horizontal start of the copy area 0 <= minX < width
-	 * @param minY
-	 *            Vertical start of the copy area 0 <= minY < height
-	 * @param maxX
-	 *            Horizontal end of the copy area 0 <= maxX <= width
-	 * @param maxY
-	 *            Vertical end of the copy area 0 <= maxY <= height
-	 * @param padding
-	 *            Number pixels added to each side of the copy target
-	 * @pre sourceProcessor != null
-	 * @pre targetProcessor != null
+	 * @implNote The cached slices are never handed out, because ImageJ edits the
+	 *           processors and pixels of a virtual stack in place. Copying a
+	 *           slice is still much cheaper than cropping it again
 	 */
-	private static void copyRoi(ImageProcessor sourceProcessor, ImageProcessor targetProcessor, final int minX,
-			final int minY, final int maxX, final int maxY, final int padding) {
-		int targetY = padding;
-		for (int sourceY = minY; sourceY < maxY; sourceY++) {
-			int targetX = padding;
-			for (int sourceX = minX; sourceX < maxX; sourceX++) {
-				int sourceColor = sourceProcessor.get(sourceX, sourceY);
-				targetProcessor.set(targetX, targetY, sourceColor);
-				targetX++;
+	private static final class CroppedView extends VirtualStack {
+		private static final int CACHED_SLICES = 4;
+		private final ImageStack sourceStack;
+		private final Crop crop;
+		private final Cache<Integer, ImageProcessor> slices = CacheBuilder.newBuilder()
+				.maximumSize(CACHED_SLICES).build();
+
+		private CroppedView(final ImageStack sourceStack, final Crop crop) {
+			super(crop.width, crop.height, sourceStack.getColorModel(), null);
+			this.sourceStack = sourceStack;
+			this.crop = crop;
+		}
+
+		@Override
+		public Object getPixels(final int n) {
+			return getProcessor(n).getPixels();
+		}
+
+		@Override
+		public ImageProcessor getProcessor(final int n) {
+			return getCachedSlice(n).duplicate();
+		}
+
+		@Override
+		public int getSize() {
+			return crop.getDepth();
+		}
+
+		@Override
+		public String getSliceLabel(final int n) {
+			return null;
+		}
+
+		@Override
+		public int getBitDepth() {
+			return sourceStack.getBitDepth();
+		}
+
+		private ImageProcessor getCachedSlice(final int n) {
+			final int i = n - 1 - crop.padding;
+			try {
+				if (i < 0 || i >= crop.sourceSlices.length) {
+					// All the padding slices are the same
+					return slices.get(-1, () -> crop.createBackground(sourceStack.getProcessor(1)));
+				}
+				return slices.get(i, () -> crop.createSlice(sourceStack, i));
+			} catch (ExecutionException | UncheckedExecutionException e) {
+				throw Throwables.propagate(e.getCause());
 			}
-			targetY++;
 		}
 	}
-
-    private static boolean isActiveOnAllSlices(final int sliceNumber) {
-        return sliceNumber == NO_SLICE_NUMBER;
-    }
     //endregion
 }
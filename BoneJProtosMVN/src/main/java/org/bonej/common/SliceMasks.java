@@ -0,0 +1,193 @@
+package org.bonej.common;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import ij.ImageStack;
+import ij.gui.Roi;
+import ij.plugin.frame.RoiManager;
+
+/**
+ * The masks of the ROIs in the ROI Manager on each slice of a stack.
+ *
+ * Like in RoiUtil.getSliceRoi, a ROI is either pinned to one slice, or active on all slices if it has no slice
+ * number. Optionally the slices between two slices with pinned ROIs (key slices) get an interpolated mask. The mask is
+ * the zero level set of the signed distance maps of the key slices, interpolated linearly by the position of the slice.
+ * Thus a contour drawn on every nth slice limits the slices in between too.
+ *
+ * Only the ROIs are stored, and the interpolated masks are created when they're requested, so the memory used is
+ * proportional to the number of key slices.
+ *
+ * @author Richard Domander
+ */
+public final class SliceMasks {
+    private static final int FIRST_SLICE_NUMBER = 1;
+    private static final int NO_SLICE_NUMBER = -1;
+
+    /** The ROIs pinned to each key slice */
+    private final TreeMap<Integer, List<Roi>> keyRois = new TreeMap<>();
+    /** The ROIs active on all slices */
+    private final List<Roi> allSliceRois = new ArrayList<>();
+    private final boolean interpolate;
+
+    private SliceMasks(final boolean interpolate) {
+        this.interpolate = interpolate;
+    }
+
+    /**
+     * Creates the masks of the ROIs in the given manager
+     *
+     * @implNote The ROIs are read when this method is called, so later changes to the manager don't affect the masks
+     * @param roiMan        The manager containing the ROIs
+     * @param stack         The stack on which the ROIs are drawn
+     * @param interpolate   If true, the slices between key slices get an interpolated mask
+     * @throws NullPointerException if roiMan == null or stack == null
+     * @return The masks of the ROIs of the stack
+     */
+    public static SliceMasks of(final RoiManager roiMan, final ImageStack stack, final boolean interpolate)
+            throws NullPointerException {
+        checkNotNull(roiMan, "ROI Manager cannot be null");
+        checkNotNull(stack, "Stack cannot be null");
+
+        final SliceMasks masks = new SliceMasks(interpolate);
+        for (Roi roi : roiMan.getRoisAsArray()) {
+            final String roiName = roi.getName();
+            if (roiName == null) {
+                continue;
+            }
+
+            final int sliceNumber = roiMan.getSliceNumber(roiName);
+            if (sliceNumber == NO_SLICE_NUMBER) {
+                masks.allSliceRois.add(roi);
+            } else if (sliceNumber >= FIRST_SLICE_NUMBER && sliceNumber <= stack.getSize()) {
+                masks.keyRois.computeIfAbsent(sliceNumber, n -> new ArrayList<>()).add(roi);
+            }
+        }
+
+        return masks;
+    }
+
+    /**
+     * Returns true if there's a mask on the given slice
+     *
+     * @implNote Doesn't create the masks
+     */
+    public boolean hasMasks(final int sliceNumber) {
+        if (!allSliceRois.isEmpty() || keyRois.containsKey(sliceNumber)) {
+            return true;
+        }
+
+        return interpolate && keyRois.lowerKey(sliceNumber) != null && keyRois.higherKey(sliceNumber) != null;
+    }
+
+    /**
+     * Returns the masks on the given slice
+     *
+     * @implNote An interpolated mask is created every time this method is called
+     * @return The masks of the ROIs active on the slice, and the interpolated mask if the slice is between key slices.
+     *         An empty list if there are no masks on the slice
+     */
+    public List<RoiMaskCache.Mask> getMasks(final int sliceNumber) {
+        if (!hasMasks(sliceNumber)) {
+            return Collections.emptyList();
+        }
+
+        final List<RoiMaskCache.Mask> masks = new ArrayList<>();
+        final List<Roi> sliceRois = keyRois.get(sliceNumber);
+        if (sliceRois != null) {
+            sliceRois.forEach(roi -> masks.add(RoiMaskCache.get(roi)));
+        } else if (interpolate) {
+            final Map.Entry<Integer, List<Roi>> lower = keyRois.lowerEntry(sliceNumber);
+            final Map.Entry<Integer, List<Roi>> upper = keyRois.higherEntry(sliceNumber);
+            if (lower != null && upper != null) {
+                final double t = (sliceNumber - lower.getKey()) / (double) (upper.getKey() - lower.getKey());
+                masks.add(interpolateMask(lower.getValue(), upper.getValue(), t));
+            }
+        }
+
+        allSliceRois.forEach(roi -> masks.add(RoiMaskCache.get(roi)));
+        return masks;
+    }
+
+    //region -- Helper methods --
+    /**
+     * Interpolates a mask between the ROIs of two key slices
+     *
+     * @param t The relative position of the interpolated slice between the key slices, 0 < t < 1
+     */
+    private static RoiMaskCache.Mask interpolateMask(final List<Roi> lowerRois, final List<Roi> upperRois,
+                                                     final double t) {
+        final List<RoiMaskCache.Mask> lowerMasks = masksOf(lowerRois);
+        final List<RoiMaskCache.Mask> upperMasks = masksOf(upperRois);
+        final Rectangle bounds = lowerMasks.get(0).getBounds();
+        lowerMasks.forEach(mask -> bounds.add(mask.getBounds()));
+        upperMasks.forEach(mask -> bounds.add(mask.getBounds()));
+
+        // Pad the area by a pixel, so that the shapes are surrounded by background
+        final Rectangle area = new Rectangle(bounds);
+        area.grow(1, 1);
+        final float[] lowerDistances = signedDistances(lowerMasks, area);
+        final float[] upperDistances = signedDistances(upperMasks, area);
+
+        final byte[] pixels = new byte[bounds.width * bounds.height];
+        for (int y = 0; y < bounds.height; y++) {
+            final int areaOffset = (y + 1) * area.width + 1;
+            final int offset = y * bounds.width;
+            for (int x = 0; x < bounds.width; x++) {
+                final int i = areaOffset + x;
+                final double distance = (1.0 - t) * lowerDistances[i] + t * upperDistances[i];
+                if (distance < 0.0) {
+                    pixels[offset + x] = (byte) 0xFF;
+                }
+            }
+        }
+
+        return RoiMaskCache.Mask.of(bounds, pixels, bounds.width);
+    }
+
+    private static List<RoiMaskCache.Mask> masksOf(final List<Roi> rois) {
+        final List<RoiMaskCache.Mask> masks = new ArrayList<>(rois.size());
+        rois.forEach(roi -> masks.add(RoiMaskCache.get(roi)));
+        return masks;
+    }
+
+    /**
+     * Calculates the signed distance of each pixel in the area to the edge of the union of the masks
+     *
+     * @return The distances in pixels, negative inside the masks and positive outside them
+     */
+    private static float[] signedDistances(final List<RoiMaskCache.Mask> masks, final Rectangle area) {
+        final byte[] pixels = new byte[area.width * area.height];
+        for (RoiMaskCache.Mask mask : masks) {
+            final Rectangle r = mask.getBounds();
+            for (int y = r.y; y < r.y + r.height; y++) {
+                final int offset = (y - area.y) * area.width - area.x;
+                final int end = r.x + r.width;
+                int runStart = mask.nextInside(r.x, y, end);
+                while (runStart < end) {
+                    final int runEnd = mask.nextOutside(runStart, y, end);
+                    for (int x = runStart; x < runEnd; x++) {
+                        pixels[offset + x] = (byte) 0xFF;
+                    }
+                    runStart = mask.nextInside(runEnd, y, end);
+                }
+            }
+        }
+
+        final ImageStack stack = new ImageStack(area.width, area.height);
+        stack.addSlice("", pixels);
+        final float[] inside = DistanceTransform.compute(stack, true)[0];
+        final float[] outside = DistanceTransform.compute(stack, false)[0];
+        for (int i = 0; i < outside.length; i++) {
+            outside[i] -= inside[i];
+        }
+        return outside;
+    }
+    //endregion
+}
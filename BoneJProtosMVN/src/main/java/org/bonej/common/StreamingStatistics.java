@@ -0,0 +1,273 @@
+package org.bonej.common;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates descriptive statistics of a stream of values without storing them.
+ *
+ * The moments are calculated with Welford's online algorithm, and the percentiles are estimated from a histogram, so
+ * the memory used is independent of the number of values. The histogram either divides a fixed range into a number of
+ * bins, or has bins of a fixed width, and grows to fit the values (see {@link #withBinWidth(double, double)}).
+ * Statistics collected in parallel can be combined with {@link #merge(StreamingStatistics)}.
+ *
+ * The class is not thread safe: use one instance per thread, and merge them afterwards.
+ *
+ * @author Richard Domander
+ */
+public class StreamingStatistics {
+    private static final int INITIAL_BINS = 16;
+
+    private final double histogramMin;
+    private final double histogramMax;
+    private final double binWidth;
+    /** True if the histogram grows to fit the values, false if its range is fixed */
+    private final boolean growing;
+    private long[] histogram;
+    /** Number of bins in the histogram. In a growing histogram the last bin is the last non-empty one */
+    private int bins;
+
+    private long count = 0;
+    private double mean = 0.0;
+    private double sumSquaredDifferences = 0.0;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Creates an empty instance
+     *
+     * @param histogramMin  The lower limit of the histogram, values below it are counted in the first bin
+     * @param histogramMax  The upper limit of the histogram, values above it are counted in the last bin
+     * @param bins          Number of bins in the histogram
+     * @throws IllegalArgumentException if histogramMin >= histogramMax, or either limit is not finite
+     * @throws IllegalArgumentException if bins < 1
+     */
+    public StreamingStatistics(final double histogramMin, final double histogramMax, final int bins)
+            throws IllegalArgumentException {
+        checkArgument(Double.isFinite(histogramMin) && Double.isFinite(histogramMax),
+                "Histogram limits must be finite");
+        checkArgument(histogramMin < histogramMax, "Histogram minimum must be less than maximum");
+        checkArgument(bins > 0, "Histogram must have at least one bin");
+
+        this.histogramMin = histogramMin;
+        this.histogramMax = histogramMax;
+        binWidth = (histogramMax - histogramMin) / bins;
+        histogram = new long[bins];
+        this.bins = bins;
+        growing = false;
+    }
+
+    private StreamingStatistics(final double histogramMin, final double binWidth) {
+        this.histogramMin = histogramMin;
+        this.binWidth = binWidth;
+        histogramMax = Double.NaN;
+        histogram = new long[INITIAL_BINS];
+        bins = 0;
+        growing = true;
+    }
+
+    /**
+     * Creates an empty instance, whose histogram has bins of the given width. The histogram grows to fit the largest
+     * value added.
+     *
+     * @param histogramMin  The lower limit of the histogram, values below it are counted in the first bin
+     * @param binWidth      Width of the bins
+     * @throws IllegalArgumentException if histogramMin is not finite, or binWidth is not positive
+     */
+    public static StreamingStatistics withBinWidth(final double histogramMin, final double binWidth)
+            throws IllegalArgumentException {
+        checkArgument(Double.isFinite(histogramMin), "Histogram minimum must be finite");
+        checkArgument(binWidth > 0.0 && Double.isFinite(binWidth), "Bin width must be positive");
+
+        return new StreamingStatistics(histogramMin, binWidth);
+    }
+
+    /**
+     * Creates an empty instance with the same histogram as the given instance
+     */
+    public static StreamingStatistics withHistogramOf(final StreamingStatistics statistics) {
+        if (statistics.growing) {
+            return new StreamingStatistics(statistics.histogramMin, statistics.binWidth);
+        }
+
+        return new StreamingStatistics(statistics.histogramMin, statistics.histogramMax, statistics.histogram.length);
+    }
+
+    /**
+     * Adds a value to the statistics
+     *
+     * @implNote NaN values are ignored
+     */
+    public void add(final double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        count++;
+        final double delta = value - mean;
+        mean += delta / count;
+        sumSquaredDifferences += delta * (value - mean);
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        // Find the bin first, because it may replace the histogram array
+        final int bin = bin(value);
+        histogram[bin]++;
+    }
+
+    /**
+     * Adds the values of the other statistics to these statistics
+     *
+     * @throws NullPointerException if other == null
+     * @throws IllegalArgumentException if the histograms of the statistics have a different range or size
+     */
+    public void merge(final StreamingStatistics other) throws NullPointerException, IllegalArgumentException {
+        checkNotNull(other, "Cannot merge null statistics");
+        checkArgument(growing == other.growing && histogramMin == other.histogramMin && binWidth == other.binWidth &&
+                (growing || (histogramMax == other.histogramMax && bins == other.bins)),
+                "Histograms of the statistics must match");
+
+        if (other.count == 0) {
+            return;
+        }
+
+        final long total = count + other.count;
+        final double delta = other.mean - mean;
+        mean += delta * other.count / total;
+        sumSquaredDifferences += other.sumSquaredDifferences + delta * delta * count * other.count / total;
+        count = total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+        ensureBins(other.bins);
+        for (int i = 0; i < other.bins; i++) {
+            histogram[i] += other.histogram[i];
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return The arithmetic mean of the values, or NaN if there are none
+     */
+    public double getMean() {
+        return count == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * @return The sum of the values
+     */
+    public double getSum() {
+        return mean * count;
+    }
+
+    /**
+     * @return The sample variance of the values, or NaN if there are less than two
+     */
+    public double getVariance() {
+        return count < 2 ? Double.NaN : sumSquaredDifferences / (count - 1);
+    }
+
+    /**
+     * @return The sample standard deviation of the values, or NaN if there are less than two
+     */
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+
+    /**
+     * @return The smallest value, or NaN if there are none
+     */
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    /**
+     * @return The largest value, or NaN if there are none
+     */
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /**
+     * Estimates the given percentile of the values from the histogram
+     *
+     * @implNote The values are assumed to be evenly distributed within each bin, so the error of the estimate is at
+     * most the width of a bin. The estimate is clamped to the range of the values.
+     * @param percentile The percentile in the range [0.0, 100.0], e.g. 50.0 for the median
+     * @throws IllegalArgumentException if percentile is not in the range [0.0, 100.0]
+     * @return The estimate, or NaN if there are no values
+     */
+    public double getPercentile(final double percentile) throws IllegalArgumentException {
+        checkArgument(percentile >= 0.0 && percentile <= 100.0, "Percentile must be in the range [0.0, 100.0]");
+
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        final double rank = percentile / 100.0 * count;
+        long cumulative = 0;
+        for (int i = 0; i < bins; i++) {
+            final long binCount = histogram[i];
+            if (binCount > 0 && cumulative + binCount >= rank) {
+                final double fraction = (rank - cumulative) / binCount;
+                final double estimate = histogramMin + (i + fraction) * binWidth;
+                return Math.max(min, Math.min(max, estimate));
+            }
+            cumulative += binCount;
+        }
+
+        return max;
+    }
+
+    /**
+     * @return A copy of the histogram counts
+     */
+    public long[] getHistogram() {
+        return Arrays.copyOf(histogram, bins);
+    }
+
+    public double getHistogramMin() {
+        return histogramMin;
+    }
+
+    /**
+     * @return The upper limit of the histogram. For a growing histogram it's the end of the last non-empty bin
+     */
+    public double getHistogramMax() {
+        return growing ? histogramMin + bins * binWidth : histogramMax;
+    }
+
+    public double getBinWidth() {
+        return binWidth;
+    }
+
+    //region -- Helper methods --
+    private int bin(final double value) {
+        final int bin = Math.max(0, (int) Math.floor((value - histogramMin) / binWidth));
+        if (!growing) {
+            return Math.min(histogram.length - 1, bin);
+        }
+
+        ensureBins(bin + 1);
+        return bin;
+    }
+
+    /**
+     * Grows the histogram so that it has at least the given number of bins
+     *
+     * @implNote Only growing histograms have fewer bins than requested
+     */
+    private void ensureBins(final int minBins) {
+        if (minBins <= bins) {
+            return;
+        }
+        if (minBins > histogram.length) {
+            histogram = Arrays.copyOf(histogram, Math.max(minBins, 2 * histogram.length));
+        }
+        bins = minBins;
+    }
+    //endregion
+}
@@ -0,0 +1,247 @@
+package org.bonej.skeleton;
+
+import java.awt.image.ColorModel;
+import java.lang.ref.SoftReference;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * A binary volume packed into bits, i.e. an eighth of the size of an 8-bit stack.
+ *
+ * Each row starts from a new word, so rows can be written in parallel without synchronisation. Voxels outside the
+ * volume are background.
+ *
+ * Scratch volumes are pooled: a volume from {@link #acquire(int, int, int)} should be returned with
+ * {@link #release()} so that the next run can reuse its memory instead of allocating another one.
+ *
+ * @author Richard Domander
+ */
+final class BitVolume {
+    private static final byte FOREGROUND_COLOR = (byte) 0xFF;
+    private static final int MAX_POOLED = 2;
+    private static final Queue<SoftReference<long[]>> pool = new ConcurrentLinkedQueue<>();
+
+    private final int width;
+    private final int height;
+    private final int depth;
+    private final int wordsPerRow;
+    private final long[] words;
+
+    private BitVolume(final int width, final int height, final int depth, final long[] words) {
+        this.width = width;
+        this.height = height;
+        this.depth = depth;
+        this.wordsPerRow = wordsPerRow(width);
+        this.words = words;
+    }
+
+    /**
+     * Returns an empty scratch volume of the given size, reusing a pooled buffer if one is large enough
+     */
+    static BitVolume acquire(final int width, final int height, final int depth) {
+        final long size = (long) wordsPerRow(width) * height * depth;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Volume is too large");
+        }
+
+        final Iterator<SoftReference<long[]>> iterator = pool.iterator();
+        while (iterator.hasNext()) {
+            final SoftReference<long[]> reference = iterator.next();
+            final long[] words = reference.get();
+            if (words == null) {
+                iterator.remove();
+                continue;
+            }
+
+            if (words.length >= size && pool.remove(reference)) {
+                Arrays.fill(words, 0, (int) size, 0L);
+                return new BitVolume(width, height, depth, words);
+            }
+        }
+
+        return new BitVolume(width, height, depth, new long[(int) size]);
+    }
+
+    /**
+     * Returns the buffer of the volume to the pool
+     *
+     * @implNote The volume must not be used after it has been released
+     */
+    void release() {
+        if (pool.size() < MAX_POOLED) {
+            pool.add(new SoftReference<>(words));
+        }
+    }
+
+    /**
+     * Packs the non-zero voxels of the given 8-bit stack into a scratch volume
+     */
+    static BitVolume pack(final ImageStack stack) {
+        final int width = stack.getWidth();
+        final int height = stack.getHeight();
+        final BitVolume volume = acquire(width, height, stack.getSize());
+        IntStream.range(0, volume.depth).parallel().forEach(z -> {
+            final byte[] pixels = (byte[]) stack.getPixels(z + 1);
+            for (int y = 0; y < height; y++) {
+                final int offset = y * width;
+                for (int x = 0; x < width; x++) {
+                    if (pixels[offset + x] != 0) {
+                        volume.set(x, y, z);
+                    }
+                }
+            }
+        });
+
+        return volume;
+    }
+
+    /**
+     * Returns a compact copy of the volume, which is not part of the pool
+     */
+    BitVolume copy() {
+        final int size = wordsPerRow * height * depth;
+        return new BitVolume(width, height, depth, Arrays.copyOf(words, size));
+    }
+
+    /**
+     * Unpacks the volume into an 8-bit stack, where foreground is 255 and background 0
+     */
+    ImageStack unpack(final ColorModel colorModel) {
+        final byte[][] slices = new byte[depth][];
+        IntStream.range(0, depth).parallel().forEach(z -> slices[z] = unpackSlice(z));
+
+        final ImageStack stack = new ImageStack(width, height, colorModel);
+        for (byte[] slice : slices) {
+            stack.addSlice("", slice);
+        }
+
+        return stack;
+    }
+
+    /**
+     * Returns a virtual stack which unpacks the slices of the volume on demand
+     *
+     * @implNote Useful for a single pass over the volume, e.g. hashing, without unpacking the whole volume at once
+     */
+    ImageStack asVirtualStack() {
+        return new SliceView();
+    }
+
+    boolean get(final int x, final int y, final int z) {
+        if (x < 0 || x >= width || y < 0 || y >= height || z < 0 || z >= depth) {
+            return false;
+        }
+
+        return (words[wordIndex(x, y, z)] & (1L << x)) != 0;
+    }
+
+    /**
+     * Sets the voxel as foreground
+     *
+     * @implNote Not thread safe for voxels in the same row
+     */
+    void set(final int x, final int y, final int z) {
+        words[wordIndex(x, y, z)] |= 1L << x;
+    }
+
+    /**
+     * Sets the voxel as background
+     *
+     * @implNote Not thread safe for voxels in the same row
+     */
+    void clear(final int x, final int y, final int z) {
+        words[wordIndex(x, y, z)] &= ~(1L << x);
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the number of foreground voxels in the volume
+     */
+    long countForeground() {
+        final int size = wordsPerRow * height * depth;
+        long count = 0;
+        for (int i = 0; i < size; i++) {
+            count += Long.bitCount(words[i]);
+        }
+
+        return count;
+    }
+
+    long getBytes() {
+        return (long) wordsPerRow * height * depth * Long.BYTES;
+    }
+
+    //region -- Helper methods --
+    private static int wordsPerRow(final int width) {
+        return (width + 63) >>> 6;
+    }
+
+    private int wordIndex(final int x, final int y, final int z) {
+        return (z * height + y) * wordsPerRow + (x >>> 6);
+    }
+
+    private byte[] unpackSlice(final int z) {
+        final byte[] slice = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            final int rowStart = (z * height + y) * wordsPerRow;
+            for (int w = 0; w < wordsPerRow; w++) {
+                long word = words[rowStart + w];
+                while (word != 0) {
+                    final int x = (w << 6) + Long.numberOfTrailingZeros(word);
+                    slice[y * width + x] = FOREGROUND_COLOR;
+                    word &= word - 1;
+                }
+            }
+        }
+
+        return slice;
+    }
+    //endregion
+
+    //region -- Helper classes --
+    private final class SliceView extends VirtualStack {
+        private SliceView() {
+            super(width, height, null, null);
+        }
+
+        @Override
+        public Object getPixels(final int n) {
+            return unpackSlice(n - 1);
+        }
+
+        @Override
+        public ImageProcessor getProcessor(final int n) {
+            return new ByteProcessor(width, height, unpackSlice(n - 1), null);
+        }
+
+        @Override
+        public int getSize() {
+            return depth;
+        }
+
+        @Override
+        public String getSliceLabel(final int n) {
+            return null;
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,362 @@
+package org.bonej.skeleton;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+import ij.ImageStack;
+
+/**
+ * A multithreaded implementation of the topology preserving 3D thinning algorithm of Lee, Kashyap & Chu, i.e. the
+ * same algorithm that Skeletonize3D_ uses.
+ *
+ * Each directional subiteration first collects the deletable border points of the image. Since the image doesn't
+ * change while they are collected, each slice is searched in parallel. Then the candidates are re-checked and
+ * deleted one sub-lattice at a time. The lattice is split into 8 classes by the parity of the coordinates. Points of
+ * the same class are never 26-adjacent, so deleting one can't affect the simplicity of another, and each class can
+ * be processed in parallel.
+ *
+ * The order of the deletions differs from Skeletonize3D_, so the skeletons may differ by some voxels, but every
+ * deletion is topology preserving, and thus the skeletons are topologically equivalent.
+ *
+ * @author Richard Domander
+ * @see <a href="http://dx.doi.org/10.1006/cgip.1994.1042">Lee T, Kashyap R, Chu C (1994) Building skeleton models
+ * via 3-D medial surface/axis thinning algorithms. CVGIP: Graphical Models and Image Processing 56(6):462-478</a>
+ */
+public class ParallelThinning {
+    private static final byte FOREGROUND = 1;
+    private static final byte BACKGROUND = 0;
+    private static final int CENTER = 13;
+    private static final int BORDERS = 6;
+
+    /** The neighbour offsets of each border direction N, S, E, W, U, B */
+    private static final int[][] BORDER_OFFSETS = {{0, -1, 0}, {0, 1, 0}, {1, 0, 0}, {-1, 0, 0}, {0, 0, 1},
+            {0, 0, -1}};
+
+    /** For each of the 27 voxels of the neighbourhood, the indices of the other voxels 26-adjacent to it */
+    private static final int[][] ADJACENT = createAdjacencies();
+
+    /**
+     * For each element (vertex, edge or face) of the boundary of the centre voxel, the indices of the other voxels
+     * which contain it
+     */
+    private static final int[][] BOUNDARY_ELEMENT_OWNERS = new int[26][];
+
+    /** The dimension of each element in BOUNDARY_ELEMENT_OWNERS */
+    private static final int[] BOUNDARY_ELEMENT_DIMENSIONS = new int[26];
+
+    static {
+        createBoundaryElements();
+    }
+
+    /**
+     * Creates the skeleton of the given binary stack
+     *
+     * @implNote The stack is not modified
+     * @param stack A binary 8-bit stack, where all non-zero voxels are foreground
+     * @throws NullPointerException if stack == null
+     * @throws IllegalArgumentException if the stack is not 8-bit
+     * @return A new stack, where the voxels of the skeleton are 255, and the rest 0
+     */
+    public static ImageStack thin(final ImageStack stack) throws NullPointerException, IllegalArgumentException {
+        return thinPacked(stack).unpack(stack.getColorModel());
+    }
+
+    /**
+     * Creates the skeleton of the given binary stack as a bit-packed volume
+     *
+     * @implNote The stack is thinned in a pooled scratch volume, so the input is neither modified nor copied
+     * @return A compact volume of the skeleton
+     */
+    static BitVolume thinPacked(final ImageStack stack) throws NullPointerException, IllegalArgumentException {
+        checkNotNull(stack, "Cannot thin a null stack");
+        checkArgument(stack.getSize() > 0 && stack.getPixels(1) instanceof byte[], "Stack must be 8-bit");
+
+        final BitVolume scratch = BitVolume.pack(stack);
+        try {
+            new Thinner(scratch).run();
+            return scratch.copy();
+        } finally {
+            scratch.release();
+        }
+    }
+
+    //region -- Helper methods --
+    private static int neighbourIndex(final int dx, final int dy, final int dz) {
+        return (dz + 1) * 9 + (dy + 1) * 3 + (dx + 1);
+    }
+
+    private static int[][] createAdjacencies() {
+        final int[][] adjacent = new int[27][];
+        for (int i = 0; i < 27; i++) {
+            final int[] indices = new int[26];
+            int count = 0;
+            for (int j = 0; j < 27; j++) {
+                if (i == j) {
+                    continue;
+                }
+                final boolean touching = Math.abs(i % 3 - j % 3) <= 1 && Math.abs(i / 3 % 3 - j / 3 % 3) <= 1 &&
+                        Math.abs(i / 9 - j / 9) <= 1;
+                if (touching) {
+                    indices[count++] = j;
+                }
+            }
+            adjacent[i] = Arrays.copyOf(indices, count);
+        }
+
+        return adjacent;
+    }
+
+    /**
+     * Enumerates the 8 vertices, 12 edges and 6 faces of the boundary of the centre voxel (the unit cube [0, 1]^3)
+     *
+     * An element is described per axis either by a fixed coordinate 0 or 1, or by the whole interval [0, 1]. A
+     * neighbour voxel at offset d contains the element if on each axis d == 0 for the interval, d is -1 or 0 for the
+     * coordinate 0, and d is 0 or 1 for the coordinate 1.
+     */
+    private static void createBoundaryElements() {
+        int element = 0;
+        for (int code = 0; code < 27; code++) {
+            // 0 = fixed at 0, 1 = fixed at 1, 2 = interval
+            final int[] axes = {code % 3, code / 3 % 3, code / 9};
+            final int dimension = (int) Arrays.stream(axes).filter(a -> a == 2).count();
+            if (dimension == 3) {
+                continue;
+            }
+
+            final int[] owners = new int[7];
+            int count = 0;
+            for (int n = 0; n < 27; n++) {
+                if (n == CENTER) {
+                    continue;
+                }
+                final int[] d = {n % 3 - 1, n / 3 % 3 - 1, n / 9 - 1};
+                boolean contains = true;
+                for (int a = 0; a < 3 && contains; a++) {
+                    contains = axes[a] == 2 ? d[a] == 0 : (axes[a] == 0 ? d[a] <= 0 : d[a] >= 0);
+                }
+                if (contains) {
+                    owners[count++] = n;
+                }
+            }
+
+            BOUNDARY_ELEMENT_OWNERS[element] = Arrays.copyOf(owners, count);
+            BOUNDARY_ELEMENT_DIMENSIONS[element] = dimension;
+            element++;
+        }
+    }
+
+    /**
+     * Checks if deleting the centre voxel keeps the Euler characteristic of the foreground unchanged
+     *
+     * @implNote The voxels are treated as closed unit cubes, which corresponds to 26-connectivity. By inclusion
+     * exclusion, the change in the characteristic is 1 - X(boundary of the centre voxel covered by its neighbours).
+     * This gives the same result as the octant look-up table of Lee et al.
+     */
+    private static boolean isEulerInvariant(final byte[] neighbourhood) {
+        int characteristic = 0;
+        for (int e = 0; e < BOUNDARY_ELEMENT_OWNERS.length; e++) {
+            for (int owner : BOUNDARY_ELEMENT_OWNERS[e]) {
+                if (neighbourhood[owner] == FOREGROUND) {
+                    characteristic += (BOUNDARY_ELEMENT_DIMENSIONS[e] & 1) == 0 ? 1 : -1;
+                    break;
+                }
+            }
+        }
+
+        return characteristic == 1;
+    }
+
+    /**
+     * Checks if the foreground voxels around the centre voxel form exactly one 26-connected component
+     */
+    private static boolean isSimplePoint(final byte[] neighbourhood) {
+        final int[] queue = new int[27];
+        final boolean[] visited = new boolean[27];
+        visited[CENTER] = true;
+        int components = 0;
+        for (int start = 0; start < 27; start++) {
+            if (visited[start] || neighbourhood[start] != FOREGROUND) {
+                continue;
+            }
+
+            components++;
+            if (components > 1) {
+                return false;
+            }
+
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = start;
+            visited[start] = true;
+            while (head < tail) {
+                final int current = queue[head++];
+                for (int next : ADJACENT[current]) {
+                    if (!visited[next] && neighbourhood[next] == FOREGROUND) {
+                        visited[next] = true;
+                        queue[tail++] = next;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isEndPoint(final byte[] neighbourhood) {
+        int neighbours = 0;
+        for (int i = 0; i < 27; i++) {
+            if (i != CENTER && neighbourhood[i] == FOREGROUND) {
+                neighbours++;
+            }
+        }
+
+        return neighbours == 1;
+    }
+    //endregion
+
+    //region -- Helper classes --
+    /**
+     * Thins the foreground of a volume in place
+     */
+    private static final class Thinner {
+        private final BitVolume volume;
+        private final int width;
+        private final int height;
+        private final int depth;
+        private final long sliceSize;
+
+        private Thinner(final BitVolume volume) {
+            this.volume = volume;
+            this.width = volume.getWidth();
+            this.height = volume.getHeight();
+            this.depth = volume.getDepth();
+            this.sliceSize = (long) width * height;
+        }
+
+        private void run() {
+            int unchangedBorders = 0;
+            while (unchangedBorders < BORDERS) {
+                unchangedBorders = 0;
+                for (int border = 0; border < BORDERS; border++) {
+                    final long[] candidates = findCandidates(BORDER_OFFSETS[border]);
+                    if (!deleteSimplePoints(candidates)) {
+                        unchangedBorders++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Finds the border points of the given direction which could be deleted
+         *
+         * @return The indices of the points as z * width * height + y * width + x in ascending order
+         */
+        private long[] findCandidates(final int[] borderOffset) {
+            final long[][] sliceCandidates = new long[depth][];
+            IntStream.range(0, depth).parallel().forEach(z -> {
+                final LongStream.Builder builder = LongStream.builder();
+                final byte[] neighbourhood = new byte[27];
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        if (!volume.get(x, y, z) ||
+                                volume.get(x + borderOffset[0], y + borderOffset[1], z + borderOffset[2])) {
+                            continue;
+                        }
+
+                        fillNeighbourhood(x, y, z, neighbourhood);
+                        if (isEndPoint(neighbourhood) || !isEulerInvariant(neighbourhood) ||
+                                !isSimplePoint(neighbourhood)) {
+                            continue;
+                        }
+
+                        builder.add(z * sliceSize + y * width + x);
+                    }
+                }
+                sliceCandidates[z] = builder.build().toArray();
+            });
+
+            return Arrays.stream(sliceCandidates).flatMapToLong(Arrays::stream).toArray();
+        }
+
+        /**
+         * Deletes the candidates which are still simple, one parity sub-lattice at a time
+         *
+         * @implNote The points of a sub-lattice are processed in parallel one row at a time, because voxels of the
+         * same row may share a word of the volume
+         * @return true if any point was deleted
+         */
+        private boolean deleteSimplePoints(final long[] candidates) {
+            boolean changed = false;
+            for (int parity = 0; parity < 8; parity++) {
+                final int p = parity;
+                final long[] lattice = Arrays.stream(candidates).filter(i -> parityOf(i) == p).toArray();
+                final int[] rowStarts = findRowStarts(lattice);
+                final int deleted = IntStream.range(0, rowStarts.length - 1).parallel()
+                        .map(r -> deleteRow(lattice, rowStarts[r], rowStarts[r + 1])).sum();
+                changed |= deleted > 0;
+            }
+
+            return changed;
+        }
+
+        /**
+         * Finds where each row begins in the sorted point indices
+         *
+         * @return The start positions of the rows, and the length of the array as the last element
+         */
+        private int[] findRowStarts(final long[] points) {
+            final IntStream.Builder builder = IntStream.builder();
+            long previousRow = -1;
+            for (int i = 0; i < points.length; i++) {
+                final long row = points[i] / width;
+                if (row != previousRow) {
+                    builder.add(i);
+                    previousRow = row;
+                }
+            }
+            builder.add(points.length);
+
+            return builder.build().toArray();
+        }
+
+        private int deleteRow(final long[] points, final int start, final int end) {
+            final byte[] neighbourhood = new byte[27];
+            int deleted = 0;
+            for (int i = start; i < end; i++) {
+                final int z = (int) (points[i] / sliceSize);
+                final int index = (int) (points[i] % sliceSize);
+                final int x = index % width;
+                final int y = index / width;
+                fillNeighbourhood(x, y, z, neighbourhood);
+                if (isEulerInvariant(neighbourhood) && isSimplePoint(neighbourhood)) {
+                    volume.clear(x, y, z);
+                    deleted++;
+                }
+            }
+
+            return deleted;
+        }
+
+        private int parityOf(final long index) {
+            final int z = (int) (index / sliceSize);
+            final int i = (int) (index % sliceSize);
+            return (i % width & 1) | (i / width & 1) << 1 | (z & 1) << 2;
+        }
+
+        private void fillNeighbourhood(final int x, final int y, final int z, final byte[] neighbourhood) {
+            for (int dz = -1; dz <= 1; dz++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        neighbourhood[neighbourIndex(dx, dy, dz)] =
+                                volume.get(x + dx, y + dy, z + dz) ? FOREGROUND : BACKGROUND;
+                    }
+                }
+            }
+        }
+    }
+    //endregion
+}
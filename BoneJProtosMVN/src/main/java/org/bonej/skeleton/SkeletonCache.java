@@ -0,0 +1,203 @@
+package org.bonej.skeleton;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.IntStream;
+
+import org.bonej.common.ImageCheck;
+import org.bonej.common.ImageFingerprint;
+
+import sc.fiji.analyzeSkeleton.AnalyzeSkeleton_;
+import sc.fiji.analyzeSkeleton.Graph;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A bounded cache for the skeletons of binary images, and the graphs AnalyzeSkeleton_ creates from them. The
+ * skeletons are created with ParallelThinning.
+ *
+ * The skeletons are keyed by a content hash of the binary stack, so any BoneJ plugin which needs the skeleton of an
+ * image that hasn't changed since the last run reuses it instead of thinning the image again. The skeleton is also
+ * registered under its own hash, so analysing a skeleton created by the cache doesn't thin it again either. Besides the
+ * hash and the dimensions, the key has the number of foreground voxels, so that a hash collision alone can't return
+ * the skeleton of another image.
+ *
+ * The skeletons are stored packed into bits, and unpacked into 8-bit stacks only when they are needed. The cache is
+ * bounded by the size of the packed skeletons. The values are held with soft references so that the garbage
+ * collector can reclaim them if memory runs low.
+ *
+ * @author Richard Domander
+ */
+public class SkeletonCache {
+    private static final long MAX_CACHE_KILOBYTES = Runtime.getRuntime().maxMemory() / 8 / 1024;
+
+    private static final Cache<Key, Entry> cache = CacheBuilder.newBuilder().maximumWeight(MAX_CACHE_KILOBYTES)
+            .weigher((Key key, Entry entry) -> entry.getKilobytes()).softValues().build();
+
+    /**
+     * Returns the skeleton of the given binary image
+     *
+     * @implNote The image is not modified. The skeleton is thinned from a copy of the image, or copied from the cache
+     * @param image A binary image
+     * @throws NullPointerException if image == null
+     * @throws IllegalArgumentException if image is not binary
+     * @return A new image which contains the skeleton of the given image
+     */
+    public static ImagePlus getSkeleton(final ImagePlus image) throws NullPointerException, IllegalArgumentException {
+        final Entry entry = getEntry(image);
+
+        final ImageStack stack = entry.skeleton.unpack(image.getStack().getColorModel());
+        final ImagePlus skeleton = new ImagePlus("Skeleton of " + image.getTitle(), stack);
+        skeleton.setCalibration(image.getCalibration().copy());
+        return skeleton;
+    }
+
+    /**
+     * Returns the graphs AnalyzeSkeleton_ creates from the skeleton of the given binary image
+     *
+     * @implNote The graphs are shared between callers, and must not be modified
+     * @param image A binary image
+     * @throws NullPointerException if image == null
+     * @throws IllegalArgumentException if image is not binary
+     * @return The graphs of the skeleton, or an empty array if the image could not be skeletonised
+     */
+    public static Graph[] getGraphs(final ImagePlus image) throws NullPointerException, IllegalArgumentException {
+        final Entry entry = getEntry(image);
+        return entry.getGraphs(image.getCalibration());
+    }
+
+    public static void clear() {
+        cache.invalidateAll();
+    }
+
+    //region -- Helper methods --
+    private static Entry getEntry(final ImagePlus image) throws NullPointerException, IllegalArgumentException {
+        checkNotNull(image, "Must have an input image");
+        checkArgument(ImageCheck.isBinary(image), "Input image must be binary");
+
+        final ImageStack stack = image.getStack();
+        final Key key = new Key(ImageFingerprint.of(stack), countForeground(stack), stack.getWidth(),
+                stack.getHeight(), stack.getSize());
+        final Entry entry;
+        try {
+            entry = cache.get(key, () -> new Entry(ParallelThinning.thinPacked(stack)));
+        } catch (ExecutionException e) {
+            throw new IllegalArgumentException("Input image could not be skeletonized", e.getCause());
+        }
+
+        // Thinning a skeleton doesn't change it, so the skeleton can be found with its own hash too
+        final Key skeletonKey = new Key(entry.fingerprint, entry.foreground, key.width, key.height, key.depth);
+        if (!skeletonKey.equals(key) && cache.getIfPresent(skeletonKey) == null) {
+            cache.put(skeletonKey, entry);
+        }
+
+        return entry;
+    }
+
+    /** Counts the voxels of a binary stack which have the foreground value 0xFF */
+    private static long countForeground(final ImageStack stack) {
+        return IntStream.rangeClosed(1, stack.getSize()).parallel().mapToLong(z -> {
+            final byte[] pixels = (byte[]) stack.getPixels(z);
+            long count = 0;
+            for (byte pixel : pixels) {
+                if (pixel == (byte) 0xFF) {
+                    count++;
+                }
+            }
+            return count;
+        }).sum();
+    }
+    //endregion
+
+    //region -- Helper classes --
+    private static final class Entry {
+        private final BitVolume skeleton;
+        /** Hash of the skeleton as an 8-bit stack */
+        private final long fingerprint;
+        /** Number of voxels in the skeleton */
+        private final long foreground;
+        private Graph[] graphs = null;
+        private Calibration graphCalibration = null;
+
+        private Entry(final BitVolume skeleton) {
+            this.skeleton = skeleton;
+            fingerprint = ImageFingerprint.of(skeleton.asVirtualStack());
+            foreground = skeleton.countForeground();
+        }
+
+        /**
+         * Returns the graphs of the skeleton, and analyses it if that hasn't been done with the given calibration
+         *
+         * @implNote The lengths in the graphs depend on the calibration
+         */
+        private synchronized Graph[] getGraphs(final Calibration calibration) {
+            if (graphs != null && sameScale(calibration, graphCalibration)) {
+                return graphs;
+            }
+
+            final ImagePlus image = new ImagePlus("Skeleton", skeleton.unpack(null));
+            image.setCalibration(calibration.copy());
+            final AnalyzeSkeleton_ skeletonAnalyzer = new AnalyzeSkeleton_();
+            skeletonAnalyzer.setup("", image);
+            skeletonAnalyzer.run();
+
+            final Graph[] result = skeletonAnalyzer.getGraphs();
+            graphs = result == null ? new Graph[0] : result;
+            graphCalibration = calibration.copy();
+            return graphs;
+        }
+
+        private int getKilobytes() {
+            return (int) Math.min(Integer.MAX_VALUE, skeleton.getBytes() / 1024 + 1);
+        }
+
+        private static boolean sameScale(final Calibration a, final Calibration b) {
+            return a.pixelWidth == b.pixelWidth && a.pixelHeight == b.pixelHeight && a.pixelDepth == b.pixelDepth;
+        }
+    }
+
+    private static final class Key {
+        private final long fingerprint;
+        private final long foreground;
+        private final int width;
+        private final int height;
+        private final int depth;
+
+        private Key(final long fingerprint, final long foreground, final int width, final int height,
+                    final int depth) {
+            this.fingerprint = fingerprint;
+            this.foreground = foreground;
+            this.width = width;
+            this.height = height;
+            this.depth = depth;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) o;
+            return fingerprint == other.fingerprint && foreground == other.foreground && width == other.width &&
+                    height == other.height && depth == other.depth;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fingerprint, foreground, width, height, depth);
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,296 @@
+package org.bonej.skeleton;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+import sc.fiji.analyzeSkeleton.Edge;
+import sc.fiji.analyzeSkeleton.Graph;
+import sc.fiji.analyzeSkeleton.Point;
+import sc.fiji.analyzeSkeleton.Vertex;
+
+/**
+ * Reads the skeleton graphs written by SkeletonGraphWriter.
+ *
+ * Only the header is read when the file is opened. The block of each graph is memory mapped when it's first accessed,
+ * and its values are read from the mapping on demand, so opening a file with large skeletons is cheap.
+ *
+ * @author Richard Domander
+ * @see SkeletonGraphFormat
+ */
+public class SkeletonGraphFile implements Closeable {
+    private final FileChannel channel;
+    private final long[] positions;
+    private final long[] sizes;
+    private final GraphView[] views;
+
+    private SkeletonGraphFile(final FileChannel channel, final long[] positions, final long[] sizes) {
+        this.channel = channel;
+        this.positions = positions;
+        this.sizes = sizes;
+        views = new GraphView[positions.length];
+    }
+
+    /**
+     * Opens a skeleton graph file for reading
+     *
+     * @throws NullPointerException if file == null
+     * @throws IllegalArgumentException if the file is not a skeleton graph file, or its version is not supported
+     * @throws IOException if reading the file fails
+     */
+    public static SkeletonGraphFile open(final Path file)
+            throws NullPointerException, IllegalArgumentException, IOException {
+        checkNotNull(file, "File cannot be null");
+
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            final long fileSize = channel.size();
+            checkArgument(fileSize >= SkeletonGraphFormat.headerBytes(0), "Not a skeleton graph file");
+
+            final ByteBuffer start = channel.map(FileChannel.MapMode.READ_ONLY, 0, SkeletonGraphFormat.headerBytes(0));
+            checkArgument(start.getInt() == SkeletonGraphFormat.MAGIC, "Not a skeleton graph file");
+            checkArgument(start.getInt() == SkeletonGraphFormat.VERSION, "Unsupported skeleton graph file version");
+            final int graphs = start.getInt();
+            checkArgument(graphs >= 0 && SkeletonGraphFormat.headerBytes(graphs) <= fileSize,
+                    "Skeleton graph file is truncated");
+
+            final ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    SkeletonGraphFormat.headerBytes(graphs));
+            header.position(SkeletonGraphFormat.HEADER_INTS * Integer.BYTES);
+            final long[] positions = new long[graphs];
+            final long[] sizes = new long[graphs];
+            for (int g = 0; g < graphs; g++) {
+                positions[g] = header.getLong();
+            }
+            for (int g = 0; g < graphs; g++) {
+                sizes[g] = header.getLong();
+                checkArgument(positions[g] + sizes[g] <= fileSize, "Skeleton graph file is truncated");
+            }
+
+            return new SkeletonGraphFile(channel, positions, sizes);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getGraphCount() {
+        return positions.length;
+    }
+
+    /**
+     * Returns a view of the graph, which reads its values from the file
+     *
+     * @throws IndexOutOfBoundsException if graph is not a valid index
+     * @throws IOException if mapping the graph from the file fails
+     */
+    public synchronized GraphView getGraph(final int graph) throws IndexOutOfBoundsException, IOException {
+        checkElementIndex(graph, positions.length, "Graph");
+
+        if (views[graph] == null) {
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, positions[graph], sizes[graph]);
+            views[graph] = new GraphView(buffer);
+        }
+
+        return views[graph];
+    }
+
+    /**
+     * Reads all the graphs in the file into AnalyzeSkeleton_ graphs
+     *
+     * @throws IOException if mapping the graphs from the file fails
+     * @see GraphView#toGraph()
+     */
+    public Graph[] readGraphs() throws IOException {
+        final Graph[] graphs = new Graph[positions.length];
+        for (int g = 0; g < graphs.length; g++) {
+            graphs[g] = getGraph(g).toGraph();
+        }
+
+        return graphs;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    //region -- Helper classes --
+    /**
+     * A read-only view of a graph block in a skeleton graph file. Vertices and edges are referred to by their index
+     * in the graph, and points are returned as {x0, y0, z0, x1, y1, z1 ...} arrays.
+     */
+    public static final class GraphView {
+        private final ByteBuffer buffer;
+        private final int vertices;
+        private final int edges;
+        private final int vertexPointOffsets;
+        private final int slabOffsets;
+        private final int adjacencyOffsets;
+        private final int adjacency;
+        private final int edgeVertices;
+        private final int edgeLengths;
+        private final int vertexPoints;
+        private final int slabPoints;
+
+        private GraphView(final ByteBuffer buffer) {
+            this.buffer = buffer;
+            vertices = buffer.getInt(0);
+            edges = buffer.getInt(Integer.BYTES);
+            final int vertexPointCount = buffer.getInt(2 * Integer.BYTES);
+            final int adjacencyCount = buffer.getInt(4 * Integer.BYTES);
+
+            vertexPointOffsets = SkeletonGraphFormat.GRAPH_HEADER_INTS * Integer.BYTES;
+            slabOffsets = vertexPointOffsets + (vertices + 1) * Integer.BYTES;
+            adjacencyOffsets = slabOffsets + (edges + 1) * Integer.BYTES;
+            adjacency = adjacencyOffsets + (vertices + 1) * Integer.BYTES;
+            edgeVertices = adjacency + adjacencyCount * Integer.BYTES;
+            edgeLengths = edgeVertices + 2 * edges * Integer.BYTES;
+            vertexPoints = edgeLengths + edges * Double.BYTES;
+            slabPoints = vertexPoints + 3 * vertexPointCount * Integer.BYTES;
+        }
+
+        public int getVertexCount() {
+            return vertices;
+        }
+
+        public int getEdgeCount() {
+            return edges;
+        }
+
+        /**
+         * @throws IndexOutOfBoundsException if vertex is not a valid index
+         * @return The coordinates of the points of the vertex
+         */
+        public int[] getVertexPoints(final int vertex) throws IndexOutOfBoundsException {
+            checkElementIndex(vertex, vertices, "Vertex");
+
+            return readPoints(vertexPoints, vertexPointOffsets, vertex);
+        }
+
+        /**
+         * @throws IndexOutOfBoundsException if edge is not a valid index
+         * @return The coordinates of the slab points of the edge, i.e. the points between its vertices
+         */
+        public int[] getSlabPoints(final int edge) throws IndexOutOfBoundsException {
+            checkElementIndex(edge, edges, "Edge");
+
+            return readPoints(slabPoints, slabOffsets, edge);
+        }
+
+        /**
+         * @throws IndexOutOfBoundsException if vertex is not a valid index
+         * @return The indices of the edges (branches) of the vertex
+         */
+        public int[] getBranches(final int vertex) throws IndexOutOfBoundsException {
+            checkElementIndex(vertex, vertices, "Vertex");
+
+            final int start = buffer.getInt(adjacencyOffsets + vertex * Integer.BYTES);
+            final int end = buffer.getInt(adjacencyOffsets + (vertex + 1) * Integer.BYTES);
+            final int[] branches = new int[end - start];
+            for (int i = 0; i < branches.length; i++) {
+                branches[i] = buffer.getInt(adjacency + (start + i) * Integer.BYTES);
+            }
+
+            return branches;
+        }
+
+        /**
+         * @throws IndexOutOfBoundsException if edge is not a valid index
+         * @return The index of the first vertex of the edge, or -1 if it's not in the graph
+         */
+        public int getV1(final int edge) throws IndexOutOfBoundsException {
+            checkElementIndex(edge, edges, "Edge");
+
+            return buffer.getInt(edgeVertices + 2 * edge * Integer.BYTES);
+        }
+
+        /**
+         * @throws IndexOutOfBoundsException if edge is not a valid index
+         * @return The index of the second vertex of the edge, or -1 if it's not in the graph
+         */
+        public int getV2(final int edge) throws IndexOutOfBoundsException {
+            checkElementIndex(edge, edges, "Edge");
+
+            return buffer.getInt(edgeVertices + (2 * edge + 1) * Integer.BYTES);
+        }
+
+        /**
+         * @throws IndexOutOfBoundsException if edge is not a valid index
+         * @return The calibrated length of the edge as calculated by AnalyzeSkeleton_
+         */
+        public double getLength(final int edge) throws IndexOutOfBoundsException {
+            checkElementIndex(edge, edges, "Edge");
+
+            return buffer.getDouble(edgeLengths + edge * Double.BYTES);
+        }
+
+        /**
+         * Creates an AnalyzeSkeleton_ graph of the view, e.g. to calculate angles or lengths without rethinning
+         *
+         * @implNote The branches of each vertex are added in the order they were written
+         */
+        public Graph toGraph() {
+            final Graph graph = new Graph();
+            final Vertex[] vertexArray = new Vertex[vertices];
+            for (int v = 0; v < vertices; v++) {
+                final Vertex vertex = new Vertex();
+                toPoints(getVertexPoints(v)).forEach(vertex::addPoint);
+                vertexArray[v] = vertex;
+                graph.addVertex(vertex);
+            }
+
+            final Edge[] edgeArray = new Edge[edges];
+            for (int e = 0; e < edges; e++) {
+                final Vertex v1 = vertexOrNull(vertexArray, getV1(e));
+                final Vertex v2 = vertexOrNull(vertexArray, getV2(e));
+                edgeArray[e] = new Edge(v1, v2, toPoints(getSlabPoints(e)), getLength(e));
+                graph.addEdge(edgeArray[e]);
+            }
+
+            for (int v = 0; v < vertices; v++) {
+                for (int branch : getBranches(v)) {
+                    vertexArray[v].setBranch(edgeArray[branch]);
+                }
+            }
+
+            return graph;
+        }
+
+        //region -- Helper methods --
+        private int[] readPoints(final int pointsStart, final int offsetsStart, final int index) {
+            final int start = buffer.getInt(offsetsStart + index * Integer.BYTES);
+            final int end = buffer.getInt(offsetsStart + (index + 1) * Integer.BYTES);
+            final int[] coordinates = new int[3 * (end - start)];
+            final int position = pointsStart + 3 * start * Integer.BYTES;
+            for (int i = 0; i < coordinates.length; i++) {
+                coordinates[i] = buffer.getInt(position + i * Integer.BYTES);
+            }
+
+            return coordinates;
+        }
+
+        private static ArrayList<Point> toPoints(final int[] coordinates) {
+            final ArrayList<Point> points = new ArrayList<>(coordinates.length / 3);
+            for (int i = 0; i < coordinates.length; i += 3) {
+                points.add(new Point(coordinates[i], coordinates[i + 1], coordinates[i + 2]));
+            }
+
+            return points;
+        }
+
+        private static Vertex vertexOrNull(final Vertex[] vertices, final int index) {
+            return index < 0 ? null : vertices[index];
+        }
+        //endregion
+    }
+    //endregion
+}
@@ -0,0 +1,54 @@
+package org.bonej.skeleton;
+
+/**
+ * Constants of the binary skeleton graph file format shared by SkeletonGraphWriter and SkeletonGraphFile.
+ *
+ * All values are big-endian. The file begins with a header:
+ * <pre>
+ * int      MAGIC
+ * int      VERSION
+ * int      number of graphs G
+ * long[G]  position of each graph block in the file
+ * long[G]  size of each graph block in bytes
+ * </pre>
+ * Each graph block is, with V vertices, E edges, P vertex points, S slab points and A adjacency entries:
+ * <pre>
+ * int        V, E, P, S, A
+ * int[V + 1] index of the first point of each vertex, and P
+ * int[E + 1] index of the first slab point of each edge, and S
+ * int[V + 1] index of the first adjacency entry of each vertex, and A
+ * int[A]     indices of the edges (branches) of each vertex
+ * int[2E]    indices of the two vertices of each edge
+ * double[E]  length of each edge
+ * int[3P]    x, y, z of each vertex point
+ * int[3S]    x, y, z of each slab point
+ * </pre>
+ *
+ * @author Richard Domander
+ */
+final class SkeletonGraphFormat {
+    static final int MAGIC = 0x424A5347;
+    static final int VERSION = 1;
+    static final int HEADER_INTS = 3;
+    static final int GRAPH_HEADER_INTS = 5;
+
+    private SkeletonGraphFormat() {
+    }
+
+    /**
+     * Returns the size of the file header in bytes
+     */
+    static long headerBytes(final int graphs) {
+        return HEADER_INTS * Integer.BYTES + 2L * graphs * Long.BYTES;
+    }
+
+    /**
+     * Returns the size of a graph block in bytes
+     */
+    static long graphBytes(final int vertices, final int edges, final int vertexPoints, final int slabPoints,
+                           final int adjacency) {
+        final long ints = GRAPH_HEADER_INTS + (vertices + 1L) * 2 + (edges + 1L) + adjacency + 2L * edges +
+                3L * vertexPoints + 3L * slabPoints;
+        return ints * Integer.BYTES + (long) edges * Double.BYTES;
+    }
+}
@@ -0,0 +1,194 @@
+package org.bonej.skeleton;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import sc.fiji.analyzeSkeleton.Edge;
+import sc.fiji.analyzeSkeleton.Graph;
+import sc.fiji.analyzeSkeleton.Point;
+import sc.fiji.analyzeSkeleton.Vertex;
+
+/**
+ * Writes the graphs of AnalyzeSkeleton_ into a compact binary file, which can be read with SkeletonGraphFile.
+ *
+ * The graphs are written through memory mapped regions of the file, one graph at a time.
+ *
+ * @author Richard Domander
+ * @see SkeletonGraphFormat
+ */
+public class SkeletonGraphWriter {
+    /**
+     * Writes the graphs into the given file, replacing it if it exists
+     *
+     * @param graphs    Graphs of a skeleton
+     * @param file      The destination file
+     * @throws NullPointerException if graphs == null, or any of the graphs is null, or file == null
+     * @throws IllegalArgumentException if a single graph is too large (> 2 GB) for the format
+     * @throws IOException if writing the file fails
+     */
+    public static void write(final Graph[] graphs, final Path file)
+            throws NullPointerException, IllegalArgumentException, IOException {
+        checkNotNull(graphs, "Graphs cannot be null");
+        checkNotNull(file, "File cannot be null");
+
+        final List<GraphLayout> layouts = new ArrayList<>(graphs.length);
+        for (Graph graph : graphs) {
+            checkNotNull(graph, "Graph cannot be null");
+            layouts.add(new GraphLayout(graph));
+        }
+
+        final long headerBytes = SkeletonGraphFormat.headerBytes(graphs.length);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerBytes);
+            header.putInt(SkeletonGraphFormat.MAGIC);
+            header.putInt(SkeletonGraphFormat.VERSION);
+            header.putInt(graphs.length);
+
+            long position = headerBytes;
+            for (GraphLayout layout : layouts) {
+                header.putLong(position);
+                position += layout.bytes;
+            }
+            for (GraphLayout layout : layouts) {
+                header.putLong(layout.bytes);
+            }
+            header.force();
+
+            position = headerBytes;
+            for (GraphLayout layout : layouts) {
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, layout.bytes);
+                layout.write(buffer);
+                buffer.force();
+                position += layout.bytes;
+            }
+        }
+    }
+
+    //region -- Helper classes --
+    /**
+     * Indexes the vertices and edges of a graph, and calculates the size of its block
+     */
+    private static final class GraphLayout {
+        private final List<Vertex> vertices;
+        private final List<Edge> edges;
+        private final Map<Vertex, Integer> vertexIndices = new IdentityHashMap<>();
+        private final Map<Edge, Integer> edgeIndices = new IdentityHashMap<>();
+        private final int vertexPoints;
+        private final int slabPoints;
+        private final int adjacency;
+        private final int bytes;
+
+        private GraphLayout(final Graph graph) {
+            vertices = graph.getVertices();
+            edges = graph.getEdges();
+
+            long points = 0;
+            for (int v = 0; v < vertices.size(); v++) {
+                vertexIndices.put(vertices.get(v), v);
+                points += vertices.get(v).getPoints().size();
+            }
+
+            long slabs = 0;
+            for (int e = 0; e < edges.size(); e++) {
+                edgeIndices.put(edges.get(e), e);
+                slabs += edges.get(e).getSlabs().size();
+            }
+
+            long branches = 0;
+            for (Vertex vertex : vertices) {
+                branches += vertex.getBranches().stream().filter(edgeIndices::containsKey).count();
+            }
+
+            final long size = SkeletonGraphFormat.graphBytes(vertices.size(), edges.size(), (int) points,
+                    (int) slabs, (int) branches);
+            checkArgument(size <= Integer.MAX_VALUE, "Graph is too large to be written");
+            vertexPoints = (int) points;
+            slabPoints = (int) slabs;
+            adjacency = (int) branches;
+            bytes = (int) size;
+        }
+
+        private void write(final MappedByteBuffer buffer) {
+            buffer.putInt(vertices.size());
+            buffer.putInt(edges.size());
+            buffer.putInt(vertexPoints);
+            buffer.putInt(slabPoints);
+            buffer.putInt(adjacency);
+
+            int offset = 0;
+            for (Vertex vertex : vertices) {
+                buffer.putInt(offset);
+                offset += vertex.getPoints().size();
+            }
+            buffer.putInt(offset);
+
+            offset = 0;
+            for (Edge edge : edges) {
+                buffer.putInt(offset);
+                offset += edge.getSlabs().size();
+            }
+            buffer.putInt(offset);
+
+            offset = 0;
+            for (Vertex vertex : vertices) {
+                buffer.putInt(offset);
+                offset += vertex.getBranches().stream().filter(edgeIndices::containsKey).count();
+            }
+            buffer.putInt(offset);
+
+            for (Vertex vertex : vertices) {
+                for (Edge branch : vertex.getBranches()) {
+                    final Integer index = edgeIndices.get(branch);
+                    if (index != null) {
+                        buffer.putInt(index);
+                    }
+                }
+            }
+
+            for (Edge edge : edges) {
+                buffer.putInt(vertexIndex(edge.getV1()));
+                buffer.putInt(vertexIndex(edge.getV2()));
+            }
+
+            for (Edge edge : edges) {
+                buffer.putDouble(edge.getLength());
+            }
+
+            for (Vertex vertex : vertices) {
+                putPoints(buffer, vertex.getPoints());
+            }
+
+            for (Edge edge : edges) {
+                putPoints(buffer, edge.getSlabs());
+            }
+        }
+
+        /**
+         * @return Index of the vertex, or -1 if the vertex is not in the graph
+         */
+        private int vertexIndex(final Vertex vertex) {
+            final Integer index = vertexIndices.get(vertex);
+            return index == null ? -1 : index;
+        }
+
+        private static void putPoints(final MappedByteBuffer buffer, final List<Point> points) {
+            for (Point point : points) {
+                buffer.putInt(point.x);
+                buffer.putInt(point.y);
+                buffer.putInt(point.z);
+            }
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,290 @@
+package org.bonej.thickness;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.stream.IntStream;
+
+import org.bonej.common.DistanceTransform;
+
+/**
+ * Finds the distance ridge of a squared distance map, i.e. the centres of the spheres which aren't covered by the
+ * sphere of any neighbouring voxel. With isotropic voxels the criteria are the same as in DistanceRidge of
+ * LocalThickness.
+ *
+ * The discrete templates of LocalThickness assume integer squared distances, so with anisotropic voxels a sphere is
+ * considered covered only if it's inside the sphere of the neighbour in continuous space. That removes fewer points
+ * from the ridge, but since every sphere it removes is covered, the local thickness doesn't change.
+ *
+ * @author Richard Domander
+ * @see <a href="http://dx.doi.org/10.1111/j.1749-6632.2009.05091.x">Dougherty R, Kunzelmann K (2007) Computing Local
+ * Thickness of 3D Structures with ImageJ. Microscopy and Microanalysis 13(S02):1678-1679</a>
+ */
+class DistanceRidge {
+    /** The ridge points of each slice as indices to the slice */
+    final int[][] indices;
+
+    /** The squared radius of the sphere of each ridge point in voxel widths */
+    final float[][] squaredRadii;
+
+    DistanceRidge(final int[][] indices, final float[][] squaredRadii) {
+        this.indices = indices;
+        this.squaredRadii = squaredRadii;
+    }
+
+    /**
+     * Finds the ridge points of the map
+     *
+     * @param map       Squared distances, one array per slice
+     * @param width     Width of the slices
+     * @param height    Height of the slices
+     * @param weights   The weights of the x-, y- and z-axes of the distances
+     */
+    static DistanceRidge find(final float[][] map, final int width, final int height, final double[] weights) {
+        final int depth = map.length;
+        final CoverTest coverTest = DistanceTransform.isIsotropic(weights) ? new TemplateTest(map) :
+                new ContinuousTest(weights);
+        final int[][] indices = new int[depth][];
+        final float[][] squaredRadii = new float[depth][];
+
+        IntStream.range(0, depth).parallel().forEach(z -> {
+            final float[] slice = map[z];
+            int[] sliceIndices = new int[16];
+            float[] sliceRadii = new float[16];
+            int count = 0;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    final int index = y * width + x;
+                    final float rSq = coverTest.squaredRadius(slice[index]);
+                    if (rSq == 0.0f) {
+                        continue;
+                    }
+                    if (isCovered(map, width, height, x, y, z, coverTest, rSq)) {
+                        continue;
+                    }
+                    if (count == sliceIndices.length) {
+                        sliceIndices = Arrays.copyOf(sliceIndices, count * 2);
+                        sliceRadii = Arrays.copyOf(sliceRadii, count * 2);
+                    }
+                    sliceIndices[count] = index;
+                    sliceRadii[count] = rSq;
+                    count++;
+                }
+            }
+            indices[z] = Arrays.copyOf(sliceIndices, count);
+            squaredRadii[z] = Arrays.copyOf(sliceRadii, count);
+        });
+
+        return new DistanceRidge(indices, squaredRadii);
+    }
+
+    /**
+     * @return The largest squared radius of the ridge, or 0.0 if there are no ridge points
+     */
+    float maxSquaredRadius() {
+        float max = 0.0f;
+        for (float[] sliceRadii : squaredRadii) {
+            for (float rSq : sliceRadii) {
+                max = Math.max(max, rSq);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the ridge points inside a box
+     *
+     * @param width Width of the slices
+     * @param min   The x-, y- and z-coordinates of the first voxel of the box
+     * @param max   The x-, y- and z-coordinates after the last voxel of the box
+     * @return A ridge of the same depth, which has no points outside the box
+     */
+    DistanceRidge within(final int width, final int[] min, final int[] max) {
+        final int depth = indices.length;
+        final int[][] boxIndices = new int[depth][];
+        final float[][] boxRadii = new float[depth][];
+        for (int z = 0; z < depth; z++) {
+            int count = 0;
+            final int[] sliceIndices = new int[z >= min[2] && z < max[2] ? indices[z].length : 0];
+            final float[] sliceRadii = new float[sliceIndices.length];
+            for (int n = 0; n < sliceIndices.length; n++) {
+                final int x = indices[z][n] % width;
+                final int y = indices[z][n] / width;
+                if (x >= min[0] && x < max[0] && y >= min[1] && y < max[1]) {
+                    sliceIndices[count] = indices[z][n];
+                    sliceRadii[count] = squaredRadii[z][n];
+                    count++;
+                }
+            }
+            boxIndices[z] = Arrays.copyOf(sliceIndices, count);
+            boxRadii[z] = Arrays.copyOf(sliceRadii, count);
+        }
+
+        return new DistanceRidge(boxIndices, boxRadii);
+    }
+
+    //region -- Helper methods --
+    /**
+     * Checks if the sphere of the point is covered by the sphere of one of its 26-neighbours
+     */
+    private static boolean isCovered(final float[][] map, final int width, final int height, final int x,
+                                     final int y, final int z, final CoverTest coverTest, final float rSq) {
+        for (int dz = -1; dz <= 1; dz++) {
+            final int z1 = z + dz;
+            if (z1 < 0 || z1 >= map.length) {
+                continue;
+            }
+            final float[] slice = map[z1];
+            for (int dy = -1; dy <= 1; dy++) {
+                final int y1 = y + dy;
+                if (y1 < 0 || y1 >= height) {
+                    continue;
+                }
+                for (int dx = -1; dx <= 1; dx++) {
+                    final int x1 = x + dx;
+                    if (x1 < 0 || x1 >= width) {
+                        continue;
+                    }
+                    if (dx == 0 && dy == 0 && dz == 0) {
+                        continue;
+                    }
+                    final float neighbourSq = coverTest.squaredRadius(slice[y1 * width + x1]);
+                    if (coverTest.covers(neighbourSq, rSq, dx, dy, dz)) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+    //endregion
+
+    //region -- Helper classes --
+    /**
+     * Tests whether the sphere of a point is covered by the sphere of its neighbour
+     */
+    private interface CoverTest {
+        /**
+         * @return The squared radius of the sphere of a point with the given squared distance
+         */
+        float squaredRadius(float squaredDistance);
+
+        /**
+         * @param neighbourSq   Squared radius of the neighbour
+         * @param rSq           Squared radius of the point
+         * @return true if the sphere of the neighbour at offset (dx, dy, dz) covers the sphere of the point
+         */
+        boolean covers(float neighbourSq, float rSq, int dx, int dy, int dz);
+    }
+
+    /**
+     * The discrete covering templates of DistanceRidge in LocalThickness for isotropic voxels
+     */
+    private static final class TemplateTest implements CoverTest {
+        private final int[] radii;
+        private final int[][] template;
+
+        private TemplateTest(final float[][] map) {
+            radii = occurringSquaredRadii(map);
+            template = createTemplate(radii);
+        }
+
+        @Override
+        public float squaredRadius(final float squaredDistance) {
+            return Math.round(squaredDistance);
+        }
+
+        @Override
+        public boolean covers(final float neighbourSq, final float rSq, final int dx, final int dy, final int dz) {
+            final int components = Math.abs(dx) + Math.abs(dy) + Math.abs(dz);
+            final int radiusIndex = Arrays.binarySearch(radii, (int) rSq);
+            return neighbourSq >= template[components - 1][radiusIndex];
+        }
+
+        /**
+         * @return The distinct non-zero squared radii in the map in ascending order
+         */
+        private static int[] occurringSquaredRadii(final float[][] map) {
+            final BitSet[] sliceOccurrences = new BitSet[map.length];
+            IntStream.range(0, map.length).parallel().forEach(z -> {
+                final BitSet occurs = new BitSet();
+                for (float value : map[z]) {
+                    occurs.set(Math.round(value));
+                }
+                sliceOccurrences[z] = occurs;
+            });
+
+            final BitSet occurs = new BitSet();
+            Arrays.stream(sliceOccurrences).forEach(occurs::or);
+            occurs.clear(0);
+            return occurs.stream().toArray();
+        }
+
+        /**
+         * Creates the template of covering radii. The first index is the number of non-zero components in the offset
+         * to the neighbour (1 - 3), and the second the index of the squared radius of the point. The value is the
+         * smallest squared radius of the neighbour, whose sphere covers the sphere of the point.
+         */
+        private static int[][] createTemplate(final int[] radii) {
+            return new int[][]{scanCube(1, 0, 0, radii), scanCube(1, 1, 0, radii), scanCube(1, 1, 1, radii)};
+        }
+
+        private static int[] scanCube(final int dx, final int dy, final int dz, final int[] radii) {
+            final int[] coveringRadii = new int[radii.length];
+            for (int r = 0; r < radii.length; r++) {
+                final int rSq = radii[r];
+                final int limit = 1 + (int) Math.sqrt(rSq);
+                int max = 0;
+                for (int k = 0; k <= limit; k++) {
+                    final int kSq = k * k;
+                    final int dk = (k + dz) * (k + dz);
+                    for (int j = 0; j <= limit; j++) {
+                        final int kjSq = kSq + j * j;
+                        if (kjSq > rSq) {
+                            continue;
+                        }
+                        final int i = (int) Math.sqrt(rSq - kjSq) + dx;
+                        final int distance = dk + (j + dy) * (j + dy) + i * i;
+                        max = Math.max(max, distance);
+                    }
+                }
+                coveringRadii[r] = max;
+            }
+
+            return coveringRadii;
+        }
+    }
+
+    /**
+     * Tests whether the sphere of a point lies inside the sphere of its neighbour in continuous space
+     */
+    private static final class ContinuousTest implements CoverTest {
+        /** The lengths of the offsets to the 26-neighbours indexed by (dx + 1) + 3 * (dy + 1) + 9 * (dz + 1) */
+        private final double[] offsetLengths = new double[27];
+
+        private ContinuousTest(final double[] weights) {
+            for (int dz = -1; dz <= 1; dz++) {
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        final double x = dx * weights[0];
+                        final double y = dy * weights[1];
+                        final double z = dz * weights[2];
+                        offsetLengths[(dx + 1) + 3 * (dy + 1) + 9 * (dz + 1)] = Math.sqrt(x * x + y * y + z * z);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public float squaredRadius(final float squaredDistance) {
+            return squaredDistance;
+        }
+
+        @Override
+        public boolean covers(final float neighbourSq, final float rSq, final int dx, final int dy, final int dz) {
+            final double reach = Math.sqrt(rSq) + offsetLengths[(dx + 1) + 3 * (dy + 1) + 9 * (dz + 1)];
+            return neighbourSq >= reach * reach;
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,720 @@
+package org.bonej.thickness;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.bonej.common.DistanceTransform;
+import org.bonej.common.StreamingStatistics;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.FloatProcessor;
+
+import com.google.common.base.Throwables;
+
+/**
+ * A native implementation of the local thickness pipeline of LocalThickness. The local thickness of a voxel is the
+ * diameter of the largest sphere, which fits inside the phase and contains the voxel.
+ *
+ * The steps are:
+ * <ol>
+ * <li>Exact Euclidean distance transform (DistanceTransform)</li>
+ * <li>Distance ridge (DistanceRidge)</li>
+ * <li>Filling the spheres of the ridge points with their diameters</li>
+ * <li>Replacing the values of surface voxels with the mean of their interior neighbours</li>
+ * <li>Optionally masking the map with the phase of the original image</li>
+ * </ol>
+ *
+ * Each step runs in parallel, and the steps share a single float stack: the distance map is overwritten by the
+ * thickness map once its ridge has been found.
+ *
+ * @author Richard Domander
+ */
+public class LocalThickness {
+    /** Number of bins in the histograms of the thickness statistics */
+    public static final int HISTOGRAM_BINS = 1000;
+
+    /** The least number of slices a thread processes in the statistics mode */
+    private static final int MIN_CHUNK_SLICES = 8;
+
+    private LocalThickness() {
+    }
+
+    /**
+     * Creates the local thickness map of the image
+     *
+     * @implNote The image is not modified. The values are in the units of its calibration. Anisotropic voxels are
+     * measured at their native size: the distances are weighted by the voxel dimensions, and the spheres are
+     * ellipsoids in the voxel grid
+     * @param image         A binary 8-bit image
+     * @param foreground    If true, the thickness of the foreground (0xFF) is calculated, otherwise the thickness of
+     *                      the background, i.e. the spacing
+     * @param mask          If true, the voxels which aren't in the phase of the original image are removed from the
+     *                      map. The spheres of the ridge overhang them slightly
+     * @throws NullPointerException if image == null
+     * @throws IllegalArgumentException if image is not 8-bit
+     * @return A new 32-bit image of local thickness values, where voxels outside the phase are NaN
+     */
+    public static ImagePlus createMap(final ImagePlus image, final boolean foreground, final boolean mask)
+            throws NullPointerException, IllegalArgumentException {
+        return map(image, foreground, mask, null);
+    }
+
+    /**
+     * Creates the local thickness map of the image, and adds its values to the statistics
+     *
+     * @implNote The values are added while the map is scaled to the units of the calibration, so there's no separate
+     * pass over the map. Use statistics with a growing histogram, because the range of the values isn't known in
+     * advance
+     * @see #createMap(ImagePlus, boolean, boolean)
+     * @see StreamingStatistics#withBinWidth(double, double)
+     * @throws NullPointerException if image == null or statistics == null
+     * @throws IllegalArgumentException if image is not 8-bit
+     */
+    public static ImagePlus createMap(final ImagePlus image, final boolean foreground, final boolean mask,
+                                      final StreamingStatistics statistics)
+            throws NullPointerException, IllegalArgumentException {
+        checkNotNull(statistics, "Statistics cannot be null");
+        return map(image, foreground, mask, statistics);
+    }
+
+    /**
+     * Creates the local thickness maps of both the foreground and the background of the image
+     *
+     * @implNote The pixels of the image are read only once, and the pipelines of the two phases run concurrently. Each
+     * pipeline still needs its own float stack, because both maps are returned
+     * @see #createMap(ImagePlus, boolean, boolean)
+     * @throws NullPointerException if image == null
+     * @throws IllegalArgumentException if image is not 8-bit
+     * @return An array of two new images: the thickness map of the foreground, and the thickness map of the
+     *         background (spacing)
+     */
+    public static ImagePlus[] createMaps(final ImagePlus image, final boolean mask)
+            throws NullPointerException, IllegalArgumentException {
+        return maps(image, mask, null, null);
+    }
+
+    /**
+     * Creates the local thickness maps of both the foreground and the background of the image, and adds their values
+     * to the statistics
+     *
+     * @see #createMaps(ImagePlus, boolean)
+     * @see #createMap(ImagePlus, boolean, boolean, StreamingStatistics)
+     * @throws NullPointerException if image == null, thicknessStatistics == null or spacingStatistics == null
+     * @throws IllegalArgumentException if image is not 8-bit
+     */
+    public static ImagePlus[] createMaps(final ImagePlus image, final boolean mask,
+                                         final StreamingStatistics thicknessStatistics,
+                                         final StreamingStatistics spacingStatistics)
+            throws NullPointerException, IllegalArgumentException {
+        checkNotNull(thicknessStatistics, "Statistics cannot be null");
+        checkNotNull(spacingStatistics, "Statistics cannot be null");
+        return maps(image, mask, thicknessStatistics, spacingStatistics);
+    }
+
+    /**
+     * Calculates the statistics of the local thickness of the image without creating its map
+     *
+     * @implNote The distance map is still needed to find the ridge, but after that the thickness is calculated in
+     * a few slices at a time, and its values are added straight to the statistics. There's no full size thickness map
+     * or a separate pass over it. The percentiles are estimated from a histogram of {@link #HISTOGRAM_BINS} bins
+     * @see #createMap(ImagePlus, boolean, boolean)
+     * @throws NullPointerException if image == null
+     * @throws IllegalArgumentException if image is not 8-bit
+     * @return Statistics of the thickness values in the units of the calibration of the image
+     */
+    public static StreamingStatistics createStatistics(final ImagePlus image, final boolean foreground,
+                                                       final boolean mask)
+            throws NullPointerException, IllegalArgumentException {
+        return createStatistics(image, foreground, mask, 0.0);
+    }
+
+    /**
+     * Calculates the statistics of the local thickness of the image without creating its map
+     *
+     * @see #createStatistics(ImagePlus, boolean, boolean)
+     * @param binWidth  Width of the histogram bins in the units of the calibration. If 0.0, the range of the values is
+     *                  divided into {@link #HISTOGRAM_BINS} bins
+     * @throws NullPointerException if image == null
+     * @throws IllegalArgumentException if image is not 8-bit, or binWidth is negative or not finite
+     * @return Statistics of the thickness values in the units of the calibration of the image
+     */
+    public static StreamingStatistics createStatistics(final ImagePlus image, final boolean foreground,
+                                                       final boolean mask, final double binWidth)
+            throws NullPointerException, IllegalArgumentException {
+        checkNotNull(image, "Must have an input image");
+        checkArgument(image.getBitDepth() == 8, "Input image must be 8-bit");
+        checkArgument(binWidth >= 0.0 && Double.isFinite(binWidth), "Bin width must be non-negative");
+
+        final ImageStack stack = image.getStack();
+        final Calibration calibration = image.getCalibration();
+        return statistics(DistanceTransform.slicesOf(stack), stack.getWidth(), stack.getHeight(), foreground, mask,
+                DistanceTransform.axisWeights(calibration), calibration.pixelWidth, binWidth);
+    }
+
+    /**
+     * Calculates the statistics of the local thickness of both the foreground and the background of the image
+     * without creating their maps
+     *
+     * @implNote The pipelines of the two phases run concurrently
+     * @see #createStatistics(ImagePlus, boolean, boolean)
+     * @throws NullPointerException if image == null
+     * @throws IllegalArgumentException if image is not 8-bit
+     * @return An array of the statistics of the foreground (thickness), and the background (spacing)
+     */
+    public static StreamingStatistics[] createStatistics(final ImagePlus image, final boolean mask)
+            throws NullPointerException, IllegalArgumentException {
+        return createStatistics(image, mask, 0.0);
+    }
+
+    /**
+     * Calculates the statistics of the local thickness of both the foreground and the background of the image
+     * without creating their maps
+     *
+     * @see #createStatistics(ImagePlus, boolean)
+     * @see #createStatistics(ImagePlus, boolean, boolean, double)
+     * @throws NullPointerException if image == null
+     * @throws IllegalArgumentException if image is not 8-bit, or binWidth is negative or not finite
+     * @return An array of the statistics of the foreground (thickness), and the background (spacing)
+     */
+    public static StreamingStatistics[] createStatistics(final ImagePlus image, final boolean mask,
+                                                         final double binWidth)
+            throws NullPointerException, IllegalArgumentException {
+        checkNotNull(image, "Must have an input image");
+        checkArgument(image.getBitDepth() == 8, "Input image must be 8-bit");
+        checkArgument(binWidth >= 0.0 && Double.isFinite(binWidth), "Bin width must be non-negative");
+
+        final ImageStack stack = image.getStack();
+        final int width = stack.getWidth();
+        final int height = stack.getHeight();
+        final byte[][] slices = DistanceTransform.slicesOf(stack);
+        final Calibration calibration = image.getCalibration();
+        final double[] weights = DistanceTransform.axisWeights(calibration);
+        final double scale = calibration.pixelWidth;
+
+        final StreamingStatistics[] statistics = new StreamingStatistics[2];
+        bothPhases(foreground -> statistics[foreground ? 0 : 1] =
+                statistics(slices, width, height, foreground, mask, weights, scale, binWidth));
+        return statistics;
+    }
+
+    /**
+     * Calculates the local thickness of each voxel in the phase
+     *
+     * @param weights The weights of the x-, y- and z-axes
+     * @return The thickness in voxel widths, one float array per slice. Voxels outside the phase are NaN
+     */
+    static float[][] thickness(final byte[][] slices, final int width, final int height, final boolean foreground,
+                               final boolean mask, final double[] weights) {
+        final float[][] map = DistanceTransform.squaredDistances(slices, width, height, foreground, weights);
+        final DistanceRidge ridge = DistanceRidge.find(map, width, height, weights);
+
+        IntStream.range(0, map.length).parallel().forEach(z -> Arrays.fill(map[z], 0.0f));
+        fillSpheres(ridge, map, width, height, weights);
+        cleanUp(map, width, height);
+        if (mask) {
+            mask(map, slices, foreground);
+        }
+        backgroundToNaN(map);
+
+        return map;
+    }
+
+    /**
+     * Calculates the statistics of the local thickness of the phase
+     *
+     * @param weights     The weights of the x-, y- and z-axes
+     * @param scale       The factor by which the thickness values are multiplied
+     * @param binWidth    Width of the histogram bins, or 0.0 for {@link #HISTOGRAM_BINS} bins
+     */
+    static StreamingStatistics statistics(final byte[][] slices, final int width, final int height,
+                                          final boolean foreground, final boolean mask, final double[] weights,
+                                          final double scale, final double binWidth) {
+        final float[][] map = DistanceTransform.squaredDistances(slices, width, height, foreground, weights);
+        final DistanceRidge ridge = DistanceRidge.find(map, width, height, weights);
+        // Release the distance map
+        Arrays.fill(map, null);
+
+        final StreamingStatistics empty = emptyStatistics(ridge.maxSquaredRadius(), scale, binWidth);
+        final int depth = slices.length;
+        final int chunkSize = Math.max(MIN_CHUNK_SLICES,
+                depth / (4 * ForkJoinPool.getCommonPoolParallelism()) + 1);
+        final int chunks = (depth + chunkSize - 1) / chunkSize;
+
+        final List<StreamingStatistics> chunkStatistics = IntStream.range(0, chunks).parallel().mapToObj(c -> {
+            final StreamingStatistics statistics = StreamingStatistics.withHistogramOf(empty);
+            final int[] min = {0, 0, c * chunkSize};
+            final int[] max = {width, height, Math.min(depth, (c + 1) * chunkSize)};
+            addThickness(statistics, ridge, slices, width, height, foreground, mask, weights, scale, min, max);
+            return statistics;
+        }).collect(Collectors.toList());
+
+        final StreamingStatistics statistics = StreamingStatistics.withHistogramOf(empty);
+        chunkStatistics.forEach(statistics::merge);
+        return statistics;
+    }
+
+    /**
+     * Creates empty statistics for the thickness values of the ridge
+     *
+     * @param maxSquaredRadius The largest squared radius of the ridge
+     * @param scale            The factor by which the thickness values are multiplied
+     * @param binWidth         Width of the histogram bins. If 0.0, the histogram spans the thickness values, and has
+     *                         {@link #HISTOGRAM_BINS} bins
+     */
+    static StreamingStatistics emptyStatistics(final float maxSquaredRadius, final double scale,
+                                               final double binWidth) {
+        if (binWidth > 0.0) {
+            return StreamingStatistics.withBinWidth(0.0, binWidth);
+        }
+
+        final double maxThickness = 2.0 * Math.sqrt(maxSquaredRadius) * scale;
+        return new StreamingStatistics(0.0, maxThickness > 0.0 ? maxThickness : scale, HISTOGRAM_BINS);
+    }
+
+    /**
+     * Adds the cleaned up thickness of the voxels in a box to the statistics
+     *
+     * @implNote Only the slices needed for the box are filled
+     * @param ridge The distance ridge of the slices
+     * @param min   The x-, y- and z-coordinates of the first voxel of the box
+     * @param max   The x-, y- and z-coordinates after the last voxel of the box
+     */
+    static void addThickness(final StreamingStatistics statistics, final DistanceRidge ridge, final byte[][] slices,
+                             final int width, final int height, final boolean foreground, final boolean mask,
+                             final double[] weights, final double scale, final int[] min, final int[] max) {
+        final SliceWindow window = new SliceWindow(ridge, slices.length, width, height, weights);
+        for (int z = min[2]; z < max[2]; z++) {
+            final float[] slice = window.cleanSlice(z);
+            final byte[] pixels = slices[z];
+            for (int y = min[1]; y < max[1]; y++) {
+                final int offset = y * width;
+                for (int x = min[0]; x < max[0]; x++) {
+                    final int i = offset + x;
+                    if (slice[i] > 0.0f && (!mask || isInPhase(pixels[i], foreground))) {
+                        statistics.add(slice[i] * scale);
+                    }
+                }
+            }
+        }
+    }
+
+    //region -- Helper methods --
+    /**
+     * Runs the task for the foreground (true) and the background (false) concurrently
+     */
+    private static void bothPhases(final Consumer<Boolean> task) {
+        final CompletableFuture<Void> background = CompletableFuture.runAsync(() -> task.accept(false));
+        task.accept(true);
+        try {
+            background.join();
+        } catch (CompletionException e) {
+            Throwables.propagateIfPossible(e.getCause());
+            throw e;
+        }
+    }
+
+    private static boolean isInPhase(final byte pixel, final boolean foreground) {
+        return ((pixel & 0xFF) == DistanceTransform.FOREGROUND) == foreground;
+    }
+
+    /**
+     * Creates the thickness map of the image
+     *
+     * @param statistics Statistics to which the values of the map are added, or null
+     */
+    private static ImagePlus map(final ImagePlus image, final boolean foreground, final boolean mask,
+                                 final StreamingStatistics statistics) {
+        checkNotNull(image, "Must have an input image");
+        checkArgument(image.getBitDepth() == 8, "Input image must be 8-bit");
+
+        final ImageStack stack = image.getStack();
+        final double[] weights = DistanceTransform.axisWeights(image.getCalibration());
+        final float[][] map = thickness(DistanceTransform.slicesOf(stack), stack.getWidth(), stack.getHeight(),
+                foreground, mask, weights);
+        return toImage(map, image, statistics);
+    }
+
+    /**
+     * Creates the thickness maps of both phases of the image
+     *
+     * @param thicknessStatistics   Statistics to which the values of the foreground map are added, or null
+     * @param spacingStatistics     Statistics to which the values of the background map are added, or null
+     */
+    private static ImagePlus[] maps(final ImagePlus image, final boolean mask,
+                                    final StreamingStatistics thicknessStatistics,
+                                    final StreamingStatistics spacingStatistics) {
+        checkNotNull(image, "Must have an input image");
+        checkArgument(image.getBitDepth() == 8, "Input image must be 8-bit");
+
+        final ImageStack stack = image.getStack();
+        final int width = stack.getWidth();
+        final int height = stack.getHeight();
+        final byte[][] slices = DistanceTransform.slicesOf(stack);
+        final double[] weights = DistanceTransform.axisWeights(image.getCalibration());
+
+        final float[][][] maps = new float[2][][];
+        bothPhases(foreground -> maps[foreground ? 0 : 1] =
+                thickness(slices, width, height, foreground, mask, weights));
+        return new ImagePlus[]{toImage(maps[0], image, thicknessStatistics),
+                toImage(maps[1], image, spacingStatistics)};
+    }
+
+    /**
+     * Creates a calibrated 32-bit image of the map, and scales its values by the pixel width of the image
+     *
+     * @param statistics Statistics to which the scaled values are added, or null
+     */
+    private static ImagePlus toImage(final float[][] map, final ImagePlus image,
+                                     final StreamingStatistics statistics) {
+        final Calibration calibration = image.getCalibration();
+        final float scale = (float) calibration.pixelWidth;
+        final float[] sliceMax = new float[map.length];
+        final StreamingStatistics[] sliceStatistics = new StreamingStatistics[map.length];
+        IntStream.range(0, map.length).parallel().forEach(z -> {
+            final float[] slice = map[z];
+            final StreamingStatistics valueStatistics =
+                    statistics == null ? null : StreamingStatistics.withHistogramOf(statistics);
+            float max = 0.0f;
+            for (int i = 0; i < slice.length; i++) {
+                slice[i] *= scale;
+                // NaN fails the comparison, so the background doesn't affect the maximum
+                if (slice[i] > max) {
+                    max = slice[i];
+                }
+                if (valueStatistics != null) {
+                    valueStatistics.add(slice[i]);
+                }
+            }
+            sliceMax[z] = max;
+            sliceStatistics[z] = valueStatistics;
+        });
+
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final ImageStack mapStack = new ImageStack(width, height);
+        float max = 0.0f;
+        for (int z = 0; z < map.length; z++) {
+            mapStack.addSlice("", new FloatProcessor(width, height, map[z], null));
+            max = Math.max(max, sliceMax[z]);
+            if (statistics != null) {
+                statistics.merge(sliceStatistics[z]);
+            }
+        }
+
+        final ImagePlus mapImage = new ImagePlus(image.getTitle(), mapStack);
+        mapImage.setCalibration(calibration.copy());
+        mapImage.setDisplayRange(0.0, max);
+        return mapImage;
+    }
+
+    /**
+     * Sets each voxel to the diameter of the largest ridge sphere containing it
+     *
+     * @implNote Each slice of the map is filled by a single thread, so there are no concurrent writes
+     */
+    private static void fillSpheres(final DistanceRidge ridge, final float[][] map, final int width,
+                                    final int height, final double[] weights) {
+        final int reach = reach(ridge, weights);
+        IntStream.range(0, map.length).parallel().forEach(
+                z -> fillSlice(ridge, map[z], z, map.length, width, height, weights, reach));
+    }
+
+    /**
+     * @return The largest distance in slices from a ridge point to the voxels of its sphere
+     */
+    private static int reach(final DistanceRidge ridge, final double[] weights) {
+        return (int) Math.ceil(Math.sqrt(ridge.maxSquaredRadius()) / weights[2]);
+    }
+
+    /**
+     * Sets each voxel of the slice to the diameter of the largest ridge sphere containing it
+     */
+    private static void fillSlice(final DistanceRidge ridge, final float[] slice, final int z1, final int depth,
+                                  final int width, final int height, final double[] weights, final int reach) {
+        final int zStart = Math.max(0, z1 - reach);
+        final int zEnd = Math.min(depth - 1, z1 + reach);
+        for (int z = zStart; z <= zEnd; z++) {
+            final double dz = (z1 - z) * weights[2];
+            final double dzSq = dz * dz;
+            final int[] indices = ridge.indices[z];
+            final float[] squaredRadii = ridge.squaredRadii[z];
+            for (int n = 0; n < indices.length; n++) {
+                final double rSq = squaredRadii[n];
+                if (dzSq > rSq) {
+                    continue;
+                }
+                final double r = Math.sqrt(rSq);
+                final float diameter = (float) (2.0 * r);
+                final int x = indices[n] % width;
+                final int y = indices[n] / width;
+                fillDisc(slice, width, height, x, y, r, rSq - dzSq, weights, diameter);
+            }
+        }
+    }
+
+    /**
+     * Fills the cross-section of a sphere with the given value where it's larger than the current value
+     *
+     * @param r         Radius of the sphere
+     * @param discSq    Squared radius of the cross-section
+     */
+    private static void fillDisc(final float[] slice, final int width, final int height, final int x, final int y,
+                                 final double r, final double discSq, final double[] weights, final float value) {
+        final int xReach = (int) Math.ceil(r / weights[0]);
+        final int yReach = (int) Math.ceil(r / weights[1]);
+        final int yStart = Math.max(0, y - yReach);
+        final int yEnd = Math.min(height - 1, y + yReach);
+        final int xStart = Math.max(0, x - xReach);
+        final int xEnd = Math.min(width - 1, x + xReach);
+        for (int y1 = yStart; y1 <= yEnd; y1++) {
+            final double dy = (y1 - y) * weights[1];
+            final double dySq = dy * dy;
+            if (dySq > discSq) {
+                continue;
+            }
+            final int offset = y1 * width;
+            for (int x1 = xStart; x1 <= xEnd; x1++) {
+                final double dx = (x1 - x) * weights[0];
+                if (dySq + dx * dx <= discSq && value > slice[offset + x1]) {
+                    slice[offset + x1] = value;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the value of each surface voxel with the mean of its interior 26-neighbours like
+     * Clean_Up_Local_Thickness. A surface voxel has a 6-neighbour with no thickness. Voxels outside the image are not
+     * considered.
+     *
+     * @implNote Only surface voxels are written, and only interior voxels are read, so the slices can be processed
+     * in parallel in place
+     */
+    private static void cleanUp(final float[][] map, final int width, final int height) {
+        final int depth = map.length;
+        final long[][] surface = new long[depth][];
+        IntStream.range(0, depth).parallel().forEach(
+                z -> surface[z] = findSurface(sliceOrNull(map, z - 1), map[z], sliceOrNull(map, z + 1), width,
+                        height));
+
+        IntStream.range(0, depth).parallel().forEach(
+                z -> averageSurface(sliceOrNull(map, z - 1), map[z], sliceOrNull(map, z + 1),
+                        sliceOrNull(surface, z - 1), surface[z], sliceOrNull(surface, z + 1), width, height));
+    }
+
+    private static <T> T sliceOrNull(final T[] slices, final int z) {
+        return z < 0 || z >= slices.length ? null : slices[z];
+    }
+
+    /**
+     * Finds the surface voxels of the slice
+     *
+     * @param below The slice below, or null if the slice is the first
+     * @param above The slice above, or null if the slice is the last
+     * @return The surface voxels as a bit set
+     */
+    private static long[] findSurface(final float[] below, final float[] slice, final float[] above,
+                                      final int width, final int height) {
+        final long[] surface = new long[(slice.length + 63) >> 6];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int i = y * width + x;
+                if (slice[i] == 0.0f) {
+                    continue;
+                }
+                if ((x > 0 && slice[i - 1] == 0.0f) || (x < width - 1 && slice[i + 1] == 0.0f) ||
+                        (y > 0 && slice[i - width] == 0.0f) || (y < height - 1 && slice[i + width] == 0.0f) ||
+                        (below != null && below[i] == 0.0f) || (above != null && above[i] == 0.0f)) {
+                    surface[i >> 6] |= 1L << i;
+                }
+            }
+        }
+
+        return surface;
+    }
+
+    /**
+     * Replaces the values of the surface voxels of the slice with the mean of their interior neighbours
+     */
+    private static void averageSurface(final float[] below, final float[] slice, final float[] above,
+                                       final long[] surfaceBelow, final long[] surface, final long[] surfaceAbove,
+                                       final int width, final int height) {
+        final float[][] slices = {below, slice, above};
+        final long[][] surfaces = {surfaceBelow, surface, surfaceAbove};
+        for (int i = nextSetBit(surface, 0); i >= 0; i = nextSetBit(surface, i + 1)) {
+            final int x = i % width;
+            final int y = i / width;
+            double sum = 0.0;
+            int count = 0;
+            for (int n = 0; n < 3; n++) {
+                if (slices[n] == null) {
+                    continue;
+                }
+                for (int dy = -1; dy <= 1; dy++) {
+                    final int y1 = y + dy;
+                    if (y1 < 0 || y1 >= height) {
+                        continue;
+                    }
+                    for (int dx = -1; dx <= 1; dx++) {
+                        final int x1 = x + dx;
+                        if (x1 < 0 || x1 >= width) {
+                            continue;
+                        }
+                        final int index = y1 * width + x1;
+                        final float value = slices[n][index];
+                        if (value > 0.0f && !isSet(surfaces[n], index)) {
+                            sum += value;
+                            count++;
+                        }
+                    }
+                }
+            }
+            if (count > 0) {
+                slice[i] = (float) (sum / count);
+            }
+        }
+    }
+
+    private static boolean isSet(final long[] bits, final int i) {
+        return (bits[i >> 6] & (1L << i)) != 0;
+    }
+
+    private static int nextSetBit(final long[] bits, final int from) {
+        int word = from >> 6;
+        if (word >= bits.length) {
+            return -1;
+        }
+        long remaining = bits[word] & (-1L << from);
+        while (true) {
+            if (remaining != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(remaining);
+            }
+            word++;
+            if (word == bits.length) {
+                return -1;
+            }
+            remaining = bits[word];
+        }
+    }
+
+    /**
+     * Clears the voxels of the map, which aren't in the phase of the original image
+     */
+    private static void mask(final float[][] map, final byte[][] slices, final boolean foreground) {
+        IntStream.range(0, map.length).parallel().forEach(z -> {
+            final float[] slice = map[z];
+            final byte[] pixels = slices[z];
+            for (int i = 0; i < slice.length; i++) {
+                if (!isInPhase(pixels[i], foreground)) {
+                    slice[i] = 0.0f;
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the voxels with no thickness to NaN so that they're excluded from the statistics of the map
+     */
+    private static void backgroundToNaN(final float[][] map) {
+        IntStream.range(0, map.length).parallel().forEach(z -> {
+            final float[] slice = map[z];
+            for (int i = 0; i < slice.length; i++) {
+                if (slice[i] == 0.0f) {
+                    slice[i] = Float.NaN;
+                }
+            }
+        });
+    }
+    //endregion
+
+    //region -- Helper classes --
+    /**
+     * Calculates the cleaned up thickness of consecutive slices from the ridge. Keeps the filled slices and surfaces
+     * needed for the next slice in small rings, so that a thread needs five slices of memory instead of the whole map.
+     */
+    private static final class SliceWindow {
+        private static final int FILLED = 5;
+        private static final int SURFACES = 3;
+
+        private final DistanceRidge ridge;
+        private final int depth;
+        private final int width;
+        private final int height;
+        private final double[] weights;
+        private final int reach;
+        private final float[][] filled = new float[FILLED][];
+        private final int[] filledZ = {-1, -1, -1, -1, -1};
+        private final long[][] surfaces = new long[SURFACES][];
+        private final int[] surfaceZ = {-1, -1, -1};
+
+        private SliceWindow(final DistanceRidge ridge, final int depth, final int width, final int height,
+                            final double[] weights) {
+            this.ridge = ridge;
+            this.depth = depth;
+            this.width = width;
+            this.height = height;
+            this.weights = weights;
+            reach = reach(ridge, weights);
+        }
+
+        /**
+         * Returns the thickness of the slice after the surface clean up
+         *
+         * @implNote The array is reused, and valid only until the next call. Slices must be requested in ascending
+         * order
+         */
+        private float[] cleanSlice(final int z) {
+            final long[] below = surface(z - 1);
+            final long[] surface = surface(z);
+            final long[] above = surface(z + 1);
+            final float[] slice = filled(z);
+            averageSurface(filled(z - 1), slice, filled(z + 1), below, surface, above, width, height);
+            return slice;
+        }
+
+        private float[] filled(final int z) {
+            if (z < 0 || z >= depth) {
+                return null;
+            }
+
+            final int slot = z % FILLED;
+            if (filledZ[slot] != z) {
+                if (filled[slot] == null) {
+                    filled[slot] = new float[width * height];
+                } else {
+                    Arrays.fill(filled[slot], 0.0f);
+                }
+                fillSlice(ridge, filled[slot], z, depth, width, height, weights, reach);
+                filledZ[slot] = z;
+            }
+
+            return filled[slot];
+        }
+
+        private long[] surface(final int z) {
+            if (z < 0 || z >= depth) {
+                return null;
+            }
+
+            final int slot = z % SURFACES;
+            if (surfaceZ[slot] != z) {
+                surfaces[slot] = findSurface(filled(z - 1), filled(z), filled(z + 1), width, height);
+                surfaceZ[slot] = z;
+            }
+
+            return surfaces[slot];
+        }
+    }
+    //endregion
+}
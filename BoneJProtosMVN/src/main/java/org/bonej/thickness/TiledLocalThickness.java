@@ -0,0 +1,365 @@
+package org.bonej.thickness;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bonej.common.DistanceTransform;
+import org.bonej.common.StreamingStatistics;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+import com.google.common.base.Throwables;
+
+/**
+ * Calculates the local thickness statistics of an image brick by brick, so that images too large for
+ * {@link LocalThickness} can be processed in limited memory.
+ *
+ * The image is divided into cubic bricks, and each brick is processed together with a halo of the voxels around it.
+ * The halo is wide enough that the distances, the distance ridge and the clean up of the voxels in the brick are the
+ * same as in the whole image, as long as no sphere is larger than the given maximum radius. Thus the statistics are
+ * the same as those of {@link LocalThickness#createStatistics(ImagePlus, boolean, boolean, double)}.
+ *
+ * The bricks are processed on a pool of workers in two passes. The first pass finds the ridge of each brick, and
+ * spills it to a temporary file. The second pass reads the ridge back, and adds the thickness of the brick to the
+ * statistics. Two passes are needed, because by default the histogram of the statistics spans the thickest sphere in
+ * the image.
+ *
+ * @author Richard Domander
+ */
+public class TiledLocalThickness {
+    private TiledLocalThickness() {
+    }
+
+    /**
+     * Calculates the statistics of the local thickness of the image brick by brick
+     *
+     * @see #createStatistics(ImagePlus, boolean, boolean, int, double, double)
+     * @throws NullPointerException if image == null
+     * @throws IllegalArgumentException if image is not 8-bit, brickSize < 1, or maxRadius is not positive
+     * @throws IllegalArgumentException if there's a sphere larger than maxRadius in the image
+     * @throws IOException if spilling the ridges to disk fails
+     * @return Statistics of the thickness values in the units of the calibration of the image
+     */
+    public static StreamingStatistics createStatistics(final ImagePlus image, final boolean foreground,
+                                                       final boolean mask, final int brickSize,
+                                                       final double maxRadius)
+            throws NullPointerException, IllegalArgumentException, IOException {
+        return createStatistics(image, foreground, mask, brickSize, maxRadius, 0.0);
+    }
+
+    /**
+     * Calculates the statistics of the local thickness of the image brick by brick
+     *
+     * @implNote The image is not modified. Each worker has at most one brick in memory at a time. The halo of a brick
+     * is 2 * maxRadius + 2 voxels wide, so bricks much smaller than the radius do a lot of redundant work
+     * @param image         A binary 8-bit image
+     * @param foreground    If true, the thickness of the foreground (0xFF) is calculated, otherwise the thickness of
+     *                      the background, i.e. the spacing
+     * @param mask          If true, thickness values outside the phase are removed
+     * @param brickSize     Length of the sides of the bricks in voxels, excluding the halo
+     * @param maxRadius     The largest expected radius of the spheres in pixel widths
+     * @param binWidth      Width of the histogram bins in the units of the calibration. If 0.0, the range of the
+     *                      values is divided into {@link LocalThickness#HISTOGRAM_BINS} bins
+     * @throws NullPointerException if image == null
+     * @throws IllegalArgumentException if image is not 8-bit, brickSize < 1, or maxRadius is not positive
+     * @throws IllegalArgumentException if binWidth is negative or not finite
+     * @throws IllegalArgumentException if there's a sphere larger than maxRadius in the image
+     * @throws IOException if spilling the ridges to disk fails
+     * @return Statistics of the thickness values in the units of the calibration of the image
+     */
+    public static StreamingStatistics createStatistics(final ImagePlus image, final boolean foreground,
+                                                       final boolean mask, final int brickSize,
+                                                       final double maxRadius, final double binWidth)
+            throws NullPointerException, IllegalArgumentException, IOException {
+        checkNotNull(image, "Input image cannot be null");
+        checkArgument(image.getBitDepth() == 8, "Input image must be 8-bit");
+        checkArgument(brickSize > 0, "Brick size must be positive");
+        checkArgument(maxRadius > 0.0 && Double.isFinite(maxRadius), "Maximum radius must be positive");
+        checkArgument(binWidth >= 0.0 && Double.isFinite(binWidth), "Bin width must be non-negative");
+
+        final ImageStack stack = image.getStack();
+        final Calibration calibration = image.getCalibration();
+        final double[] weights = DistanceTransform.axisWeights(calibration);
+        final List<Brick> bricks = Brick.divide(stack.getWidth(), stack.getHeight(), stack.getSize(), brickSize,
+                maxRadius, weights);
+
+        final ExecutorService workers =
+                Executors.newFixedThreadPool(Math.min(bricks.size(), Runtime.getRuntime().availableProcessors()));
+        final Path spillFile = Files.createTempFile("bonej-ridges", ".bin");
+        try (FileChannel spill = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final AtomicLong spillEnd = new AtomicLong();
+            runAll(workers, bricks, brick -> {
+                findRidge(brick, stack, foreground, weights, maxRadius, spill, spillEnd);
+                return brick;
+            });
+
+            float maxSquaredRadius = 0.0f;
+            for (Brick brick : bricks) {
+                maxSquaredRadius = Math.max(maxSquaredRadius, brick.maxSquaredRadius);
+            }
+            final StreamingStatistics empty = LocalThickness.emptyStatistics(maxSquaredRadius,
+                    calibration.pixelWidth, binWidth);
+
+            final List<StreamingStatistics> brickStatistics = runAll(workers, bricks,
+                    brick -> brickStatistics(brick, stack, foreground, mask, weights, calibration.pixelWidth, empty,
+                            spill));
+            final StreamingStatistics statistics = StreamingStatistics.withHistogramOf(empty);
+            brickStatistics.forEach(statistics::merge);
+            return statistics;
+        } finally {
+            workers.shutdownNow();
+            Files.deleteIfExists(spillFile);
+        }
+    }
+
+    //region -- Helper methods --
+    /**
+     * Runs the task for each brick on the workers
+     *
+     * @return The results of the tasks in the order of the bricks
+     */
+    private static <T> List<T> runAll(final ExecutorService workers, final List<Brick> bricks,
+                                      final BrickTask<T> task) throws IOException {
+        final List<Future<T>> futures = new ArrayList<>(bricks.size());
+        bricks.forEach(brick -> futures.add(workers.submit(() -> task.run(brick))));
+
+        final List<T> results = new ArrayList<>(bricks.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while processing the bricks");
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw new RuntimeException(e.getCause());
+        }
+
+        return results;
+    }
+
+    /**
+     * Finds the distance ridge of the brick, and spills it to disk
+     */
+    private static void findRidge(final Brick brick, final ImageStack stack, final boolean foreground,
+                                  final double[] weights, final double maxRadius, final FileChannel spill,
+                                  final AtomicLong spillEnd) throws IOException {
+        final byte[][] slices = brick.read(stack);
+        final int width = brick.size[0];
+        final int height = brick.size[1];
+        final float[][] map = DistanceTransform.squaredDistances(slices, width, height, foreground, weights);
+        checkRadii(map, width, brick.exactMin, brick.exactMax, maxRadius);
+        final DistanceRidge ridge =
+                DistanceRidge.find(map, width, height, weights).within(width, brick.ridgeMin, brick.ridgeMax);
+        brick.maxSquaredRadius = ridge.maxSquaredRadius();
+        writeRidge(brick, ridge, spill, spillEnd);
+    }
+
+    /**
+     * Checks that the distances in the box are exact, i.e. that no sphere is larger than the maximum radius
+     *
+     * @throws IllegalArgumentException if a distance is larger than the maximum radius
+     */
+    private static void checkRadii(final float[][] map, final int width, final int[] min, final int[] max,
+                                   final double maxRadius) throws IllegalArgumentException {
+        final float maxSquaredRadius = (float) (maxRadius * maxRadius);
+        for (int z = min[2]; z < max[2]; z++) {
+            final float[] slice = map[z];
+            for (int y = min[1]; y < max[1]; y++) {
+                final int offset = y * width;
+                for (int x = min[0]; x < max[0]; x++) {
+                    checkArgument(slice[offset + x] <= maxSquaredRadius,
+                            "The image has spheres larger than the maximum radius");
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates the statistics of the voxels in the brick excluding the halo
+     */
+    private static StreamingStatistics brickStatistics(final Brick brick, final ImageStack stack,
+                                                       final boolean foreground, final boolean mask,
+                                                       final double[] weights, final double scale,
+                                                       final StreamingStatistics empty, final FileChannel spill)
+            throws IOException {
+        final StreamingStatistics statistics = StreamingStatistics.withHistogramOf(empty);
+        if (brick.maxSquaredRadius == 0.0f) {
+            // No spheres reach the brick
+            return statistics;
+        }
+
+        final DistanceRidge ridge = readRidge(brick, spill);
+        final byte[][] slices = brick.read(stack);
+        LocalThickness.addThickness(statistics, ridge, slices, brick.size[0], brick.size[1], foreground, mask,
+                weights, scale, brick.coreMin, brick.coreMax);
+        return statistics;
+    }
+
+    /**
+     * Appends the ridge to the spill file, and stores its position in the brick
+     *
+     * @implNote The layout is the number of points in each slice followed by their indices and squared radii
+     */
+    private static void writeRidge(final Brick brick, final DistanceRidge ridge, final FileChannel spill,
+                                   final AtomicLong spillEnd) throws IOException {
+        int points = 0;
+        for (int[] sliceIndices : ridge.indices) {
+            points += sliceIndices.length;
+        }
+
+        final ByteBuffer buffer =
+                ByteBuffer.allocate(ridge.indices.length * Integer.BYTES + points * (Integer.BYTES + Float.BYTES));
+        for (int z = 0; z < ridge.indices.length; z++) {
+            final int[] sliceIndices = ridge.indices[z];
+            buffer.putInt(sliceIndices.length);
+            for (int n = 0; n < sliceIndices.length; n++) {
+                buffer.putInt(sliceIndices[n]);
+                buffer.putFloat(ridge.squaredRadii[z][n]);
+            }
+        }
+        buffer.flip();
+
+        brick.spillBytes = buffer.limit();
+        brick.spillPosition = spillEnd.getAndAdd(brick.spillBytes);
+        while (buffer.hasRemaining()) {
+            spill.write(buffer, brick.spillPosition + buffer.position());
+        }
+    }
+
+    private static DistanceRidge readRidge(final Brick brick, final FileChannel spill) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(brick.spillBytes);
+        while (buffer.hasRemaining()) {
+            if (spill.read(buffer, brick.spillPosition + buffer.position()) < 0) {
+                throw new EOFException("Spilled ridge is truncated");
+            }
+        }
+        buffer.flip();
+
+        final int depth = brick.size[2];
+        final int[][] indices = new int[depth][];
+        final float[][] squaredRadii = new float[depth][];
+        for (int z = 0; z < depth; z++) {
+            final int points = buffer.getInt();
+            indices[z] = new int[points];
+            squaredRadii[z] = new float[points];
+            for (int n = 0; n < points; n++) {
+                indices[z][n] = buffer.getInt();
+                squaredRadii[z][n] = buffer.getFloat();
+            }
+        }
+
+        return new DistanceRidge(indices, squaredRadii);
+    }
+    //endregion
+
+    //region -- Helper classes --
+    @FunctionalInterface
+    private interface BrickTask<T> {
+        T run(Brick brick) throws IOException;
+    }
+
+    /**
+     * A brick of the image and its halo. The boxes are in the coordinates of the brick, and their maxima are
+     * exclusive.
+     */
+    private static final class Brick {
+        /** The first voxel of the brick and its halo in the image */
+        private final int[] origin = new int[3];
+        /** The dimensions of the brick and its halo */
+        private final int[] size = new int[3];
+        /** The voxels whose thickness is calculated */
+        private final int[] coreMin = new int[3];
+        private final int[] coreMax = new int[3];
+        /** The ridge points whose spheres can reach the core, or the neighbours needed for its clean up */
+        private final int[] ridgeMin = new int[3];
+        private final int[] ridgeMax = new int[3];
+        /** The voxels whose distances must be exact for the ridge to be */
+        private final int[] exactMin = new int[3];
+        private final int[] exactMax = new int[3];
+
+        private float maxSquaredRadius;
+        private long spillPosition;
+        private int spillBytes;
+
+        /**
+         * Divides the image into bricks
+         *
+         * @implNote A sphere of the maximum radius reaches ceil(maxRadius / weight) voxels along an axis. The clean
+         * up of the core needs the filled voxels two steps out, and the ridge needs the distances of its neighbours,
+         * so the distances must be exact reach + 3 voxels out. The nearest voxel outside the halo must then be at
+         * least the maximum radius away, which makes the halo 2 * reach + 2 voxels wide.
+         */
+        private static List<Brick> divide(final int width, final int height, final int depth, final int brickSize,
+                                          final double maxRadius, final double[] weights) {
+            final int[] dimensions = {width, height, depth};
+            final int[] reach = new int[3];
+            final int[] halo = new int[3];
+            for (int i = 0; i < 3; i++) {
+                reach[i] = (int) Math.ceil(maxRadius / weights[i]);
+                halo[i] = 2 * reach[i] + 2;
+            }
+
+            final List<Brick> bricks = new ArrayList<>();
+            for (int z = 0; z < depth; z += brickSize) {
+                for (int y = 0; y < height; y += brickSize) {
+                    for (int x = 0; x < width; x += brickSize) {
+                        final int[] start = {x, y, z};
+                        final Brick brick = new Brick();
+                        for (int i = 0; i < 3; i++) {
+                            final int end = Math.min(dimensions[i], start[i] + brickSize);
+                            brick.origin[i] = Math.max(0, start[i] - halo[i]);
+                            brick.size[i] = Math.min(dimensions[i], end + halo[i]) - brick.origin[i];
+                            brick.coreMin[i] = start[i] - brick.origin[i];
+                            brick.coreMax[i] = end - brick.origin[i];
+                            brick.ridgeMin[i] = Math.max(0, brick.coreMin[i] - reach[i] - 2);
+                            brick.ridgeMax[i] = Math.min(brick.size[i], brick.coreMax[i] + reach[i] + 2);
+                            brick.exactMin[i] = Math.max(0, brick.coreMin[i] - reach[i] - 3);
+                            brick.exactMax[i] = Math.min(brick.size[i], brick.coreMax[i] + reach[i] + 3);
+                        }
+                        bricks.add(brick);
+                    }
+                }
+            }
+
+            return bricks;
+        }
+
+        /**
+         * Copies the voxels of the brick and its halo from the stack
+         */
+        private byte[][] read(final ImageStack stack) {
+            final int stackWidth = stack.getWidth();
+            final byte[][] slices = new byte[size[2]][size[0] * size[1]];
+            for (int z = 0; z < size[2]; z++) {
+                final byte[] pixels = (byte[]) stack.getPixels(origin[2] + z + 1);
+                for (int y = 0; y < size[1]; y++) {
+                    System.arraycopy(pixels, (origin[1] + y) * stackWidth + origin[0], slices[z], y * size[0],
+                            size[0]);
+                }
+            }
+
+            return slices;
+        }
+    }
+    //endregion
+}
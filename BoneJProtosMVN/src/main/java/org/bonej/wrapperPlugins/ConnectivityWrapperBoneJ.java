@@ -1,14 +1,18 @@
 package org.bonej.wrapperPlugins;
 
+import java.io.File;
+import java.io.IOException;
+
 import net.imagej.Main;
 
-import org.bonej.common.ResultsInserter;
+import org.bonej.common.ResultsSink;
 import org.scijava.command.Command;
 import org.scijava.command.ContextCommand;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.ui.DialogPrompt;
 import org.scijava.ui.UIService;
+import org.scijava.widget.FileWidget;
 
 import protoOps.connectivity.Connectivity;
 import ij.ImagePlus;
@@ -29,6 +33,10 @@ public class ConnectivityWrapperBoneJ extends ContextCommand {
 	@Parameter(initializer = "initializeActiveImage", required = false, persist = false)
 	private ImagePlus activeImage = null;
 
+	@Parameter(label = "Save results to", style = FileWidget.SAVE_STYLE, required = false,
+			description = "Append the results to a CSV or TSV file instead of the results table")
+	private File resultsFile = null;
+
 	@Override
 	public void run() {
         try {
@@ -61,12 +69,16 @@ public class ConnectivityWrapperBoneJ extends ContextCommand {
 
 		String label = activeImage.getTitle();
 		String unit = activeImage.getCalibration().getUnit();
-		ResultsInserter resultsInserter = new ResultsInserter();
-		resultsInserter.setMeasurementInFirstFreeRow(label, "Euler characteristic", eulerCharacteristic);
-		resultsInserter.setMeasurementInFirstFreeRow(label, "Δ(χ)", deltaChi);
-		resultsInserter.setMeasurementInFirstFreeRow(label, "Connectivity", conn);
-		resultsInserter.setMeasurementInFirstFreeRow(label, "Conn. density " + unit + "^-3", connDensity);
-		resultsInserter.updateTable();
+		try (ResultsSink results = ResultsSink.open(resultsFile)) {
+			results.addMeasurement(label, "Euler characteristic", eulerCharacteristic);
+			results.addMeasurement(label, "Δ(χ)", deltaChi);
+			results.addMeasurement(label, "Connectivity", conn);
+			results.addMeasurement(label, "Conn. density " + unit + "^-3", connDensity);
+			results.flush();
+		} catch (IOException e) {
+			uiService.showDialog("Could not save the results: " + e.getMessage(),
+					DialogPrompt.MessageType.ERROR_MESSAGE);
+		}
 	}
 
 	@SuppressWarnings("unused")
@@ -2,13 +2,13 @@ package org.bonej.wrapperPlugins;
 
 import org.bonej.common.Common;
 import org.bonej.common.ImageCheck;
+import org.bonej.skeleton.SkeletonCache;
 import org.scijava.command.Command;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.ui.DialogPrompt;
 import org.scijava.ui.UIService;
 
-import sc.fiji.skeletonize3D.Skeletonize3D_;
 import ij.IJ;
 import ij.ImagePlus;
 
@@ -20,8 +20,6 @@ import ij.ImagePlus;
  */
 @Plugin(type = Command.class, menuPath = "Plugins>BoneJ>Skeletonize3D")
 public class Skeletonize3D implements Command {
-	private final Skeletonize3D_ skeletonizer = new Skeletonize3D_();
-
 	private ImagePlus inputImage = null;
 
 	// The following service parameters are populated automatically
@@ -57,12 +55,7 @@ public class Skeletonize3D implements Command {
 			return;
 		}
 
-		ImagePlus outputImage = inputImage.duplicate(); // Skeletonize3D_.run()
-														// overwrites input
-														// image
-		skeletonizer.setup("", outputImage);
-		skeletonizer.run(null);
-		outputImage.setTitle("Skeleton of " + inputImage.getTitle());
+		ImagePlus outputImage = SkeletonCache.getSkeleton(inputImage);
 
 		if (inputImage.isInvertedLut() != outputImage.isInvertedLut()) {
 			// Invert the LUT of the output image to match input image
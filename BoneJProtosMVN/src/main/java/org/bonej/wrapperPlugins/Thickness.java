@@ -2,16 +2,23 @@ package org.bonej.wrapperPlugins;
 
 import static org.scijava.ui.DialogPrompt.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Optional;
 
 import net.imagej.Main;
 
 import org.bonej.common.Common;
+import org.bonej.common.HistogramTable;
 import org.bonej.common.ImageCheck;
-import org.bonej.common.ResultsInserter;
+import org.bonej.common.ResultsSink;
 import org.bonej.common.RoiUtil;
+import org.bonej.common.StreamingStatistics;
+import org.bonej.thickness.LocalThickness;
+import org.bonej.thickness.TiledLocalThickness;
 import org.scijava.ItemIO;
 import org.scijava.command.Command;
 import org.scijava.platform.PlatformService;
@@ -19,14 +26,13 @@ import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.prefs.PrefService;
 import org.scijava.ui.UIService;
+import org.scijava.widget.FileWidget;
 
-import sc.fiji.localThickness.LocalThicknessWrapper;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
 import ij.macro.Interpreter;
 import ij.plugin.frame.RoiManager;
-import ij.process.StackStatistics;
 
 /**
  * A BoneJ wrapper plugin, which is used for a "bone science" flavour of the
@@ -44,7 +50,13 @@ public class Thickness implements Command {
 	private static final boolean SPACING_DEFAULT = false;
 	private static final boolean GRAPHIC_DEFAULT = true;
 	private static final boolean ROI_DEFAULT = false;
+	private static final boolean INTERPOLATE_ROIS_DEFAULT = false;
 	private static final boolean MASK_DEFAULT = true;
+	private static final boolean BRICKS_DEFAULT = false;
+	private static final int BRICK_SIZE_DEFAULT = 128;
+	private static final double MAX_RADIUS_DEFAULT = 32.0;
+	private static final double BIN_WIDTH_DEFAULT = 0.0;
+	private static final boolean HISTOGRAM_DEFAULT = false;
 
 	// The following service parameters are populated automatically
 	// by the SciJava service framework before this command plugin is executed.
@@ -77,14 +89,51 @@ public class Thickness implements Command {
             type = ItemIO.INPUT, required = false, persist = false)
 	private boolean doRoi = ROI_DEFAULT;
 
+	@Parameter(label = "Interpolate ROIs",
+            description = "Crop the slices between two slices with ROIs to ROIs interpolated from them",
+            type = ItemIO.INPUT, required = false)
+	private boolean interpolateRois = INTERPOLATE_ROIS_DEFAULT;
+
 	@Parameter(label = "Mask thickness map", description = "Remove pixel artifacts from the thickness map(s)",
             type = ItemIO.INPUT, required = false)
 	private boolean doMask = MASK_DEFAULT;
 
+	@Parameter(label = "Process in bricks",
+            description = "Calculate only the statistics brick by brick to save memory. Use for images too large to " +
+                    "process at once", type = ItemIO.INPUT, required = false)
+	private boolean doBricks = BRICKS_DEFAULT;
+
+	@Parameter(label = "Brick size (pixels)", description = "Length of the sides of the bricks", min = "1",
+            type = ItemIO.INPUT, required = false)
+	private int brickSize = BRICK_SIZE_DEFAULT;
+
+	@Parameter(label = "Max sphere radius (pixels)",
+            description = "The largest expected radius of the spheres, determines the overlap of the bricks",
+            min = "1", type = ItemIO.INPUT, required = false)
+	private double maxRadius = MAX_RADIUS_DEFAULT;
+
+	@Parameter(label = "Histogram bin width",
+            description = "Width of the bins of the thickness histograms in calibrated units, 0 uses the pixel width",
+            min = "0", type = ItemIO.INPUT, required = false)
+	private double binWidth = BIN_WIDTH_DEFAULT;
+
+	@Parameter(label = "Show histograms", description = "Show the thickness distributions in a table",
+            type = ItemIO.INPUT, required = false)
+	private boolean doHistogram = HISTOGRAM_DEFAULT;
+
+	@Parameter(label = "Save histograms to", style = FileWidget.SAVE_STYLE, required = false,
+			description = "Save the thickness distributions into a CSV file")
+	private File histogramFile = null;
+
+	@Parameter(label = "Save results to", style = FileWidget.SAVE_STYLE, required = false,
+			description = "Append the results to a CSV or TSV file instead of the results table")
+	private File resultsFile = null;
+
 	@Parameter(label = "Help", persist = false, callback = "openHelpPage")
 	private org.scijava.widget.Button helpButton;
 
 	private ImagePlus resultImage = null;
+	private final Map<String, StreamingStatistics> histograms = new LinkedHashMap<>();
 	private boolean pluginHasRequirements = true;
 
 	@SuppressWarnings("unused")
@@ -121,16 +170,8 @@ public class Thickness implements Command {
 			return;
 		}
 
-		final double ANISOTROPY_TOLERANCE = 1E-3;
-		if (ImageCheck.isVoxelIsotropic(image, ANISOTROPY_TOLERANCE)) {
-			pluginHasRequirements = true;
-			return;
-		}
-
-		Result result = uiService.showDialog(Common.ANISOTROPY_WARNING, "Anisotropic voxels",
-				MessageType.WARNING_MESSAGE, OptionType.OK_CANCEL_OPTION);
-
-		pluginHasRequirements = result != Result.CANCEL_OPTION;
+		// LocalThickness measures anisotropic voxels at their native size, no need to warn about them
+		pluginHasRequirements = true;
 	}
 
 	@Override
@@ -148,20 +189,22 @@ public class Thickness implements Command {
 			return;
 		}
 
-		if (doThickness) {
-			boolean processingCompleted = getLocalThickness(true);
-			if (!processingCompleted) {
-				return;
-			}
-			showResultImage();
-			showThicknessStats(true);
+		Optional<ImagePlus> inputImage = getInputImage();
+		if (!inputImage.isPresent()) {
+			return;
 		}
 
-		if (doSpacing) {
-			getLocalThickness(false);
-			showResultImage();
-			showThicknessStats(false);
+		histograms.clear();
+		if (doBricks) {
+			showBrickStatistics(inputImage.get());
+		} else if (!doGraphic || Interpreter.isBatchMode()) {
+			// The maps wouldn't be shown, so calculate their statistics without creating them
+			showStatistics(inputImage.get());
+		} else {
+			showMaps(inputImage.get());
 		}
+
+		showHistograms();
 	}
 
 	// region -- Utility methods --
@@ -172,88 +215,161 @@ public class Thickness implements Command {
 
 	// region -- Helper methods --
 	private void showResultImage() {
-		if (!doGraphic || Interpreter.isBatchMode()) {
-			return;
-		}
-
 		resultImage.show();
 		IJ.run("Fire");
 	}
 
 	/**
-	 * Calculate the local thickness measure with various user options from the
-	 * setup dialog (foreground/background thickness, crop image, show
-	 * image...).
+	 * Returns the image to process: either the input image, or the input image cropped
+	 * to the ROIs in the ROI Manager. The image is cropped only once, even if both
+	 * thickness and spacing are calculated.
 	 *
-	 * @param doForeground
-	 *            If true, then process the thickness of the foreground
-	 *            (trabecular thickness). If false, then process the thickness
-	 *            of the background (trabecular spacing).
-	 * @return Returns true if localThickness succeeded, and resultImage != null
+	 * @return The image, or an empty Optional if there were no ROIs to crop to
 	 */
-	private boolean getLocalThickness(boolean doForeground) {
-		resultImage = null;
+	private Optional<ImagePlus> getInputImage() {
+		if (!doRoi) {
+			return Optional.of(image);
+		}
+
+		RoiManager roiManager = RoiManager.getInstance();
+		Optional<ImageStack> resultStack =
+				RoiUtil.cropToRois(roiManager, image.getStack(), true, Common.BINARY_BLACK, 0, interpolateRois);
+		if (!resultStack.isPresent()) {
+			uiService.showDialog("There are no valid ROIs in the ROI Manager for cropping", "ROI Manager empty",
+					MessageType.ERROR_MESSAGE, OptionType.DEFAULT_OPTION);
+			return Optional.empty();
+		}
+
+		ImagePlus croppedImage = new ImagePlus("", resultStack.get());
+		croppedImage.copyScale(image);
+		return Optional.of(croppedImage);
+	}
 
+	/**
+	 * Shows the thickness map and its statistics
+	 *
+	 * @param map
+	 *            The thickness map from the local thickness pipeline
+	 * @param doForeground
+	 *            If true, the map is the thickness of the foreground
+	 *            (trabecular thickness), otherwise it's the thickness of the
+	 *            background (trabecular spacing)
+	 */
+	private void showMap(ImagePlus map, boolean doForeground, StreamingStatistics statistics) {
 		String suffix = doForeground ? "_" + TRABECULAR_THICKNESS : "_" + TRABECULAR_SPACING;
+		map.setTitle(image.getTitle() + suffix);
+		resultImage = map;
+		showResultImage();
+		showThicknessStats(doForeground, statistics);
+	}
 
-		if (doRoi) {
-			RoiManager roiManager = RoiManager.getInstance();
+	/**
+	 * Creates and shows the thickness map(s) and their statistics. The
+	 * statistics are collected while the maps are created
+	 */
+	private void showMaps(ImagePlus inputImage) {
+		StreamingStatistics thicknessStatistics = StreamingStatistics.withBinWidth(0.0, binWidth(inputImage));
+		if (doThickness && doSpacing) {
+			StreamingStatistics spacingStatistics = StreamingStatistics.withHistogramOf(thicknessStatistics);
+			ImagePlus[] maps = LocalThickness.createMaps(inputImage, doMask, thicknessStatistics, spacingStatistics);
+			showMap(maps[0], true, thicknessStatistics);
+			showMap(maps[1], false, spacingStatistics);
+			return;
+		}
 
-            Optional<ImageStack> resultStack =
-                    RoiUtil.cropToRois(roiManager, image.getStack(), true, Common.BINARY_BLACK);
-            if (!resultStack.isPresent()) {
-                uiService.showDialog("There are no valid ROIs in the ROI Manager for cropping", "ROI Manager empty",
-                        MessageType.ERROR_MESSAGE, OptionType.DEFAULT_OPTION);
-                return false;
-            }
+		showMap(LocalThickness.createMap(inputImage, doThickness, doMask, thicknessStatistics), doThickness,
+				thicknessStatistics);
+	}
+
+	/**
+	 * Calculates and shows the statistics of thickness and / or spacing without
+	 * creating the thickness maps
+	 */
+	private void showStatistics(ImagePlus inputImage) {
+		double binWidth = binWidth(inputImage);
+		if (doThickness && doSpacing) {
+			StreamingStatistics[] statistics = LocalThickness.createStatistics(inputImage, doMask, binWidth);
+			showThicknessStats(true, statistics[0]);
+			showThicknessStats(false, statistics[1]);
+			return;
+		}
 
-            ImageStack croppedStack = resultStack.get();
+		showThicknessStats(doThickness,
+				LocalThickness.createStatistics(inputImage, doThickness, doMask, binWidth));
+	}
 
-			ImagePlus croppedImage = new ImagePlus("", croppedStack);
-			croppedImage.copyScale(image);
-			resultImage = processThicknessSteps(croppedImage, doForeground, suffix);
-		} else {
-			resultImage = processThicknessSteps(image, doForeground, suffix);
+	/**
+	 * Calculates and shows the statistics of thickness and / or spacing brick
+	 * by brick
+	 */
+	private void showBrickStatistics(ImagePlus inputImage) {
+		double binWidth = binWidth(inputImage);
+		try {
+			if (doThickness) {
+				showThicknessStats(true, TiledLocalThickness.createStatistics(inputImage, true, doMask, brickSize,
+						maxRadius, binWidth));
+			}
+			if (doSpacing) {
+				showThicknessStats(false, TiledLocalThickness.createStatistics(inputImage, false, doMask, brickSize,
+						maxRadius, binWidth));
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			uiService.showDialog("Could not process the image in bricks: " + e.getMessage(),
+					MessageType.ERROR_MESSAGE);
 		}
+	}
 
-		return true;
+	private void showThicknessStats(boolean doForeground, StreamingStatistics statistics) {
+		histograms.put(doForeground ? TRABECULAR_THICKNESS : TRABECULAR_SPACING, statistics);
+		showThicknessStats(doForeground, statistics.getMean(), statistics.getStandardDeviation(),
+				statistics.getMax());
 	}
 
 	/**
-	 * Process the given image through all the steps of LocalThickness_ plugin.
-	 *
-	 * @param image
-	 *            Binary (black & white) ImagePlus
-	 * @param doForeground
-	 *            If true, then process the thickness of the foreground. If
-	 *            false, then process the thickness of the background
-	 * @param tittleSuffix
-	 *            Suffix added to the thickness map image title
-	 * @return A new ImagePlus which contains the thickness
+	 * Shows the histograms of the measurements in a table, and / or writes them
+	 * into a CSV file
 	 */
-	private ImagePlus processThicknessSteps(ImagePlus image, boolean doForeground, String tittleSuffix) {
-		LocalThicknessWrapper thicknessWrapper = new LocalThicknessWrapper();
-		thicknessWrapper.setSilence(true);
-		thicknessWrapper.inverse = !doForeground;
-		thicknessWrapper.setShowOptions(false);
-		thicknessWrapper.maskThicknessMap = doMask;
-		thicknessWrapper.setTitleSuffix(tittleSuffix);
-		thicknessWrapper.calibratePixels = true;
-        return thicknessWrapper.processImage(image);
+	private void showHistograms() {
+		if (histograms.isEmpty()) {
+			return;
+		}
+
+		String units = image.getCalibration().getUnits();
+		if (doHistogram) {
+			HistogramTable.toResultsTable(histograms, units).show(image.getTitle() + "_Histogram");
+		}
+
+		if (histogramFile != null) {
+			try {
+				HistogramTable.writeCsv(histograms, units, histogramFile.toPath());
+			} catch (IOException e) {
+				uiService.showDialog("Could not save the histograms: " + e.getMessage(),
+						MessageType.ERROR_MESSAGE);
+			}
+		}
 	}
 
-	private void showThicknessStats(boolean doForeground) {
-		StackStatistics resultStats = new StackStatistics(resultImage);
+	/**
+	 * @return The width of the histogram bins in calibrated units
+	 */
+	private double binWidth(ImagePlus inputImage) {
+		return binWidth > 0.0 ? binWidth : inputImage.getCalibration().pixelWidth;
+	}
 
-		String title = resultImage.getTitle();
-		String units = resultImage.getCalibration().getUnits();
+	private void showThicknessStats(boolean doForeground, double mean, double stdDev, double max) {
+		String suffix = doForeground ? "_" + TRABECULAR_THICKNESS : "_" + TRABECULAR_SPACING;
+		String title = image.getTitle() + suffix;
+		String units = image.getCalibration().getUnits();
 		String legend = doForeground ? TRABECULAR_THICKNESS : TRABECULAR_SPACING;
 
-		ResultsInserter resultsInserter = new ResultsInserter();
-		resultsInserter.setMeasurementInFirstFreeRow(title, legend + " Mean (" + units + ")", resultStats.mean);
-		resultsInserter.setMeasurementInFirstFreeRow(title, legend + " Std Dev (" + units + ")", resultStats.stdDev);
-		resultsInserter.setMeasurementInFirstFreeRow(title, legend + " Max (" + units + ")", resultStats.max);
-		resultsInserter.updateTable();
+		try (ResultsSink results = ResultsSink.open(resultsFile)) {
+			results.addMeasurement(title, legend + " Mean (" + units + ")", mean);
+			results.addMeasurement(title, legend + " Std Dev (" + units + ")", stdDev);
+			results.addMeasurement(title, legend + " Max (" + units + ")", max);
+			results.flush();
+		} catch (IOException e) {
+			uiService.showDialog("Could not save the results: " + e.getMessage(), MessageType.ERROR_MESSAGE);
+		}
 	}
 	// endregion
 }
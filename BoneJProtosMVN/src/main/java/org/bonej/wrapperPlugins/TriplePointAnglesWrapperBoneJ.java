@@ -1,5 +1,6 @@
 package org.bonej.wrapperPlugins;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.util.NoSuchElementException;
@@ -7,6 +8,8 @@ import java.util.NoSuchElementException;
 import net.imagej.Main;
 
 import org.bonej.common.ResultsInserter;
+import org.bonej.common.StreamingStatistics;
+import org.bonej.skeleton.SkeletonGraphWriter;
 import org.scijava.ItemIO;
 import org.scijava.command.Command;
 import org.scijava.command.ContextCommand;
@@ -17,7 +20,10 @@ import org.scijava.ui.DialogPrompt;
 import org.scijava.ui.UIService;
 import org.scijava.widget.Button;
 import org.scijava.widget.ChoiceWidget;
+import org.scijava.widget.FileWidget;
 
+import protoOps.triplePointAngles.JunctionAngleStatistics;
+import protoOps.triplePointAngles.TriplePointAngleResults;
 import protoOps.triplePointAngles.TriplePointAngles;
 import ij.ImagePlus;
 
@@ -33,7 +39,8 @@ public class TriplePointAnglesWrapperBoneJ extends ContextCommand {
 	private static final String DEFAULT_POINT_CHOICE = "Branch end";
 	private static final TriplePointAngles triplePointAngles = new TriplePointAngles();
 
-	private double angleResults[][][] = null;
+	private TriplePointAngleResults angleResults = null;
+	private JunctionAngleStatistics angleStatistics = null;
 
 	@Parameter(label = "Angle measurement point:", style = ChoiceWidget.LIST_BOX_STYLE,
             description = "Measure angles from ends of the branches, or n voxels \"up\" the branch", choices = {
@@ -44,6 +51,14 @@ public class TriplePointAnglesWrapperBoneJ extends ContextCommand {
             description = "Number of voxels the angle measurement point is from the ends of the branches", min = "0")
 	private int nthPoint = TriplePointAngles.DEFAULT_NTH_POINT;
 
+	@Parameter(label = "Show each triple point",
+			description = "Show the angles of each triple point in addition to the summary statistics")
+	private boolean showTriplePoints = false;
+
+	@Parameter(label = "Export skeleton graphs to", style = FileWidget.SAVE_STYLE, required = false,
+			description = "Save the skeleton graphs into a binary file for later analysis without rethinning")
+	private File graphFile = null;
+
 	@Parameter(label = "Help", persist = false, callback = "openHelpPage")
 	private Button helpButton;
 
@@ -63,8 +78,10 @@ public class TriplePointAnglesWrapperBoneJ extends ContextCommand {
 
         try {
 			triplePointAngles.setNthPoint(nthPoint);
+			triplePointAngles.setStoreAngles(showTriplePoints);
 			triplePointAngles.calculateTriplePointAngles();
-            angleResults = triplePointAngles.getResults().get();
+			angleStatistics = triplePointAngles.getStatistics().get();
+			angleResults = showTriplePoints ? triplePointAngles.getAngleResults().get() : null;
 		} catch (IllegalArgumentException | NullPointerException e) {
 			uiService.showDialog(e.getMessage(), DialogPrompt.MessageType.ERROR_MESSAGE);
 			return;
@@ -74,6 +91,10 @@ public class TriplePointAnglesWrapperBoneJ extends ContextCommand {
             return;
         }
 
+		if (graphFile != null) {
+			exportGraphs();
+		}
+
 		showResults();
 	}
 
@@ -92,6 +113,15 @@ public class TriplePointAnglesWrapperBoneJ extends ContextCommand {
 		return nthPoint;
 	}
 
+	private void exportGraphs() {
+		try {
+			SkeletonGraphWriter.write(triplePointAngles.getGraphs().get(), graphFile.toPath());
+		} catch (IOException | IllegalArgumentException e) {
+			uiService.showDialog("Could not export the skeleton graphs: " + e.getMessage(),
+					DialogPrompt.MessageType.ERROR_MESSAGE);
+		}
+	}
+
 	@SuppressWarnings("unused")
 	private void initializeActiveImage() {
 		try {
@@ -112,7 +142,8 @@ public class TriplePointAnglesWrapperBoneJ extends ContextCommand {
 	}
 
 	/**
-	 * Shows the angles of the triple points in the default results table
+	 * Shows the summary statistics of the angles, and optionally the angles of each triple point in the default
+	 * results table
 	 * 
 	 * @todo Don't show results if running headless / in macro mode
 	 */
@@ -120,17 +151,49 @@ public class TriplePointAnglesWrapperBoneJ extends ContextCommand {
 		ResultsInserter resultsInserter = new ResultsInserter();
 		String label = activeImage.getTitle();
 
-		for (int graph = 0; graph < angleResults.length; graph++) {
-			for (int vertex = 0; vertex < angleResults[graph].length; vertex++) {
-				resultsInserter.setMeasurementInFirstFreeRow(label, "Skeleton #", graph);
-				resultsInserter.setMeasurementInFirstFreeRow(label, "Vertex #", vertex);
-				resultsInserter.setMeasurementInFirstFreeRow(label, "Theta 0", angleResults[graph][vertex][0]);
-				resultsInserter.setMeasurementInFirstFreeRow(label, "Theta 1", angleResults[graph][vertex][1]);
-				resultsInserter.setMeasurementInFirstFreeRow(label, "Theta 2", angleResults[graph][vertex][2]);
+		insertStatistics(resultsInserter, label + " (all skeletons)", angleStatistics.getJunctionCount(),
+				angleStatistics.getTotalStatistics());
+		for (int graph = 0; graph < angleStatistics.getGraphCount(); graph++) {
+			final int triplePoints = angleStatistics.getJunctionCount(graph);
+			if (triplePoints == 0) {
+				continue;
 			}
+			resultsInserter.setMeasurementInFirstFreeRow(label, "Skeleton #", graph);
+			insertStatistics(resultsInserter, label, triplePoints, angleStatistics.getGraphStatistics(graph));
+		}
+
+		if (showTriplePoints) {
+			insertTriplePoints(resultsInserter, label + " (triple points)");
 		}
 
 		resultsInserter.updateTable();
 	}
+
+	/**
+	 * Inserts the number of triple points, and the statistics of their angles
+	 *
+	 * @implNote The statistics skip NaN angles, so the number of triple points can't be derived from their count
+	 */
+	private static void insertStatistics(final ResultsInserter resultsInserter, final String label,
+										 final int triplePoints, final StreamingStatistics statistics) {
+		resultsInserter.setMeasurementInFirstFreeRow(label, "Triple points", triplePoints);
+		resultsInserter.setMeasurementInFirstFreeRow(label, "Mean theta", statistics.getMean());
+		resultsInserter.setMeasurementInFirstFreeRow(label, "SD theta", statistics.getStandardDeviation());
+		resultsInserter.setMeasurementInFirstFreeRow(label, "Min theta", statistics.getMin());
+		resultsInserter.setMeasurementInFirstFreeRow(label, "25th percentile theta", statistics.getPercentile(25.0));
+		resultsInserter.setMeasurementInFirstFreeRow(label, "Median theta", statistics.getPercentile(50.0));
+		resultsInserter.setMeasurementInFirstFreeRow(label, "75th percentile theta", statistics.getPercentile(75.0));
+		resultsInserter.setMeasurementInFirstFreeRow(label, "Max theta", statistics.getMax());
+	}
+
+	private void insertTriplePoints(final ResultsInserter resultsInserter, final String label) {
+		angleResults.forEach((graph, vertex, x, y, z, theta0, theta1, theta2) -> {
+			resultsInserter.setMeasurementInFirstFreeRow(label, "Skeleton #", graph);
+			resultsInserter.setMeasurementInFirstFreeRow(label, "Vertex #", vertex);
+			resultsInserter.setMeasurementInFirstFreeRow(label, "Theta 0", theta0);
+			resultsInserter.setMeasurementInFirstFreeRow(label, "Theta 1", theta1);
+			resultsInserter.setMeasurementInFirstFreeRow(label, "Theta 2", theta2);
+		});
+	}
 	// endregion
 }
@@ -1,9 +1,10 @@
 package org.bonej.wrapperPlugins;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 
-import org.bonej.common.ResultsInserter;
+import org.bonej.common.ResultsSink;
 import org.scijava.command.Command;
 import org.scijava.command.ContextCommand;
 import org.scijava.platform.PlatformService;
@@ -13,6 +14,7 @@ import org.scijava.ui.DialogPrompt;
 import org.scijava.ui.UIService;
 import org.scijava.widget.Button;
 import org.scijava.widget.ChoiceWidget;
+import org.scijava.widget.FileWidget;
 
 import protoOps.volumeFraction.VolumeFractionOp;
 import protoOps.volumeFraction.VolumeFractionSurface;
@@ -62,15 +64,27 @@ public class VolumeFractionWrapperBoneJ extends ContextCommand {
             description = "Voxel resampling (surface algorithm) - higher values result in simpler surfaces", min = "0")
 	private int surfaceResampling = VolumeFractionSurface.DEFAULT_SURFACE_RESAMPLING;
 
+	@Parameter(label = "Adaptive resampling", description = "Surface resampling is the maximum, finer resampling "
+			+ "is used near thin structures (surface algorithm)")
+	private boolean adaptiveResampling = false;
+
 	// @todo Disable on init if there is no RoiManager
 	@Parameter(label = "Use ROI Manager", initializer = "initRoiManager",
             description = "restrict measurements to ROIs in the ROI manager", persist = false)
 	private boolean useRoiManager = false;
 
+	@Parameter(label = "Interpolate ROIs",
+            description = "Limit the slices between two slices with ROIs to ROIs interpolated from them")
+	private boolean interpolateRois = false;
+
 	// @todo check 3D libs etc. on init, disable if there are none
 	@Parameter(label = "Show 3D result", description = "Show the bone and total volume surfaces in the 3D Viewer")
 	private boolean show3DResult = false;
 
+	@Parameter(label = "Save results to", style = FileWidget.SAVE_STYLE, required = false,
+			description = "Append the results to a CSV or TSV file instead of the results table")
+	private File resultsFile = null;
+
 	@Parameter(label = "Help", persist = false, callback = "openHelpPage")
 	private Button helpButton;
 
@@ -80,6 +94,7 @@ public class VolumeFractionWrapperBoneJ extends ContextCommand {
             if (volumeAlgorithm.equals("Surface")) {
                 volumeFractionOp = volumeFractionSurface;
                 ((VolumeFractionSurface)volumeFractionOp).setSurfaceResampling(surfaceResampling);
+                ((VolumeFractionSurface)volumeFractionOp).setAdaptiveResampling(adaptiveResampling);
             } else {
                 volumeFractionOp = volumeFractionVoxel;
             }
@@ -92,6 +107,7 @@ public class VolumeFractionWrapperBoneJ extends ContextCommand {
 
 			if (useRoiManager) {
 				volumeFractionOp.setRoiManager(roiManager);
+				volumeFractionOp.setInterpolateRois(interpolateRois);
 			}
 		} catch (NullPointerException | IllegalArgumentException e) {
 			uiService.showDialog(e.getMessage(), DialogPrompt.MessageType.ERROR_MESSAGE);
@@ -133,11 +149,7 @@ public class VolumeFractionWrapperBoneJ extends ContextCommand {
 		}
 	}
 
-    /**
-     * @todo Don't show if run from CLI
-     */
     private void showVolumeResults() {
-        ResultsInserter resultsInserter = new ResultsInserter();
         String unit = activeImage.getCalibration().getUnits();
         String label = activeImage.getTitle();
 
@@ -154,13 +166,17 @@ public class VolumeFractionWrapperBoneJ extends ContextCommand {
             degreeSign = '\u00B3';
         }
 
-		resultsInserter.setMeasurementInFirstFreeRow(label,
-				"Bone " + degreeDescription + " (" + unit + degreeSign + ")", volumeFractionOp.getForegroundVolume());
-		resultsInserter.setMeasurementInFirstFreeRow(label,
-				"Total " + degreeDescription + " (" + unit + degreeSign + ")", volumeFractionOp.getTotalVolume());
-		resultsInserter.setMeasurementInFirstFreeRow(label, capitalDescription + " ratio",
-				volumeFractionOp.getVolumeRatio());
-		resultsInserter.updateTable();
+		try (ResultsSink results = ResultsSink.open(resultsFile)) {
+			results.addMeasurement(label, "Bone " + degreeDescription + " (" + unit + degreeSign + ")",
+					volumeFractionOp.getForegroundVolume());
+			results.addMeasurement(label, "Total " + degreeDescription + " (" + unit + degreeSign + ")",
+					volumeFractionOp.getTotalVolume());
+			results.addMeasurement(label, capitalDescription + " ratio", volumeFractionOp.getVolumeRatio());
+			results.flush();
+		} catch (IOException e) {
+			uiService.showDialog("Could not save the results: " + e.getMessage(),
+					DialogPrompt.MessageType.ERROR_MESSAGE);
+		}
     }
 
     /**
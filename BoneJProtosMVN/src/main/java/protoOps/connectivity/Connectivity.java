@@ -164,6 +164,9 @@ public class Connectivity implements Op {
     private int height = 0;
     private int depth = 0;
     private ImageStack inputStack = null;
+    /** The image and stack that passed checkImage in setInputImage, so that run doesn't check them again */
+    private ImagePlus checkedImage = null;
+    private ImageStack checkedStack = null;
 
     @Parameter(type = ItemIO.INPUT)
     private ImagePlus inputImage = null;
@@ -212,6 +215,8 @@ public class Connectivity implements Op {
 
         inputImage = image;
         inputStack = image.getStack();
+        checkedImage = image;
+        checkedStack = inputStack;
         width = image.getWidth();
         height = image.getHeight();
         depth = image.getNSlices();
@@ -229,7 +234,9 @@ public class Connectivity implements Op {
 
     @Override
     public void run() throws NullPointerException, IllegalArgumentException {
-        checkImage(inputImage);
+        if (inputImage == null || inputImage != checkedImage || inputImage.getStack() != checkedStack) {
+            checkImage(inputImage);
+        }
 
         calculateEulerCharacteristic();
         calculateDeltaChi();
@@ -7,6 +7,8 @@ import org.junit.Test;
 
 import protoOps.testImageCreators.StaticTestImageHelper;
 import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
 
 /**
  * @todo   Improve tests, these have bad validity. It's possible for these tests to pass,
@@ -83,4 +85,20 @@ public class ConnectivityTest {
         double eulerCharacteristic = connectivity.getEulerCharacteristic();
         assertEquals(-3.0, eulerCharacteristic, DELTA);
     }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRunChecksAgainIfStackIsReplaced() throws Exception {
+        ImagePlus imagePlus = StaticTestImageHelper.createWireFrameCuboid(3, 16, 3, 1);
+        connectivity.setInputImage(imagePlus);
+        final ImageStack greyStack = new ImageStack(imagePlus.getWidth(), imagePlus.getHeight());
+        for (int i = 0; i < imagePlus.getNSlices(); i++) {
+            final ByteProcessor processor = new ByteProcessor(imagePlus.getWidth(), imagePlus.getHeight());
+            processor.setValue(0x01);
+            processor.fill();
+            greyStack.addSlice(processor);
+        }
+        imagePlus.setStack(greyStack);
+
+        connectivity.run();
+    }
 }
@@ -0,0 +1,259 @@
+package protoOps.triplePointAngles;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+import org.bonej.common.Centroid;
+import org.bonej.common.Common;
+import org.bonej.common.ImageCheck;
+import org.bonej.geometry.Vectors;
+import org.bonej.skeleton.SkeletonCache;
+
+import sc.fiji.analyzeSkeleton.Edge;
+import sc.fiji.analyzeSkeleton.Graph;
+import sc.fiji.analyzeSkeleton.Point;
+import sc.fiji.analyzeSkeleton.Vertex;
+import ij.ImagePlus;
+
+/**
+ * Calculates the angles between the branches of skeleton junctions. Shared by the TriplePointAngles and
+ * JunctionAngles Ops.
+ *
+ * The angles of a junction are the angles between each pair of its branches in the order (0, 1), (0, 2), ...,
+ * (0, n - 1), (1, 2), ..., (n - 2, n - 1). The junctions of the graphs are counted first, so that each graph can be
+ * processed in parallel, and fill its own range of the results in place.
+ *
+ * @author Michael Doube
+ * @author Richard Domander
+ */
+final class JunctionAngleCalculator {
+    private final int nthPoint;
+    private final IntPredicate isJunctionDegree;
+
+    /**
+     * @param nthPoint          Distance of the measurement point as voxels from the junction, or
+     *                          TriplePointAngles#VERTEX_TO_VERTEX
+     * @param isJunctionDegree  Returns true for the branch counts of the vertices which are measured
+     */
+    JunctionAngleCalculator(final int nthPoint, final IntPredicate isJunctionDegree) {
+        this.nthPoint = nthPoint;
+        this.isJunctionDegree = isJunctionDegree;
+    }
+
+    /**
+     * The destination of the calculated angles
+     */
+    interface JunctionSink {
+        /**
+         * Stores the properties of a junction
+         *
+         * @param junction      Index of the junction over all graphs
+         * @param firstAngle    Index of the first angle of the junction over all graphs
+         */
+        void setJunction(int junction, int firstAngle, int x, int y, int z, int degree);
+
+        /**
+         * Stores an angle of a junction
+         *
+         * @param graph     Index of the graph of the junction
+         * @param angle     Index of the angle over all graphs
+         */
+        void setAngle(int graph, int angle, double value);
+
+        /**
+         * Returns a sink which passes the values to both sinks
+         */
+        static JunctionSink both(final JunctionSink first, final JunctionSink second) {
+            return new JunctionSink() {
+                @Override
+                public void setJunction(final int junction, final int firstAngle, final int x, final int y,
+                                        final int z, final int degree) {
+                    first.setJunction(junction, firstAngle, x, y, z, degree);
+                    second.setJunction(junction, firstAngle, x, y, z, degree);
+                }
+
+                @Override
+                public void setAngle(final int graph, final int angle, final double value) {
+                    first.setAngle(graph, angle, value);
+                    second.setAngle(graph, angle, value);
+                }
+            };
+        }
+    }
+
+    /**
+     * The skeleton graphs of the given image
+     *
+     * @throws IllegalArgumentException if the image could not be skeletonized
+     */
+    static Graph[] getGraphs(final ImagePlus image) throws IllegalArgumentException {
+        final Graph[] graphs = SkeletonCache.getGraphs(image);
+
+        if (graphs == null || graphs.length == 0) {
+            throw new IllegalArgumentException("Input image could not be skeletonized");
+        }
+
+        return graphs;
+    }
+
+    /**
+     * Counts the junctions of each graph, and the angles of each junction
+     */
+    Layout countJunctions(final Graph[] graphs) {
+        final int[][] degrees = Arrays.stream(graphs).parallel().map(this::junctionDegrees).toArray(int[][]::new);
+        final int[] graphJunctions = new int[graphs.length + 1];
+        for (int g = 0; g < graphs.length; g++) {
+            graphJunctions[g + 1] = graphJunctions[g] + degrees[g].length;
+        }
+
+        final int[] junctionAngles = new int[graphJunctions[graphs.length] + 1];
+        int junction = 0;
+        for (int[] graphDegrees : degrees) {
+            for (int degree : graphDegrees) {
+                junctionAngles[junction + 1] = junctionAngles[junction] + pairs(degree);
+                junction++;
+            }
+        }
+
+        return new Layout(graphJunctions, junctionAngles);
+    }
+
+    /**
+     * Calculates the junction angles of the graphs in parallel, and stores them in the sink
+     *
+     * @param layout    The layout of the junctions from countJunctions(graphs)
+     */
+    void calculate(final Graph[] graphs, final Layout layout, final JunctionSink sink) {
+        IntStream.range(0, graphs.length).parallel().forEach(
+                g -> calculateGraph(g, graphs[g], sink, layout.graphJunctions[g], layout.junctionAngles));
+    }
+
+    /**
+     * Checks if an Op can process the given image
+     *
+     * @throws NullPointerException if image == null
+     * @throws IllegalArgumentException if image is not binary
+     */
+    static void checkImage(final ImagePlus image) throws NullPointerException, IllegalArgumentException {
+        checkNotNull(image, "Must have an input image");
+        checkArgument(ImageCheck.isBinary(image), "Input image must be binary");
+    }
+
+    /**
+     * Checks if an Op can use the given nthPoint value
+     *
+     * @throws IllegalArgumentException if nthPoint < 0 && nthPoint != TriplePointAngles#VERTEX_TO_VERTEX
+     */
+    static void checkNthPoint(final int nthPoint) throws IllegalArgumentException {
+        checkArgument(nthPoint >= 0 || nthPoint == TriplePointAngles.VERTEX_TO_VERTEX, "Invalid nth point value");
+    }
+
+    /**
+     * Returns the number of branch pairs, i.e. angles, of a junction with the given number of branches
+     */
+    static int pairs(final int degree) {
+        return degree * (degree - 1) / 2;
+    }
+
+    /**
+     * The positions of the junctions and their angles in the results
+     */
+    static final class Layout {
+        /** The index of the first junction of each graph, and the total as the last element */
+        final int[] graphJunctions;
+        /** The index of the first angle of each junction, and the total as the last element */
+        final int[] junctionAngles;
+
+        private Layout(final int[] graphJunctions, final int[] junctionAngles) {
+            this.graphJunctions = graphJunctions;
+            this.junctionAngles = junctionAngles;
+        }
+    }
+
+    //region -- Helper methods --
+    private int[] junctionDegrees(final Graph graph) {
+        return graph.getVertices().stream().mapToInt(v -> v.getBranches().size()).filter(isJunctionDegree)
+                .toArray();
+    }
+
+    private void calculateGraph(final int graphIndex, final Graph graph, final JunctionSink sink,
+                                final int firstJunction, final int[] junctionAngles) {
+        int junction = firstJunction;
+        for (Vertex vertex : graph.getVertices()) {
+            if (isJunctionDegree.test(vertex.getBranches().size())) {
+                calculateVertex(graphIndex, vertex, sink, junction, junctionAngles[junction]);
+                junction++;
+            }
+        }
+    }
+
+    /**
+     * Calculates the angles between each pair of the branches of the vertex, and stores them in the sink
+     *
+     * @implNote The centroid of the vertex, and the end point of each branch are calculated only once
+     */
+    private void calculateVertex(final int graphIndex, final Vertex vertex, final JunctionSink sink,
+                                 final int junction, final int firstAngle) {
+        final ArrayList<Edge> edges = vertex.getBranches();
+        final int degree = edges.size();
+        final double[] centroid = Centroid.getCentroidCoordinates(vertex.getPoints()).get();
+        final double[][] ends = new double[degree][];
+
+        if (nthPoint == TriplePointAngles.VERTEX_TO_VERTEX) {
+            for (int i = 0; i < degree; i++) {
+                final Vertex oppositeVertex = edges.get(i).getOppositeVertex(vertex);
+                ends[i] = Centroid.getCentroidCoordinates(oppositeVertex.getPoints()).get();
+            }
+        } else {
+            final VoxelSet vertexVoxels = new VoxelSet(vertex.getPoints());
+            for (int i = 0; i < degree; i++) {
+                final Point point = getNthPointOfEdge(vertex, vertexVoxels, edges.get(i));
+                ends[i] = new double[]{point.x, point.y, point.z};
+            }
+        }
+
+        sink.setJunction(junction, firstAngle, (int) Math.round(centroid[0]), (int) Math.round(centroid[1]),
+                (int) Math.round(centroid[2]), degree);
+        int angle = firstAngle;
+        for (int i = 0; i < degree - 1; i++) {
+            for (int j = i + 1; j < degree; j++) {
+                sink.setAngle(graphIndex, angle, angle(ends[i], ends[j], centroid));
+                angle++;
+            }
+        }
+    }
+
+    private static double angle(final double[] end0, final double[] end1, final double[] centroid) {
+        return Vectors.joinedVectorAngle(end0[0], end0[1], end0[2], end1[0], end1[1], end1[2], centroid[0],
+                centroid[1], centroid[2]);
+    }
+
+    private Point getNthPointOfEdge(final Vertex vertex, final VoxelSet vertexVoxels, final Edge edge) {
+        final ArrayList<Point> edgePoints = edge.getSlabs();
+
+        if (edgePoints.isEmpty()) {
+            // No slabs, edge has only an end-point and a junction point
+            final ArrayList<Point> oppositeVertexPoints = edge.getOppositeVertex(vertex).getPoints();
+            return Centroid.getCentroidPoint(oppositeVertexPoints).get();
+        }
+
+        final Point edgeStart = edgePoints.get(0);
+        final boolean startAtZero = vertexVoxels.isNeighbour(edgeStart);
+
+        final int nthEdgePoint = Common.clamp(nthPoint, 0, edgePoints.size() - 1);
+
+        if (startAtZero) {
+            // Vertex is the start vertex of the edge so start counting "up"
+            return edgePoints.get(nthEdgePoint);
+        }
+
+        // Vertex is the end vertex of the edge so start counting "down"
+        return edgePoints.get(edgePoints.size() - nthEdgePoint - 1);
+    }
+    //endregion
+}
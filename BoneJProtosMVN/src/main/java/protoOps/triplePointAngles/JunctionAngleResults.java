@@ -0,0 +1,176 @@
+package protoOps.triplePointAngles;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * The angles between the branches of the junctions of a skeleton in a flat, columnar layout.
+ *
+ * The junctions of all the graphs (skeletons) are stored one after the other, and the junctions of graph g are the
+ * indices [graphJunctions[g], graphJunctions[g + 1]). A junction with n branches has n * (n - 1) / 2 angles, which
+ * are stored in angles[junctionAngles[i], junctionAngles[i + 1]) in the order of the branch pairs (0, 1), (0, 2),
+ * ..., (n - 2, n - 1).
+ *
+ * @author Richard Domander
+ */
+public final class JunctionAngleResults {
+    public static final String CSV_HEADER = "Skeleton #,Vertex #,X,Y,Z,Branches,Branch a,Branch b,Theta";
+
+    private final int[] graphJunctions;
+    private final int[] junctionAngles;
+    private final int[] degrees;
+    private final int[] coordinates;
+    private final double[] angles;
+
+    /**
+     * Creates an empty result to be filled in place
+     *
+     * @param graphJunctions    The index of the first junction of each graph, and the total as the last element
+     * @param junctionAngles    The index of the first angle of each junction, and the total as the last element
+     */
+    JunctionAngleResults(final int[] graphJunctions, final int[] junctionAngles) {
+        this.graphJunctions = graphJunctions;
+        this.junctionAngles = junctionAngles;
+        final int junctions = graphJunctions[graphJunctions.length - 1];
+        degrees = new int[junctions];
+        coordinates = new int[junctions * 3];
+        angles = new double[junctionAngles[junctions]];
+    }
+
+    /**
+     * A callback for iterating the angles in order of graph, junction and branch pair
+     */
+    @FunctionalInterface
+    public interface AngleConsumer {
+        void accept(int graph, int vertex, int x, int y, int z, int branches, int branchA, int branchB,
+                    double theta);
+    }
+
+    public int getGraphCount() {
+        return graphJunctions.length - 1;
+    }
+
+    public int getJunctionCount() {
+        return graphJunctions[graphJunctions.length - 1];
+    }
+
+    public int getJunctionCount(final int graph) {
+        return graphJunctions[graph + 1] - graphJunctions[graph];
+    }
+
+    /**
+     * Returns the number of branches of the given junction
+     *
+     * @param graph     Index of the graph
+     * @param vertex    Index of the junction in the graph
+     */
+    public int getBranchCount(final int graph, final int vertex) {
+        return degrees[graphJunctions[graph] + vertex];
+    }
+
+    /**
+     * Returns the n-th angle of the given junction
+     *
+     * @param graph     Index of the graph
+     * @param vertex    Index of the junction in the graph
+     * @param n         Index of the angle (0 - branches * (branches - 1) / 2 - 1)
+     */
+    public double getAngle(final int graph, final int vertex, final int n) {
+        return angles[junctionAngles[graphJunctions[graph] + vertex] + n];
+    }
+
+    /**
+     * Returns the coordinates of the given junction
+     *
+     * @return A new array {x, y, z}
+     */
+    public int[] getCoordinates(final int graph, final int vertex) {
+        final int start = (graphJunctions[graph] + vertex) * 3;
+        return new int[]{coordinates[start], coordinates[start + 1], coordinates[start + 2]};
+    }
+
+    /**
+     * Passes each angle to the consumer in order of graph, junction and branch pair
+     */
+    public void forEach(final AngleConsumer consumer) throws NullPointerException {
+        checkNotNull(consumer, "Consumer cannot be null");
+
+        for (int g = 0; g < getGraphCount(); g++) {
+            for (int i = graphJunctions[g]; i < graphJunctions[g + 1]; i++) {
+                final int degree = degrees[i];
+                final int c = i * 3;
+                int angle = junctionAngles[i];
+                for (int a = 0; a < degree - 1; a++) {
+                    for (int b = a + 1; b < degree; b++) {
+                        consumer.accept(g, i - graphJunctions[g], coordinates[c], coordinates[c + 1],
+                                coordinates[c + 2], degree, a, b, angles[angle]);
+                        angle++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the angles as comma separated values, one row per branch pair
+     *
+     * @param writer        Destination of the values
+     * @param writeHeader   If true, CSV_HEADER is written first
+     * @throws NullPointerException if writer == null
+     * @throws IOException if writing fails
+     */
+    public void writeCsv(final Writer writer, final boolean writeHeader) throws NullPointerException, IOException {
+        checkNotNull(writer, "Writer cannot be null");
+
+        if (writeHeader) {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+        }
+
+        final StringBuilder rows = new StringBuilder();
+        try {
+            forEach((graph, vertex, x, y, z, branches, branchA, branchB, theta) -> {
+                rows.setLength(0);
+                rows.append(graph).append(',').append(vertex).append(',').append(x).append(',').append(y)
+                        .append(',').append(z).append(',').append(branches).append(',').append(branchA).append(',')
+                        .append(branchB).append(',').append(theta).append('\n');
+                try {
+                    writer.append(rows);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    //region -- Helper methods --
+    /**
+     * Returns a sink which stores the results calculated by JunctionAngleCalculator
+     *
+     * @implNote Each index is written once, so junctions can be set from multiple threads
+     */
+    JunctionAngleCalculator.JunctionSink sink() {
+        return new JunctionAngleCalculator.JunctionSink() {
+            @Override
+            public void setJunction(final int junction, final int firstAngle, final int x, final int y, final int z,
+                                    final int degree) {
+                degrees[junction] = degree;
+                final int j = junction * 3;
+                coordinates[j] = x;
+                coordinates[j + 1] = y;
+                coordinates[j + 2] = z;
+            }
+
+            @Override
+            public void setAngle(final int graph, final int angle, final double value) {
+                angles[angle] = value;
+            }
+        };
+    }
+    //endregion
+}
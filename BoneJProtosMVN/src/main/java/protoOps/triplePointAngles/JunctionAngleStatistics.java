@@ -0,0 +1,94 @@
+package protoOps.triplePointAngles;
+
+import java.util.Arrays;
+
+import org.bonej.common.StreamingStatistics;
+
+/**
+ * Summary statistics of the junction angles of each graph (skeleton) and of the whole image.
+ *
+ * The statistics are accumulated while the angles are calculated, so the individual angles don't need to be stored.
+ *
+ * @author Richard Domander
+ */
+public final class JunctionAngleStatistics {
+    /** Number of bins in the histograms of the angles, i.e. the percentiles are accurate to 0.1 degrees */
+    public static final int HISTOGRAM_BINS = 1800;
+
+    private final int[] graphJunctions;
+    private final StreamingStatistics[] graphStatistics;
+    private StreamingStatistics totalStatistics = null;
+
+    /**
+     * Creates empty statistics for the graphs of the given layout
+     *
+     * @param graphJunctions    The index of the first junction of each graph, and the total number of junctions as
+     *                          the last element
+     */
+    JunctionAngleStatistics(final int[] graphJunctions) {
+        this.graphJunctions = graphJunctions;
+        graphStatistics = new StreamingStatistics[graphJunctions.length - 1];
+        Arrays.setAll(graphStatistics, i -> new StreamingStatistics(0.0, Math.PI, HISTOGRAM_BINS));
+    }
+
+    public int getGraphCount() {
+        return graphStatistics.length;
+    }
+
+    /**
+     * Returns the number of junctions in all the graphs
+     *
+     * @implNote Counted from the skeleton, not from the angles, because NaN angles are not added to the statistics
+     */
+    public int getJunctionCount() {
+        return graphJunctions[graphJunctions.length - 1];
+    }
+
+    /**
+     * Returns the number of junctions in the given graph
+     */
+    public int getJunctionCount(final int graph) {
+        return graphJunctions[graph + 1] - graphJunctions[graph];
+    }
+
+    /**
+     * Returns the statistics of the angles of the given graph
+     */
+    public StreamingStatistics getGraphStatistics(final int graph) {
+        return graphStatistics[graph];
+    }
+
+    /**
+     * Returns the statistics of the angles of all the graphs
+     */
+    public synchronized StreamingStatistics getTotalStatistics() {
+        if (totalStatistics == null) {
+            final StreamingStatistics total = new StreamingStatistics(0.0, Math.PI, HISTOGRAM_BINS);
+            Arrays.stream(graphStatistics).forEach(total::merge);
+            totalStatistics = total;
+        }
+
+        return totalStatistics;
+    }
+
+    //region -- Helper methods --
+    /**
+     * Returns a sink which adds the angles calculated by JunctionAngleCalculator to the statistics of their graph
+     *
+     * @implNote Each graph is processed in one thread, so its statistics don't need synchronisation
+     */
+    JunctionAngleCalculator.JunctionSink sink() {
+        return new JunctionAngleCalculator.JunctionSink() {
+            @Override
+            public void setJunction(final int junction, final int firstAngle, final int x, final int y, final int z,
+                                    final int degree) {
+            }
+
+            @Override
+            public void setAngle(final int graph, final int angle, final double value) {
+                graphStatistics[graph].add(value);
+            }
+        };
+    }
+    //endregion
+}
@@ -0,0 +1,113 @@
+package protoOps.triplePointAngles;
+
+import java.util.Optional;
+
+import net.imagej.ops.Op;
+import net.imagej.ops.OpEnvironment;
+
+import org.scijava.ItemIO;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+
+import sc.fiji.analyzeSkeleton.Graph;
+import ij.ImagePlus;
+
+/**
+ * Skeletonizes the input image, and then calculates the angles at each of its junctions. A junction is a vertex of
+ * the skeleton where three or more edges (branches) meet. The Op calculates the angles between each pair of the
+ * branches, at each junction in each skeleton (graph) in the image.
+ *
+ * The angles are measured like in TriplePointAngles, and the angles of a triple point are the same in both Ops.
+ *
+ * @author Richard Domander
+ * @see TriplePointAngles
+ */
+@Plugin(type = Op.class, name = "junctionAngles")
+public class JunctionAngles implements Op {
+    /** The minimum number of branches of a junction */
+    public static final int MIN_BRANCHES = 3;
+
+    @Parameter(type = ItemIO.INPUT)
+    private ImagePlus inputImage = null;
+
+    @Parameter(min = "-1", required = false)
+    private int nthPoint = TriplePointAngles.DEFAULT_NTH_POINT;
+
+    /**
+     * The angles between each pair of branches of each junction in each skeleton (graph)
+     */
+    @Parameter(type = ItemIO.OUTPUT)
+    private JunctionAngleResults results;
+
+    /**
+     * Get the angles of the junctions from the previous run
+     *
+     * @return  An optional containing the results.
+     *          The Optional is empty if calculateJunctionAngles() hasn't been called yet,
+     *          or calculateJunctionAngles() failed
+     */
+    public Optional<JunctionAngleResults> getResults() {
+        return Optional.ofNullable(results);
+    }
+
+    /**
+     * Sets the input image for the Op
+     *
+     * @throws NullPointerException if image == null
+     * @throws IllegalArgumentException if the image is not binary
+     */
+    public void setInputImage(final ImagePlus image) throws NullPointerException, IllegalArgumentException {
+        JunctionAngleCalculator.checkImage(image);
+
+        inputImage = image;
+    }
+
+    /**
+     * Sets the distance of the angle measurement from the centroid of the junctions.
+     *
+     * @param nthPoint distance as voxels from the junction centroid
+     * @throws IllegalArgumentException if nthPoint < 0 && nthPoint != TriplePointAngles#VERTEX_TO_VERTEX
+     */
+    public void setNthPoint(final int nthPoint) throws IllegalArgumentException {
+        JunctionAngleCalculator.checkNthPoint(nthPoint);
+
+        this.nthPoint = nthPoint;
+    }
+
+    /**
+     * Calculates the angles of the junctions in the input image
+     *
+     * @implNote The input image is not modified. Its skeleton is reused from SkeletonCache if it hasn't changed
+     * @throws NullPointerException if this.inputImage == null
+     * @throws IllegalArgumentException if this.inputImage is not binary
+     * @throws IllegalArgumentException if this.inputImage could not be skeletonized
+     */
+    public void calculateJunctionAngles() throws NullPointerException, IllegalArgumentException {
+        JunctionAngleCalculator.checkImage(inputImage);
+
+        results = null;
+
+        final Graph[] graphs = JunctionAngleCalculator.getGraphs(inputImage);
+        final JunctionAngleCalculator calculator = new JunctionAngleCalculator(nthPoint, d -> d >= MIN_BRANCHES);
+        final JunctionAngleCalculator.Layout layout = calculator.countJunctions(graphs);
+        final JunctionAngleResults angleResults = new JunctionAngleResults(layout.graphJunctions,
+                layout.junctionAngles);
+        calculator.calculate(graphs, layout, angleResults.sink());
+        results = angleResults;
+    }
+
+    @Override
+    public void run() throws NullPointerException, IllegalArgumentException {
+        calculateJunctionAngles();
+    }
+
+    @Override
+    public OpEnvironment ops() {
+        return null;
+    }
+
+    @Override
+    public void setEnvironment(OpEnvironment opEnvironment) {
+
+    }
+}
@@ -0,0 +1,96 @@
+package protoOps.triplePointAngles;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import protoOps.testImageCreators.StaticTestImageHelper;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+
+/**
+ * Unit tests for the JunctionAngles Op
+ *
+ * @author Richard Domander
+ */
+public class JunctionAnglesTest {
+    private static final double HALF_PI = Math.PI / 2.0;
+
+    private JunctionAngles junctionAngles = null;
+
+    @Before
+    public void setUp() {
+        junctionAngles = new JunctionAngles();
+    }
+
+    @Test
+    public void testCalculateJunctionAnglesMatchesTriplePointAngles() throws Exception {
+        final ImagePlus testImage = StaticTestImageHelper.createWireFrameCuboid(128, 128, 128, 32);
+        final TriplePointAngles triplePointAngles = new TriplePointAngles();
+        triplePointAngles.setInputImage(testImage);
+        triplePointAngles.setNthPoint(TriplePointAngles.VERTEX_TO_VERTEX);
+        triplePointAngles.calculateTriplePointAngles();
+        final double[][][] expected = triplePointAngles.getResults().get();
+
+        junctionAngles.setInputImage(testImage);
+        junctionAngles.setNthPoint(TriplePointAngles.VERTEX_TO_VERTEX);
+        junctionAngles.calculateJunctionAngles();
+        final JunctionAngleResults results = junctionAngles.getResults().get();
+
+        assertEquals("Wrong number of skeletons", expected.length, results.getGraphCount());
+        for (int g = 0; g < expected.length; g++) {
+            assertEquals("Wrong number of junctions", expected[g].length, results.getJunctionCount(g));
+            for (int v = 0; v < expected[g].length; v++) {
+                assertEquals("Wrong number of branches", 3, results.getBranchCount(g, v));
+                for (int n = 0; n < 3; n++) {
+                    assertEquals("Wrong angle", expected[g][v][n], results.getAngle(g, v, n), 1e-12);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCalculateJunctionAnglesFourWayJunction() throws Exception {
+        final ImagePlus testImage = createCross();
+        junctionAngles.setInputImage(testImage);
+        junctionAngles.setNthPoint(TriplePointAngles.VERTEX_TO_VERTEX);
+
+        junctionAngles.calculateJunctionAngles();
+
+        final JunctionAngleResults results = junctionAngles.getResults().get();
+        assertEquals("Wrong number of junctions", 1, results.getJunctionCount());
+        assertEquals("Wrong number of branches", 4, results.getBranchCount(0, 0));
+        final double[] angles = new double[6];
+        for (int n = 0; n < angles.length; n++) {
+            angles[n] = results.getAngle(0, 0, n);
+        }
+        Arrays.sort(angles);
+        assertArrayEquals(new double[]{HALF_PI, HALF_PI, HALF_PI, HALF_PI, Math.PI, Math.PI}, angles, 1e-12);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSetNthPointThrowsIllegalArgumentExceptionIfValueIsInvalid() throws Exception {
+        junctionAngles.setNthPoint(-2);
+    }
+
+    //region -- Helper methods --
+    /**
+     * Creates an image of two perpendicular lines, which cross at their midpoints
+     */
+    private static ImagePlus createCross() {
+        final ImagePlus image = IJ.createImage("Cross", "8-bit black", 64, 64, 3);
+        final ImageProcessor processor = image.getStack().getProcessor(2);
+        for (int i = 8; i <= 56; i++) {
+            processor.set(i, 32, 0xFF);
+            processor.set(32, i, 0xFF);
+        }
+
+        return image;
+    }
+    //endregion
+}
@@ -0,0 +1,167 @@
+package protoOps.triplePointAngles;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * The angles of the triple points of a skeleton in a flat, columnar layout.
+ *
+ * The triple points of all the graphs (skeletons) are stored one after the other. The triple points of graph g are
+ * the indices [graphOffsets[g], graphOffsets[g + 1]). For each triple point, the three angles between its branches
+ * are stored in angles[3 * i, 3 * i + 3), and the coordinates of its vertex in coordinates[3 * i, 3 * i + 3).
+ *
+ * Compared to a jagged array, there are only three arrays regardless of the number of triple points.
+ *
+ * @author Richard Domander
+ */
+public final class TriplePointAngleResults {
+    public static final String CSV_HEADER = "Skeleton #,Vertex #,X,Y,Z,Theta 0,Theta 1,Theta 2";
+
+    private final int[] graphOffsets;
+    private final double[] angles;
+    private final int[] coordinates;
+
+    /**
+     * Creates an empty result to be filled in place
+     *
+     * @param graphOffsets  The index of the first triple point of each graph, and the total number of triple points
+     *                      as the last element
+     */
+    TriplePointAngleResults(final int[] graphOffsets) {
+        this.graphOffsets = graphOffsets;
+        final int triplePoints = graphOffsets[graphOffsets.length - 1];
+        angles = new double[triplePoints * 3];
+        coordinates = new int[triplePoints * 3];
+    }
+
+    /**
+     * A callback for iterating the triple points in order
+     */
+    @FunctionalInterface
+    public interface TriplePointConsumer {
+        void accept(int graph, int vertex, int x, int y, int z, double theta0, double theta1, double theta2);
+    }
+
+    public int getGraphCount() {
+        return graphOffsets.length - 1;
+    }
+
+    public int getTriplePointCount() {
+        return graphOffsets[graphOffsets.length - 1];
+    }
+
+    public int getTriplePointCount(final int graph) {
+        return graphOffsets[graph + 1] - graphOffsets[graph];
+    }
+
+    /**
+     * Returns the n-th angle of the given triple point
+     *
+     * @param graph     Index of the graph
+     * @param vertex    Index of the triple point in the graph
+     * @param n         Index of the angle (0 - 2)
+     */
+    public double getAngle(final int graph, final int vertex, final int n) {
+        return angles[(graphOffsets[graph] + vertex) * 3 + n];
+    }
+
+    /**
+     * Returns the coordinates of the given triple point
+     *
+     * @return A new array {x, y, z}
+     */
+    public int[] getCoordinates(final int graph, final int vertex) {
+        final int start = (graphOffsets[graph] + vertex) * 3;
+        return new int[]{coordinates[start], coordinates[start + 1], coordinates[start + 2]};
+    }
+
+    /**
+     * Passes each triple point to the consumer in order of graph and vertex
+     */
+    public void forEach(final TriplePointConsumer consumer) throws NullPointerException {
+        checkNotNull(consumer, "Consumer cannot be null");
+
+        for (int g = 0; g < getGraphCount(); g++) {
+            for (int i = graphOffsets[g]; i < graphOffsets[g + 1]; i++) {
+                final int j = i * 3;
+                consumer.accept(g, i - graphOffsets[g], coordinates[j], coordinates[j + 1], coordinates[j + 2],
+                        angles[j], angles[j + 1], angles[j + 2]);
+            }
+        }
+    }
+
+    /**
+     * Writes the triple points as comma separated values, one row per triple point
+     *
+     * @param writer        Destination of the values
+     * @param writeHeader   If true, CSV_HEADER is written first
+     * @throws NullPointerException if writer == null
+     * @throws IOException if writing fails
+     */
+    public void writeCsv(final Writer writer, final boolean writeHeader) throws NullPointerException, IOException {
+        checkNotNull(writer, "Writer cannot be null");
+
+        if (writeHeader) {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+        }
+
+        final StringBuilder row = new StringBuilder();
+        for (int g = 0; g < getGraphCount(); g++) {
+            for (int i = graphOffsets[g]; i < graphOffsets[g + 1]; i++) {
+                final int j = i * 3;
+                row.setLength(0);
+                row.append(g).append(',').append(i - graphOffsets[g]).append(',').append(coordinates[j]).append(',')
+                        .append(coordinates[j + 1]).append(',').append(coordinates[j + 2]).append(',')
+                        .append(angles[j]).append(',').append(angles[j + 1]).append(',').append(angles[j + 2])
+                        .append('\n');
+                writer.append(row);
+            }
+        }
+    }
+
+    /**
+     * Returns the angles as a jagged array [graph][triple point][angle]
+     *
+     * @implNote Creates a new array every time it's called
+     */
+    public double[][][] toArray() {
+        final double[][][] array = new double[getGraphCount()][][];
+        for (int g = 0; g < array.length; g++) {
+            array[g] = new double[getTriplePointCount(g)][];
+            for (int v = 0; v < array[g].length; v++) {
+                final int j = (graphOffsets[g] + v) * 3;
+                array[g][v] = new double[]{angles[j], angles[j + 1], angles[j + 2]};
+            }
+        }
+
+        return array;
+    }
+
+    //region -- Helper methods --
+    /**
+     * Returns a sink which stores the results calculated by JunctionAngleCalculator
+     *
+     * @implNote Each index is written once, so triple points can be set from multiple threads
+     */
+    JunctionAngleCalculator.JunctionSink sink() {
+        return new JunctionAngleCalculator.JunctionSink() {
+            @Override
+            public void setJunction(final int junction, final int firstAngle, final int x, final int y, final int z,
+                                    final int degree) {
+                final int j = junction * 3;
+                coordinates[j] = x;
+                coordinates[j + 1] = y;
+                coordinates[j + 2] = z;
+            }
+
+            @Override
+            public void setAngle(final int graph, final int angle, final double value) {
+                angles[angle] = value;
+            }
+        };
+    }
+    //endregion
+}
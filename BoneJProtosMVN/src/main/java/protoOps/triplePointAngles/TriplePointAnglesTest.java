@@ -2,15 +2,22 @@ package protoOps.triplePointAngles;
 
 import static org.junit.Assert.*;
 
+import org.bonej.common.StreamingStatistics;
+import org.bonej.skeleton.ParallelThinning;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
 import protoOps.testImageCreators.StaticTestImageHelper;
+import sc.fiji.analyzeSkeleton.AnalyzeSkeleton_;
+import sc.fiji.analyzeSkeleton.Graph;
+import sc.fiji.skeletonize3D.Skeletonize3D_;
 import ij.IJ;
 import ij.ImagePlus;
 
+import java.io.StringWriter;
+import java.util.Arrays;
 import java.util.Optional;
 
 /**
@@ -183,4 +190,108 @@ public class TriplePointAnglesTest {
 		assertNull("Results must be null after calculateTriplePointAngles() has terminated unsuccessfully",
 				triplePointAngles.getResults());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testAngleResultsMatchArrayResults() throws Exception {
+		ImagePlus testImage = StaticTestImageHelper.createWireFrameCuboid(128, 128, 128, 32);
+		triplePointAngles.setInputImage(testImage);
+		triplePointAngles.setNthPoint(TriplePointAngles.VERTEX_TO_VERTEX);
+		triplePointAngles.calculateTriplePointAngles();
+
+		final TriplePointAngleResults angleResults = triplePointAngles.getAngleResults().get();
+		final double[][][] result = triplePointAngles.getResults().get();
+		assertEquals("Wrong number of skeletons", result.length, angleResults.getGraphCount());
+		for (int g = 0; g < result.length; g++) {
+			assertEquals("Wrong number of triple points", result[g].length, angleResults.getTriplePointCount(g));
+			for (int v = 0; v < result[g].length; v++) {
+				for (int n = 0; n < 3; n++) {
+					assertEquals(result[g][v][n], angleResults.getAngle(g, v, n), 0.0);
+				}
+			}
+		}
+
+		final StringWriter writer = new StringWriter();
+		angleResults.writeCsv(writer, true);
+		final String[] lines = writer.toString().split("\n");
+		assertEquals("Wrong number of CSV rows", angleResults.getTriplePointCount() + 1, lines.length);
+		assertEquals(TriplePointAngleResults.CSV_HEADER, lines[0]);
+	}
+
+	@Test
+	public void testStatisticsWithoutStoringAngles() throws Exception {
+		ImagePlus testImage = StaticTestImageHelper.createWireFrameCuboid(128, 128, 128, 32);
+		triplePointAngles.setInputImage(testImage);
+		triplePointAngles.setNthPoint(TriplePointAngles.VERTEX_TO_VERTEX);
+		triplePointAngles.setStoreAngles(false);
+
+		triplePointAngles.calculateTriplePointAngles();
+
+		assertFalse("Angles should not be stored", triplePointAngles.getResults().isPresent());
+		final JunctionAngleStatistics angleStatistics = triplePointAngles.getStatistics().get();
+		assertEquals("Wrong number of triple points", 8, angleStatistics.getJunctionCount());
+		final StreamingStatistics statistics = angleStatistics.getTotalStatistics();
+		assertEquals("Wrong number of angles", 8 * 3, statistics.getCount());
+		assertEquals(HALF_PI, statistics.getMean(), 1e-12);
+		assertEquals(HALF_PI, statistics.getPercentile(50.0), 1e-12);
+	}
+
+	@Test
+	public void testStatisticsCountTriplePointsWithNaNAngles() throws Exception {
+		final JunctionAngleStatistics angleStatistics = new JunctionAngleStatistics(new int[]{0, 2});
+		final JunctionAngleCalculator.JunctionSink sink = angleStatistics.sink();
+		sink.setAngle(0, 0, HALF_PI);
+		sink.setAngle(0, 1, HALF_PI);
+		sink.setAngle(0, 2, HALF_PI);
+		for (int angle = 3; angle < 6; angle++) {
+			sink.setAngle(0, angle, Double.NaN);
+		}
+
+		assertEquals("Wrong number of angles", 3, angleStatistics.getGraphStatistics(0).getCount());
+		assertEquals("Triple points with NaN angles should be counted", 2, angleStatistics.getJunctionCount(0));
+		assertEquals(2, angleStatistics.getJunctionCount());
+	}
+
+	/**
+	 * Checks that the skeletons of ParallelThinning are topologically equivalent to those of Skeletonize3D_, i.e.
+	 * that they have the same triple points and junctions
+	 */
+	@Test
+	public void testParallelThinningFindsSameTriplePointsAsSkeletonize3D() throws Exception {
+		final ImagePlus[] testImages = {StaticTestImageHelper.createWireFrameCuboid(128, 128, 128, 32),
+				StaticTestImageHelper.createCrossedCircle(256)};
+
+		for (ImagePlus testImage : testImages) {
+			final ImagePlus reference = testImage.duplicate();
+			final Skeletonize3D_ skeletonizer = new Skeletonize3D_();
+			skeletonizer.setup("", reference);
+			skeletonizer.run(null);
+			final Graph[] referenceGraphs = analyze(reference);
+
+			final ImagePlus thinned = new ImagePlus("Thinned", ParallelThinning.thin(testImage.getStack()));
+			final Graph[] graphs = analyze(thinned);
+
+			assertEquals("Wrong number of skeletons", referenceGraphs.length, graphs.length);
+			assertEquals("Wrong number of triple points", countVertices(referenceGraphs, 3), countVertices(graphs, 3));
+			assertEquals("Wrong number of junctions", countJunctions(referenceGraphs), countJunctions(graphs));
+		}
+	}
+
+	// region -- Helper methods --
+	private static Graph[] analyze(final ImagePlus skeleton) {
+		final AnalyzeSkeleton_ skeletonAnalyzer = new AnalyzeSkeleton_();
+		skeletonAnalyzer.setup("", skeleton);
+		skeletonAnalyzer.run();
+		return skeletonAnalyzer.getGraphs();
+	}
+
+	private static long countVertices(final Graph[] graphs, final int branches) {
+		return Arrays.stream(graphs).flatMap(g -> g.getVertices().stream())
+				.filter(v -> v.getBranches().size() == branches).count();
+	}
+
+	private static long countJunctions(final Graph[] graphs) {
+		return Arrays.stream(graphs).flatMap(g -> g.getVertices().stream()).filter(v -> v.getBranches().size() > 2)
+				.count();
+	}
+	// endregion
+}
@@ -0,0 +1,90 @@
+package protoOps.triplePointAngles;
+
+import java.util.Arrays;
+import java.util.List;
+
+import sc.fiji.analyzeSkeleton.Point;
+
+/**
+ * A set of voxel coordinates backed by an open addressing hash table of primitive longs.
+ *
+ * Used to check in constant time if a voxel is 26-connected to any voxel of a skeleton vertex, without boxing or
+ * rescanning the point list of the vertex.
+ *
+ * @author Richard Domander
+ */
+final class VoxelSet {
+    private static final long EMPTY = -1L;
+    private static final int COORDINATE_BITS = 21;
+    private static final long COORDINATE_MASK = (1L << COORDINATE_BITS) - 1;
+
+    private final long[] table;
+    private final int mask;
+
+    /**
+     * Creates a set of the given points
+     */
+    VoxelSet(final List<Point> points) {
+        // Keep the table at most half full
+        final int capacity = Integer.highestOneBit(Math.max(points.size(), 1) * 4 - 1);
+        table = new long[capacity];
+        mask = capacity - 1;
+        Arrays.fill(table, EMPTY);
+        for (Point point : points) {
+            add(encode(point.x, point.y, point.z));
+        }
+    }
+
+    boolean contains(final int x, final int y, final int z) {
+        final long key = encode(x, y, z);
+        for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+            final long value = table[slot];
+            if (value == key) {
+                return true;
+            }
+            if (value == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Checks if the given voxel is 26-connected to (or part of) any of the voxels in the set
+     */
+    boolean isNeighbour(final Point point) {
+        for (int z = point.z - 1; z <= point.z + 1; z++) {
+            for (int y = point.y - 1; y <= point.y + 1; y++) {
+                for (int x = point.x - 1; x <= point.x + 1; x++) {
+                    if (contains(x, y, z)) {
+                        return true;
+                    }
+                }
+            }
+        }
+
+        return false;
+    }
+
+    //region -- Helper methods --
+    private void add(final long key) {
+        int slot = slot(key);
+        while (table[slot] != EMPTY) {
+            if (table[slot] == key) {
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = key;
+    }
+
+    private int slot(final long key) {
+        final long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash >>> 32) & mask;
+    }
+
+    private static long encode(final int x, final int y, final int z) {
+        return (x & COORDINATE_MASK) << (2 * COORDINATE_BITS) | (y & COORDINATE_MASK) << COORDINATE_BITS |
+                (z & COORDINATE_MASK);
+    }
+    //endregion
+}
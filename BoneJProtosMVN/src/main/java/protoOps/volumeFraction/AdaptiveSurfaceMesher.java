@@ -0,0 +1,709 @@
+package protoOps.volumeFraction;
+
+import static java.util.stream.Collectors.toList;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.vecmath.Point3f;
+
+import marchingcubes.MCTriangulator;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.measure.Calibration;
+
+/**
+ * Creates the surface mesh of a binary mask with a resolution that adapts to the structures in the mask.
+ *
+ * The mask is divided into an octree of blocks. Each top level block is meshed once at full resolution with a margin
+ * of one voxel, and the triangles of the marching cubes whose lowest corner is in the block are kept. A cube depends
+ * only on its eight voxels, so these triangles are exactly the triangles of the full resolution mesh of the whole
+ * mask. Their signed volumes sum up to the volume of the mask, i.e. the volume is the same as without adaptive
+ * resampling, but the full resolution mesh is never in memory as a whole.
+ *
+ * The triangles of a top level block are sorted into cells of the smallest block size. The volume of the full
+ * resolution solid within any block of the octree is then calculated from the triangles of its cells, and the cross
+ * section of the solid on one of its faces. A block is resampled with the coarsest factor for which the volume of the
+ * resampled solid within the block is within the tolerance of the full resolution volume. If no factor is good
+ * enough, e.g. because the block contains thin structures which would vanish when resampled, then the block is split
+ * into eight octants, which are processed in the same way. Blocks of the smallest size use their full resolution
+ * triangles. Large smooth surfaces thus get far fewer triangles.
+ *
+ * The resampled blocks are meshed with a margin too, and keep only the triangles of their own cubes. Thus the mesh
+ * has no walls between the blocks, and the surfaces of neighbouring blocks with the same resampling fit together.
+ *
+ * @implNote    The full resolution is meshed only once. Trying a resampling factor f costs about 1 / f^3 of meshing
+ *              the block at full resolution
+ * @implNote    Resampling factors are powers of two no greater than the maximum resampling. The resampled grid
+ *              points are on voxel centres, f voxels apart. Each point is the mean of the (f + 1)^3 voxels around it,
+ *              the outermost weighted by half, so that the cubes of the resampled grid tile the blocks exactly
+ * @author Michael Doube
+ * @author Richard Domander
+ */
+final class AdaptiveSurfaceMesher {
+    private static final int MAX_BLOCK_SIZE = 128;
+    private static final int MIN_BLOCK_SIZE = 16;
+    private static final int CELLS = MAX_BLOCK_SIZE / MIN_BLOCK_SIZE;
+    private static final int THRESHOLD = 128;
+    private static final boolean[] CHANNELS = {true, false, false};
+    /** Maximum distance of a vertex from a plane in voxels, for it to be considered to lie on the plane */
+    private static final double PLANE_TOLERANCE = 1e-3;
+
+    private final byte[][] planes;
+    private final int width;
+    private final int height;
+    private final int depth;
+    private final Calibration calibration;
+    private final int maxResampling;
+    private final double volumeTolerance;
+
+    /**
+     * @param planes            Pixels of the slices of the mask, foreground 0xFF
+     * @param width             Width of the mask
+     * @param height            Height of the mask
+     * @param calibration       Spatial calibration of the mask
+     * @param maxResampling     The coarsest allowed resampling factor
+     * @param volumeTolerance   Maximum relative error of the volume of a block compared to the full resolution
+     */
+    AdaptiveSurfaceMesher(final byte[][] planes, final int width, final int height, final Calibration calibration,
+                          final int maxResampling, final double volumeTolerance) {
+        this.planes = planes;
+        this.width = width;
+        this.height = height;
+        this.depth = planes.length;
+        this.calibration = calibration;
+        this.maxResampling = maxResampling;
+        this.volumeTolerance = volumeTolerance;
+    }
+
+    /**
+     * Creates the surface mesh of the mask
+     *
+     * @implNote The top level blocks of the octree are processed in parallel
+     */
+    Mesh createMesh() {
+        final List<int[]> roots = new ArrayList<>();
+        for (int z = 0; z < depth; z += MAX_BLOCK_SIZE) {
+            for (int y = 0; y < height; y += MAX_BLOCK_SIZE) {
+                for (int x = 0; x < width; x += MAX_BLOCK_SIZE) {
+                    roots.add(new int[]{x, y, z});
+                }
+            }
+        }
+
+        final List<Mesh> meshes = roots.parallelStream().map(r -> meshRoot(r[0], r[1], r[2])).collect(toList());
+
+        final List<Point3f> points = new ArrayList<>();
+        double signedVolume = 0.0;
+        for (Mesh mesh : meshes) {
+            points.addAll(mesh.getPoints());
+            signedVolume += mesh.getVolume();
+        }
+        return new Mesh(points, Math.abs(signedVolume));
+    }
+
+    //region -- Helper methods --
+    /**
+     * Meshes a top level block of the octree
+     *
+     * @return The mesh of the block, and its share of the signed volume of the full resolution mesh
+     */
+    private Mesh meshRoot(final int x0, final int y0, final int z0) {
+        final FullResolutionBlock block = meshFullResolution(x0, y0, z0);
+        return new Mesh(meshOctant(block, x0, y0, z0, MAX_BLOCK_SIZE), block.signedVolume);
+    }
+
+    /**
+     * Meshes a block of the octree, or its octants
+     *
+     * @param block The full resolution mesh of the top level block which contains the block
+     * @return The vertices of the mesh, three per triangle
+     */
+    private List<Point3f> meshOctant(final FullResolutionBlock block, final int x0, final int y0, final int z0,
+                                     final int size) {
+        if (x0 >= width || y0 >= height || z0 >= depth) {
+            return Collections.emptyList();
+        }
+
+        if (!block.hasPoints(x0, y0, z0, size)) {
+            // The block is empty or full
+            return Collections.emptyList();
+        }
+
+        final double fullResolutionVolume = blockVolume(block.getSums(x0, y0, z0, size), block.orientation, x0, y0,
+                size, edgeInside(x0, y0, z0, size));
+        for (int factor = largestFactor(size); factor > 1; factor /= 2) {
+            final Piece resampled = meshResampled(x0, y0, z0, size, factor);
+            final double error = Math.abs(resampled.volume - fullResolutionVolume);
+            if (error <= volumeTolerance * fullResolutionVolume) {
+                return resampled.points;
+            }
+        }
+
+        if (size <= MIN_BLOCK_SIZE || largestFactor(size) == 1) {
+            return block.getPoints(x0, y0, z0, size);
+        }
+
+        final int half = size / 2;
+        final List<Point3f> octants = new ArrayList<>();
+        for (int z = z0; z < z0 + size; z += half) {
+            for (int y = y0; y < y0 + size; y += half) {
+                for (int x = x0; x < x0 + size; x += half) {
+                    octants.addAll(meshOctant(block, x, y, z, half));
+                }
+            }
+        }
+
+        return octants;
+    }
+
+    /**
+     * Meshes a top level block at full resolution, and sorts the triangles of the marching cubes whose lowest corner
+     * is in the block into its cells
+     *
+     * @implNote The cubes between the padding and the first voxels of the mask belong to the first blocks
+     */
+    @SuppressWarnings("unchecked")
+    private FullResolutionBlock meshFullResolution(final int x0, final int y0, final int z0) {
+        final int size = MAX_BLOCK_SIZE;
+        final FullResolutionBlock block = new FullResolutionBlock(x0, y0, z0);
+        final int[] origin = {x0, y0, z0};
+        final int[] dimensions = {width, height, depth};
+        final int[] firstCube = new int[3];
+        final int[] lastCube = new int[3];
+        for (int a = 0; a < 3; a++) {
+            firstCube[a] = origin[a] == 0 ? -1 : origin[a];
+            lastCube[a] = Math.min(origin[a] + size, dimensions[a]) - 1;
+        }
+
+        if (!hasSurface(firstCube, lastCube)) {
+            return block;
+        }
+
+        // The cubes need the voxels from the first to one past the last cube, mesh them with a margin of one voxel
+        final int[] marginSize = gridSize(x0, y0, z0, size, 1);
+        final ImageStack marginStack = new ImageStack(marginSize[0], marginSize[1]);
+        for (int z = z0 - 1; z < z0 - 1 + marginSize[2]; z++) {
+            final byte[] plane = new byte[marginSize[0] * marginSize[1]];
+            if (z >= 0 && z < depth) {
+                final int xStart = Math.max(x0 - 1, 0);
+                final int xEnd = Math.min(x0 - 1 + marginSize[0], width);
+                for (int y = Math.max(y0 - 1, 0); y < Math.min(y0 - 1 + marginSize[1], height); y++) {
+                    System.arraycopy(planes[z], y * width + xStart, plane,
+                            (y - y0 + 1) * marginSize[0] + xStart - x0 + 1, xEnd - xStart);
+                }
+            }
+            marginStack.addSlice("", plane);
+        }
+
+        final ImagePlus marginBlock = new ImagePlus("", marginStack);
+        marginBlock.setCalibration(calibration);
+        final List<Point3f> points = new MCTriangulator().getTriangles(marginBlock, THRESHOLD, CHANNELS, 1);
+
+        final double[] scales = {calibration.pixelWidth, calibration.pixelHeight, calibration.pixelDepth};
+        double meshVolume = 0.0;
+        for (int i = 0; i + 2 < points.size(); i += 3) {
+            final double[][] voxels = new double[3][3];
+            final int[] cell = new int[3];
+            boolean inBlock = true;
+            for (int a = 0; a < 3; a++) {
+                for (int j = 0; j < 3; j++) {
+                    // Move the vertices from the margin block to the mask
+                    voxels[j][a] = coordinate(points.get(i + j), a) / scales[a] + origin[a] - 1;
+                }
+                final int cube = (int) Math.floor((voxels[0][a] + voxels[1][a] + voxels[2][a]) / 3.0);
+                inBlock &= cube >= firstCube[a] && cube <= lastCube[a];
+                cell[a] = Math.max(cube - origin[a], 0) / MIN_BLOCK_SIZE;
+            }
+
+            final double volume = tetrahedronVolume(voxels[0], voxels[1], voxels[2]);
+            meshVolume += volume;
+            if (inBlock) {
+                block.add(cell, toPoints(voxels, scales), voxels, volume * scales[0] * scales[1] * scales[2]);
+            }
+        }
+
+        // The mesh of the margin block is closed, so the sign of its volume tells the orientation of the triangles
+        block.orientation = Math.signum(meshVolume);
+        return block;
+    }
+
+    /**
+     * Meshes the given block of the mask resampled
+     *
+     * @return The triangles of the marching cubes whose lowest corner is in the block, and the volume of the
+     *         resampled solid within the block in voxels
+     */
+    @SuppressWarnings("unchecked")
+    private Piece meshResampled(final int x0, final int y0, final int z0, final int size, final int factor) {
+        final int[] points = gridSize(x0, y0, z0, size, factor);
+        final byte[][] grid = resample(x0, y0, z0, points, factor);
+        final ImageStack gridStack = new ImageStack(points[0], points[1]);
+        for (byte[] plane : grid) {
+            gridStack.addSlice("", plane);
+        }
+
+        final ImagePlus gridImage = new ImagePlus("", gridStack);
+        final Calibration gridCalibration = new Calibration();
+        gridCalibration.pixelWidth = calibration.pixelWidth * factor;
+        gridCalibration.pixelHeight = calibration.pixelHeight * factor;
+        gridCalibration.pixelDepth = calibration.pixelDepth * factor;
+        gridImage.setCalibration(gridCalibration);
+        final List<Point3f> gridPoints = new MCTriangulator().getTriangles(gridImage, THRESHOLD, CHANNELS, 1);
+
+        final int[] origin = {x0, y0, z0};
+        final double[] scales = {calibration.pixelWidth, calibration.pixelHeight, calibration.pixelDepth};
+        final int lastCube = size / factor - 1;
+        final List<Point3f> blockPoints = new ArrayList<>();
+        final VolumeSums sums = new VolumeSums();
+        double meshVolume = 0.0;
+        for (int i = 0; i + 2 < gridPoints.size(); i += 3) {
+            final double[][] voxels = new double[3][3];
+            boolean inBlock = true;
+            for (int a = 0; a < 3; a++) {
+                double centroid = 0.0;
+                for (int j = 0; j < 3; j++) {
+                    final double gridCoordinate = coordinate(gridPoints.get(i + j), a) / (scales[a] * factor);
+                    centroid += gridCoordinate;
+                    // The first grid point is the margin before the origin of the block
+                    voxels[j][a] = origin[a] + (gridCoordinate - 1.0) * factor;
+                }
+                final int cube = (int) Math.floor(centroid / 3.0) - 1;
+                inBlock &= cube >= (origin[a] == 0 ? -1 : 0) && cube <= lastCube;
+            }
+
+            meshVolume += tetrahedronVolume(voxels[0], voxels[1], voxels[2]);
+            if (inBlock) {
+                blockPoints.addAll(toPoints(voxels, scales));
+                sums.addTriangle(voxels, x0 + size);
+            }
+        }
+
+        // Inside length of the edge of the block along the z-axis at the end of the x- and y-axes
+        double edgeInside = 0.0;
+        final int end = lastCube + 2;
+        if (end < points[0] && end < points[1]) {
+            final int edge = end * points[0] + end;
+            for (int z = z0 == 0 ? 0 : 1; z < Math.min(end, points[2] - 1); z++) {
+                edgeInside += insideFraction(grid[z][edge] & 0xFF, grid[z + 1][edge] & 0xFF) * factor;
+            }
+        }
+
+        final double volume = blockVolume(sums, Math.signum(meshVolume), x0, y0, size, edgeInside);
+        return new Piece(blockPoints, volume);
+    }
+
+    /**
+     * Returns the number of grid points needed to mesh the given block on each axis, including a margin of one point
+     * on each side
+     *
+     * @implNote The points past the end of the mask, which have only background around them, are left out
+     */
+    private int[] gridSize(final int x0, final int y0, final int z0, final int size, final int factor) {
+        final int[] origin = {x0, y0, z0};
+        final int[] dimensions = {width, height, depth};
+        final int[] points = new int[3];
+        for (int a = 0; a < 3; a++) {
+            final int lastWithVoxels = (dimensions[a] - 1 + factor / 2 - origin[a]) / factor;
+            points[a] = Math.min(size / factor, lastWithVoxels + 1) + 2;
+        }
+        return points;
+    }
+
+    /**
+     * Resamples the given block of the mask with a margin of one grid point on each side
+     *
+     * @param points    Number of grid points on each axis
+     * @implNote The values equal to the threshold are nudged up so that no vertex of the mesh is on a grid point
+     * @return The planes of the grid. The first point is factor voxels before the origin of the block
+     */
+    private byte[][] resample(final int x0, final int y0, final int z0, final int[] points, final int factor) {
+        final int xPoints = points[0];
+        final int yPoints = points[1];
+        final int zPoints = points[2];
+        final int ySpan = yPoints * factor + 1;
+        final int zSpan = zPoints * factor + 1;
+        final int half = factor / 2;
+        final int xStart = x0 - factor - half;
+        final int yStart = y0 - factor - half;
+        final int zStart = z0 - factor - half;
+
+        // The weighted sums along each axis in turn
+        final int[][] xSums = new int[zSpan][ySpan * xPoints];
+        for (int z = 0; z < zSpan; z++) {
+            final int voxelZ = zStart + z;
+            if (voxelZ < 0 || voxelZ >= depth) {
+                continue;
+            }
+            for (int y = 0; y < ySpan; y++) {
+                final int voxelY = yStart + y;
+                if (voxelY < 0 || voxelY >= height) {
+                    continue;
+                }
+                final int row = voxelY * width;
+                for (int i = 0; i < xPoints; i++) {
+                    int sum = 0;
+                    for (int k = 0; k <= factor; k++) {
+                        final int voxelX = xStart + i * factor + k;
+                        if (voxelX >= 0 && voxelX < width) {
+                            sum += weight(k, factor) * (planes[voxelZ][row + voxelX] & 0xFF);
+                        }
+                    }
+                    xSums[z][y * xPoints + i] = sum;
+                }
+            }
+        }
+
+        final int[][] xySums = new int[zSpan][yPoints * xPoints];
+        for (int z = 0; z < zSpan; z++) {
+            for (int j = 0; j < yPoints; j++) {
+                for (int i = 0; i < xPoints; i++) {
+                    int sum = 0;
+                    for (int k = 0; k <= factor; k++) {
+                        sum += weight(k, factor) * xSums[z][(j * factor + k) * xPoints + i];
+                    }
+                    xySums[z][j * xPoints + i] = sum;
+                }
+            }
+        }
+
+        final double divisor = 8.0 * factor * factor * factor;
+        final byte[][] grid = new byte[zPoints][yPoints * xPoints];
+        for (int l = 0; l < zPoints; l++) {
+            for (int n = 0; n < yPoints * xPoints; n++) {
+                int sum = 0;
+                for (int k = 0; k <= factor; k++) {
+                    sum += weight(k, factor) * xySums[l * factor + k][n];
+                }
+                final int value = (int) Math.round(sum / divisor);
+                grid[l][n] = (byte) (value == THRESHOLD ? THRESHOLD + 1 : value);
+            }
+        }
+
+        return grid;
+    }
+
+    /**
+     * The doubled weight of the kth of the factor + 1 voxels around a grid point
+     */
+    private static int weight(final int k, final int factor) {
+        return k == 0 || k == factor ? 1 : 2;
+    }
+
+    /**
+     * Calculates the volume of the solid bounded by a piece of a closed surface within a block
+     *
+     * The volume follows from the divergence theorem with the field (x - x0, 0, 0). Its flux through the piece is
+     * calculated from the triangles, and the flux through the faces of the block only depends on the area of the
+     * cross section of the solid on the face at the end of the x-axis. The area in turn follows from the theorem in
+     * two dimensions: the edges of the triangles on the face, and the length of the edge of the block inside the
+     * solid.
+     *
+     * @param sums          Sums of the triangles of the cubes in the block
+     * @param orientation   1.0 if the normals of the triangles point outwards, -1.0 if inwards
+     * @param edgeInside    Length of the edge of the block along the z-axis at the ends of the x- and y-axes, which
+     *                      is inside the solid
+     * @return Volume in voxels
+     */
+    private static double blockVolume(final VolumeSums sums, final double orientation, final int x0, final int y0,
+                                      final int size, final double edgeInside) {
+        final double faceArea = orientation * (sums.faceMomentY - y0 * sums.faceNormalY) + size * edgeInside;
+        return orientation * (sums.momentX - x0 * sums.normalX) + size * faceArea;
+    }
+
+    /**
+     * Returns the length of the edge of the block along the z-axis at the ends of the x- and y-axes, which is inside
+     * the full resolution solid
+     */
+    private double edgeInside(final int x0, final int y0, final int z0, final int size) {
+        final int x = x0 + size;
+        final int y = y0 + size;
+        if (x >= width || y >= height) {
+            return 0.0;
+        }
+
+        double length = 0.0;
+        for (int z = z0 == 0 ? -1 : z0; z < z0 + size; z++) {
+            length += insideFraction(value(x, y, z), value(x, y, z + 1));
+        }
+        return length;
+    }
+
+    private int value(final int x, final int y, final int z) {
+        return z < 0 || z >= depth ? 0 : planes[z][y * width + x] & 0xFF;
+    }
+
+    /**
+     * Returns the part of the line between two neighbouring grid points, which is inside the surface
+     *
+     * @implNote The vertex between the points is interpolated linearly like in the marching cubes
+     */
+    private static double insideFraction(final int a, final int b) {
+        final boolean aInside = a >= THRESHOLD;
+        final boolean bInside = b >= THRESHOLD;
+        if (aInside == bInside) {
+            return aInside ? 1.0 : 0.0;
+        }
+
+        final int inside = aInside ? a : b;
+        final int outside = aInside ? b : a;
+        return (inside - THRESHOLD) / (double) (inside - outside);
+    }
+
+    /**
+     * Checks if the voxels of the given marching cubes aren't all foreground or all background
+     *
+     * @param firstCube Lowest corner of the first cube on each axis
+     * @param lastCube  Lowest corner of the last cube on each axis
+     */
+    private boolean hasSurface(final int[] firstCube, final int[] lastCube) {
+        final int x0 = firstCube[0];
+        final int y0 = firstCube[1];
+        final int z0 = firstCube[2];
+        final int xSize = lastCube[0] - x0 + 2;
+        final int ySize = lastCube[1] - y0 + 2;
+        final int zSize = lastCube[2] - z0 + 2;
+        if (x0 < 0 || y0 < 0 || z0 < 0 || x0 + xSize > width || y0 + ySize > height || z0 + zSize > depth) {
+            // The voxels include the padding, which is background
+            return countForeground(Math.max(x0, 0), Math.max(y0, 0), Math.max(z0, 0), xSize, ySize, zSize) > 0;
+        }
+
+        final long count = countForeground(x0, y0, z0, xSize, ySize, zSize);
+        return count > 0 && count < (long) xSize * ySize * zSize;
+    }
+
+    private int largestFactor(final int size) {
+        int factor = 1;
+        while (factor * 2 <= maxResampling && factor * 2 <= size / 2) {
+            factor *= 2;
+        }
+        return factor;
+    }
+
+    private boolean isForeground(final int x, final int y, final int z) {
+        return planes[z][y * width + x] != 0;
+    }
+
+    /**
+     * Counts the foreground voxels in the given box, the part of the box outside the mask is ignored
+     */
+    private long countForeground(final int x0, final int y0, final int z0, final int xSize, final int ySize,
+                                 final int zSize) {
+        final int x1 = Math.min(x0 + xSize, width);
+        final int y1 = Math.min(y0 + ySize, height);
+        final int z1 = Math.min(z0 + zSize, depth);
+
+        long count = 0;
+        for (int z = z0; z < z1; z++) {
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    if (isForeground(x, y, z)) {
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Converts the vertices of a triangle from voxel coordinates to the calibrated coordinates of the mask
+     */
+    private static List<Point3f> toPoints(final double[][] voxels, final double[] scales) {
+        final List<Point3f> points = new ArrayList<>(3);
+        for (double[] voxel : voxels) {
+            points.add(new Point3f((float) (voxel[0] * scales[0]), (float) (voxel[1] * scales[1]),
+                    (float) (voxel[2] * scales[2])));
+        }
+        return points;
+    }
+
+    /**
+     * Calculates the signed volume of the tetrahedron between the origin and the triangle abc
+     */
+    private static double tetrahedronVolume(final double[] a, final double[] b, final double[] c) {
+        return (a[0] * (b[1] * c[2] - b[2] * c[1]) + a[1] * (b[2] * c[0] - b[0] * c[2]) +
+                a[2] * (b[0] * c[1] - b[1] * c[0])) / 6.0;
+    }
+
+    private static float coordinate(final Point3f point, final int axis) {
+        return axis == 0 ? point.x : axis == 1 ? point.y : point.z;
+    }
+    //endregion
+
+    //region -- Helper classes --
+    /**
+     * The triangles of a surface, and the volume it encloses
+     */
+    static final class Mesh {
+        private final List<Point3f> points;
+        private final double volume;
+
+        private Mesh(final List<Point3f> points, final double volume) {
+            this.points = points;
+            this.volume = volume;
+        }
+
+        /** @return The vertices of the mesh in calibrated units, three per triangle */
+        List<Point3f> getPoints() {
+            return points;
+        }
+
+        /** @return The volume enclosed by the mesh in calibrated units */
+        double getVolume() {
+            return volume;
+        }
+    }
+
+    /**
+     * The triangles of a surface within a block, and the volume of the solid they bound within the block
+     */
+    private static final class Piece {
+        private final List<Point3f> points;
+        private final double volume;
+
+        private Piece(final List<Point3f> points, final double volume) {
+            this.points = points;
+            this.volume = volume;
+        }
+    }
+
+    /**
+     * Sums over the triangles of a piece of a surface, from which the volume of the solid within a block is calculated
+     *
+     * @see #blockVolume(VolumeSums, double, int, int, int, double)
+     */
+    private static final class VolumeSums {
+        /** Sum of the x-components of the area vectors of the triangles */
+        private double normalX;
+        /** Sum of the x-components of the area vectors multiplied by the x-coordinates of the centroids */
+        private double momentX;
+        /** Sum of the y-components of the normals of the edges on the face, multiplied by the lengths of the edges */
+        private double faceNormalY;
+        /** Sum of the above multiplied by the y-coordinates of the midpoints of the edges */
+        private double faceMomentY;
+
+        /**
+         * Adds a triangle
+         *
+         * @param voxels    The vertices of the triangle in voxel coordinates
+         * @param faceX     The x-coordinate of the face at the end of the x-axis of the block
+         */
+        private void addTriangle(final double[][] voxels, final double faceX) {
+            final double[] a = voxels[0];
+            final double[] b = voxels[1];
+            final double[] c = voxels[2];
+            final double[] u = {b[0] - a[0], b[1] - a[1], b[2] - a[2]};
+            final double[] v = {c[0] - a[0], c[1] - a[1], c[2] - a[2]};
+            final double areaX = (u[1] * v[2] - u[2] * v[1]) / 2.0;
+            final double areaY = (u[2] * v[0] - u[0] * v[2]) / 2.0;
+            final double areaZ = (u[0] * v[1] - u[1] * v[0]) / 2.0;
+
+            normalX += areaX;
+            momentX += areaX * (a[0] + b[0] + c[0]) / 3.0;
+
+            for (int i = 0; i < 3; i++) {
+                final double[] p = voxels[i];
+                final double[] q = voxels[(i + 1) % 3];
+                if (Math.abs(p[0] - faceX) > PLANE_TOLERANCE || Math.abs(q[0] - faceX) > PLANE_TOLERANCE) {
+                    continue;
+                }
+                // The normal of the edge in the face points to the same side as the normal of the triangle
+                final double dy = q[1] - p[1];
+                final double dz = q[2] - p[2];
+                final double normalY = -dz * Math.signum(-dz * areaY + dy * areaZ);
+                faceNormalY += normalY;
+                faceMomentY += normalY * (p[1] + q[1]) / 2.0;
+            }
+        }
+
+        private void add(final VolumeSums sums, final boolean withFace) {
+            normalX += sums.normalX;
+            momentX += sums.momentX;
+            if (withFace) {
+                faceNormalY += sums.faceNormalY;
+                faceMomentY += sums.faceMomentY;
+            }
+        }
+    }
+
+    /**
+     * The full resolution triangles of a top level block sorted into cells of the smallest block size
+     */
+    private static final class FullResolutionBlock {
+        private final int[] origin;
+        private final List<List<Point3f>> cellPoints = new ArrayList<>(CELLS * CELLS * CELLS);
+        private final List<VolumeSums> cellSums = new ArrayList<>(CELLS * CELLS * CELLS);
+        /** The share of the block of the signed volume of the whole mesh in calibrated units */
+        private double signedVolume = 0.0;
+        /** 1.0 if the normals of the triangles point outwards, -1.0 if inwards */
+        private double orientation = 0.0;
+
+        private FullResolutionBlock(final int x0, final int y0, final int z0) {
+            origin = new int[]{x0, y0, z0};
+            for (int i = 0; i < CELLS * CELLS * CELLS; i++) {
+                cellPoints.add(new ArrayList<>());
+                cellSums.add(new VolumeSums());
+            }
+        }
+
+        private void add(final int[] cell, final List<Point3f> points, final double[][] voxels,
+                         final double volume) {
+            final int index = (cell[2] * CELLS + cell[1]) * CELLS + cell[0];
+            cellPoints.get(index).addAll(points);
+            cellSums.get(index).addTriangle(voxels, origin[0] + (cell[0] + 1) * MIN_BLOCK_SIZE);
+            signedVolume += volume;
+        }
+
+        /**
+         * Returns the triangles of the given block, which is a block of the octree within this block
+         */
+        private List<Point3f> getPoints(final int x0, final int y0, final int z0, final int size) {
+            final List<Point3f> points = new ArrayList<>();
+            forEachCell(x0, y0, z0, size, (index, isLast) -> points.addAll(cellPoints.get(index)));
+            return points;
+        }
+
+        private boolean hasPoints(final int x0, final int y0, final int z0, final int size) {
+            final boolean[] hasPoints = {false};
+            forEachCell(x0, y0, z0, size, (index, isLast) -> hasPoints[0] |= !cellPoints.get(index).isEmpty());
+            return hasPoints[0];
+        }
+
+        /**
+         * Returns the sums of the triangles of the given block, which is a block of the octree within this block
+         */
+        private VolumeSums getSums(final int x0, final int y0, final int z0, final int size) {
+            final VolumeSums sums = new VolumeSums();
+            forEachCell(x0, y0, z0, size, (index, isLast) -> sums.add(cellSums.get(index), isLast));
+            return sums;
+        }
+
+        private void forEachCell(final int x0, final int y0, final int z0, final int size,
+                                 final CellConsumer consumer) {
+            final int cells = size / MIN_BLOCK_SIZE;
+            final int cx = (x0 - origin[0]) / MIN_BLOCK_SIZE;
+            final int cy = (y0 - origin[1]) / MIN_BLOCK_SIZE;
+            final int cz = (z0 - origin[2]) / MIN_BLOCK_SIZE;
+            for (int z = cz; z < cz + cells; z++) {
+                for (int y = cy; y < cy + cells; y++) {
+                    for (int x = cx; x < cx + cells; x++) {
+                        consumer.accept((z * CELLS + y) * CELLS + x, x == cx + cells - 1);
+                    }
+                }
+            }
+        }
+
+        @FunctionalInterface
+        private interface CellConsumer {
+            /**
+             * @param index     Index of the cell
+             * @param isLast    True if the cell is at the end of the x-axis of the block
+             */
+            void accept(int index, boolean isLast);
+        }
+    }
+    //endregion
+}
@@ -0,0 +1,256 @@
+package protoOps.volumeFraction;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+import javax.vecmath.Point3f;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.measure.Calibration;
+import ij.plugin.frame.RoiManager;
+import ij.process.FloatPolygon;
+
+import org.bonej.common.ImageFingerprint;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A bounded cache for the surface meshes created by VolumeFractionSurface.
+ *
+ * The meshes are keyed by the identity and the contents of the image, the thresholds, the ROIs and the resampling
+ * settings, i.e. everything which affects the result. Thus rerunning the Op with the same settings (e.g. just to show
+ * the 3D result) doesn't require meshing the image again.
+ *
+ * The cache is bounded by an estimate of the memory used by the mesh vertices. The values are held with soft
+ * references so that the garbage collector can reclaim them if memory runs low.
+ *
+ * @author Richard Domander
+ */
+class SurfaceMeshCache {
+    /** Rough size of a Point3f plus its reference in the vertex list (bytes) */
+    private static final int BYTES_PER_VERTEX = 32;
+    private static final long MAX_CACHE_KILOBYTES = Runtime.getRuntime().maxMemory() / 8 / 1024;
+
+    private static final Cache<Key, Meshes> cache = CacheBuilder.newBuilder().maximumWeight(MAX_CACHE_KILOBYTES)
+            .weigher((Key key, Meshes meshes) -> meshes.getKilobytes()).softValues().build();
+
+    /**
+     * Creates a key for the cache from the current settings of a VolumeFractionSurface Op
+     *
+     * @param image         The input image of the Op
+     * @param minThreshold  Minimum threshold of the foreground
+     * @param maxThreshold  Maximum threshold of the foreground
+     * @param roiManager    The ROIs used to limit the sample, or null if not used
+     * @param interpolate   True if the ROIs are interpolated between slices
+     * @param resampling    The surface resampling factor
+     * @param adaptive      True if the resampling is adaptive
+     * @param tolerance     The volume tolerance of adaptive resampling
+     */
+    static Key createKey(final ImagePlus image, final int minThreshold, final int maxThreshold,
+                         @Nullable final RoiManager roiManager, final boolean interpolate, final int resampling,
+                         final boolean adaptive, final double tolerance) {
+        final long fingerprint = ImageFingerprint.of(image.getStack());
+        final List<RoiGeometry> rois = new ArrayList<>();
+        if (roiManager != null) {
+            for (Roi roi : roiManager.getRoisAsArray()) {
+                rois.add(new RoiGeometry(roi));
+            }
+        }
+
+        // Tolerance doesn't affect the meshes unless resampling is adaptive
+        final double keyTolerance = adaptive ? tolerance : Double.NaN;
+        // Interpolation doesn't affect the meshes without ROIs
+        final boolean keyInterpolate = roiManager != null && interpolate;
+        return new Key(image.getID(), fingerprint, image.getCalibration(), minThreshold, maxThreshold, rois,
+                keyInterpolate, resampling, adaptive, keyTolerance);
+    }
+
+    static Optional<Meshes> get(final Key key) {
+        return Optional.ofNullable(cache.getIfPresent(key));
+    }
+
+    static void put(final Key key, final Meshes meshes) {
+        cache.put(key, meshes);
+    }
+
+    static void clear() {
+        cache.invalidateAll();
+    }
+
+    //region -- Helper classes --
+    /**
+     * The vertices and volumes of the foreground and total surface meshes of an image
+     */
+    static final class Meshes {
+        private final List<Point3f> foregroundPoints;
+        private final List<Point3f> totalPoints;
+        private final double foregroundVolume;
+        private final double totalVolume;
+
+        /**
+         * @implNote The vertices are copied, because Point3f is mutable, and the meshes they came from may be
+         *           transformed or edited e.g. in the 3D Viewer
+         */
+        Meshes(final List<Point3f> foregroundPoints, final double foregroundVolume,
+               final List<Point3f> totalPoints, final double totalVolume) {
+            this.foregroundPoints = copyPoints(foregroundPoints);
+            this.foregroundVolume = foregroundVolume;
+            this.totalPoints = copyPoints(totalPoints);
+            this.totalVolume = totalVolume;
+        }
+
+        /**
+         * Returns a copy of the foreground vertices.
+         *
+         * @implNote The vertices are copied so that a mesh created from them doesn't change the cached mesh
+         */
+        List<Point3f> getForegroundPoints() {
+            return copyPoints(foregroundPoints);
+        }
+
+        /**
+         * Returns a copy of the total sample vertices.
+         *
+         * @implNote The vertices are copied so that a mesh created from them doesn't change the cached mesh
+         */
+        List<Point3f> getTotalPoints() {
+            return copyPoints(totalPoints);
+        }
+
+        double getForegroundVolume() {
+            return foregroundVolume;
+        }
+
+        double getTotalVolume() {
+            return totalVolume;
+        }
+
+        private int getKilobytes() {
+            final long bytes = (long) (foregroundPoints.size() + totalPoints.size()) * BYTES_PER_VERTEX;
+            return (int) Math.min(Integer.MAX_VALUE, bytes / 1024 + 1);
+        }
+
+        /**
+         * Copies each vertex of a triangle list
+         *
+         * @implNote Copies are mapped by identity, so a vertex shared by adjacent triangles is still shared by the
+         *           copies of the triangles
+         */
+        private static List<Point3f> copyPoints(final List<Point3f> points) {
+            final Map<Point3f, Point3f> copies = new IdentityHashMap<>();
+            final List<Point3f> copy = new ArrayList<>(points.size());
+            for (Point3f point : points) {
+                copy.add(copies.computeIfAbsent(point, Point3f::new));
+            }
+            return copy;
+        }
+    }
+
+    static final class Key {
+        private final int imageId;
+        private final long fingerprint;
+        private final double pixelWidth;
+        private final double pixelHeight;
+        private final double pixelDepth;
+        private final int minThreshold;
+        private final int maxThreshold;
+        private final List<RoiGeometry> rois;
+        private final boolean interpolate;
+        private final int resampling;
+        private final boolean adaptive;
+        private final double tolerance;
+
+        private Key(final int imageId, final long fingerprint, final Calibration calibration, final int minThreshold,
+                    final int maxThreshold, final List<RoiGeometry> rois, final boolean interpolate,
+                    final int resampling, final boolean adaptive, final double tolerance) {
+            this.imageId = imageId;
+            this.fingerprint = fingerprint;
+            this.pixelWidth = calibration.pixelWidth;
+            this.pixelHeight = calibration.pixelHeight;
+            this.pixelDepth = calibration.pixelDepth;
+            this.minThreshold = minThreshold;
+            this.maxThreshold = maxThreshold;
+            this.rois = rois;
+            this.interpolate = interpolate;
+            this.resampling = resampling;
+            this.adaptive = adaptive;
+            this.tolerance = tolerance;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) o;
+            return imageId == other.imageId && fingerprint == other.fingerprint &&
+                    Double.compare(pixelWidth, other.pixelWidth) == 0 &&
+                    Double.compare(pixelHeight, other.pixelHeight) == 0 &&
+                    Double.compare(pixelDepth, other.pixelDepth) == 0 && minThreshold == other.minThreshold &&
+                    maxThreshold == other.maxThreshold && resampling == other.resampling && rois.equals(other.rois) &&
+                    interpolate == other.interpolate && adaptive == other.adaptive &&
+                    Double.compare(tolerance, other.tolerance) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(imageId, fingerprint, pixelWidth, pixelHeight, pixelDepth, minThreshold,
+                    maxThreshold, rois, interpolate, resampling, adaptive, tolerance);
+        }
+    }
+
+    /**
+     * The properties of a Roi which affect the volume fraction results
+     */
+    private static final class RoiGeometry {
+        private final String name;
+        private final int type;
+        private final Rectangle bounds;
+        private final float[] xPoints;
+        private final float[] yPoints;
+
+        private RoiGeometry(final Roi roi) {
+            name = roi.getName();
+            type = roi.getType();
+            bounds = roi.getBounds();
+            final FloatPolygon polygon = roi.getFloatPolygon();
+            xPoints = Arrays.copyOf(polygon.xpoints, polygon.npoints);
+            yPoints = Arrays.copyOf(polygon.ypoints, polygon.npoints);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof RoiGeometry)) {
+                return false;
+            }
+
+            final RoiGeometry other = (RoiGeometry) o;
+            return type == other.type && Objects.equals(name, other.name) && bounds.equals(other.bounds) &&
+                    Arrays.equals(xPoints, other.xPoints) && Arrays.equals(yPoints, other.yPoints);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(name, type, bounds, Arrays.hashCode(xPoints), Arrays.hashCode(yPoints));
+        }
+    }
+    //endregion
+}
@@ -32,6 +32,9 @@ public abstract class VolumeFractionOp implements Op {
     @Parameter(type = ItemIO.INPUT, required = false)
     private RoiManager roiManager;
 
+    @Parameter(type = ItemIO.INPUT, required = false)
+    private boolean interpolateRois = false;
+
     @Parameter(type = ItemIO.OUTPUT)
     private double foregroundVolume;
 
@@ -69,6 +72,10 @@ public abstract class VolumeFractionOp implements Op {
     public Optional<RoiManager> getRoiManager() {
         return Optional.ofNullable(roiManager);
     }
+
+    public boolean getInterpolateRois() {
+        return interpolateRois;
+    }
     //endregion
 
     //region -- Setters --
@@ -111,6 +118,15 @@ public abstract class VolumeFractionOp implements Op {
         this.roiManager = roiManager;
     }
 
+    /**
+     * Sets whether the slices between the slices with ROIs are limited by ROIs interpolated from them
+     *
+     * @see org.bonej.common.SliceMasks
+     */
+    public void setInterpolateRois(final boolean interpolate) {
+        interpolateRois = interpolate;
+    }
+
 
     /**
      * Sets the lower and upper values used for thresholding the input image
@@ -3,16 +3,21 @@ package protoOps.volumeFraction;
 import static com.google.common.base.Preconditions.checkArgument;
 
 import java.awt.*;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
 import java.util.stream.IntStream;
 
 import javax.vecmath.Color3f;
+import javax.vecmath.Point3f;
 
 import marchingcubes.MCTriangulator;
 import net.imagej.ops.Op;
 import net.imagej.ops.OpEnvironment;
 
+import org.bonej.common.RoiMaskCache;
 import org.bonej.common.RoiUtil;
+import org.bonej.common.SliceMasks;
 import org.scijava.ItemIO;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
@@ -23,7 +28,6 @@ import ij.ImagePlus;
 import ij.ImageStack;
 import ij.gui.Roi;
 import ij.measure.Calibration;
-import ij.plugin.frame.RoiManager;
 import ij.process.ImageProcessor;
 
 /**
@@ -33,16 +37,36 @@ import ij.process.ImageProcessor;
  * @todo Solve issues with Fiji 20.0.0
  * @todo check that plugin works when run trough OpService
  * @todo Fix run with RoiManager
+ * @implNote The meshes are cached, and reused if the Op is run again with the same image and settings
  * @author Michael Doube
  * @author Richard Domander
  */
 @Plugin(type = Op.class, name = "volumeFractionSurface")
 public final class VolumeFractionSurface extends VolumeFractionOp {
     public static final int DEFAULT_SURFACE_RESAMPLING = 6;
+    public static final double DEFAULT_VOLUME_TOLERANCE = 0.01;
+
+    private static final Color3f FOREGROUND_COLOR = new Color3f(1.0f, 1.0f, 0.0f);
+    private static final float FOREGROUND_TRANSPARENCY = 0.4f;
+    private static final Color3f TOTAL_COLOR = new Color3f(0.0f, 0.0f, 1.0f);
+    private static final float TOTAL_TRANSPARENCY = 0.65f;
+    private static final byte WHITE = (byte) 0xFF;
+    /** Print statistics of the surface masks if the system property "bonej.debug.volumeFraction" is true */
+    private static final boolean PRINT_MASK_STATISTICS = Boolean.getBoolean("bonej.debug.volumeFraction");
 
     @Parameter(type = ItemIO.INPUT, required = false, min = "0")
     private int surfaceResampling = DEFAULT_SURFACE_RESAMPLING;
 
+    /**
+     * If true, then surfaceResampling is the maximum resampling,
+     * and the resampling is chosen locally so that the volume stays within volumeTolerance
+     */
+    @Parameter(type = ItemIO.INPUT, required = false)
+    private boolean adaptiveResampling = false;
+
+    @Parameter(type = ItemIO.INPUT, required = false, min = "0.0", max = "1.0")
+    private double volumeTolerance = DEFAULT_VOLUME_TOLERANCE;
+
     @Parameter(type = ItemIO.OUTPUT)
     private CustomTriangleMesh foregroundSurface;
 
@@ -69,8 +93,40 @@ public final class VolumeFractionSurface extends VolumeFractionOp {
 
         surfaceResampling = resampling;
     }
+
+    /**
+     * Sets whether the surfaces are meshed with an adaptive resolution
+     *
+     * @see AdaptiveSurfaceMesher
+     */
+    public void setAdaptiveResampling(final boolean adaptive) {
+        adaptiveResampling = adaptive;
+    }
+
+    /**
+     * Sets the maximum relative error in the volume of the solid within each block of the adaptive mesh compared to
+     * the full resolution mesh
+     *
+     * @implNote The measured volumes are those of the full resolution meshes regardless of the tolerance
+     * @see AdaptiveSurfaceMesher
+     * @throws IllegalArgumentException if tolerance is not in the range [0.0, 1.0]
+     */
+    public void setVolumeTolerance(final double tolerance) throws IllegalArgumentException {
+        checkArgument(tolerance >= 0.0 && tolerance <= 1.0, "Volume tolerance must be in the range [0.0, 1.0]");
+
+        volumeTolerance = tolerance;
+    }
     // endregion
 
+    //region -- Utility methods --
+    /**
+     * Removes all the surface meshes cached from the previous runs of the Op
+     */
+    public static void clearMeshCache() {
+        SurfaceMeshCache.clear();
+    }
+    //endregion
+
 
     @Override
     public OpEnvironment ops() {
@@ -92,7 +148,31 @@ public final class VolumeFractionSurface extends VolumeFractionOp {
     // region -- Helper methods --
 
     private void volumeFractionSurface() {
-        final ImageStack stack = getImage().get().getImageStack();
+        final ImagePlus image = getImage().get();
+        final SurfaceMeshCache.Key key = SurfaceMeshCache.createKey(image, getMinThreshold(), getMaxThreshold(),
+                getRoiManager().orElse(null), getInterpolateRois(), surfaceResampling, adaptiveResampling,
+                volumeTolerance);
+
+        final Optional<SurfaceMeshCache.Meshes> cachedMeshes = SurfaceMeshCache.get(key);
+        if (cachedMeshes.isPresent()) {
+            final SurfaceMeshCache.Meshes meshes = cachedMeshes.get();
+            foregroundSurface = new CustomTriangleMesh(meshes.getForegroundPoints(), FOREGROUND_COLOR,
+                    FOREGROUND_TRANSPARENCY);
+            totalSurface = new CustomTriangleMesh(meshes.getTotalPoints(), TOTAL_COLOR, TOTAL_TRANSPARENCY);
+            setForegroundVolume(meshes.getForegroundVolume());
+            setTotalVolume(meshes.getTotalVolume());
+        } else {
+            createSurfaces(image);
+            SurfaceMeshCache.put(key, new SurfaceMeshCache.Meshes(foregroundSurface.getMesh(),
+                    getForegroundVolume(), totalSurface.getMesh(), getTotalVolume()));
+        }
+
+        setVolumeRatio();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void createSurfaces(final ImagePlus image) {
+        final ImageStack stack = image.getImageStack();
         final int xMin = 0;
         final int xMax = stack.getWidth();
         final int yMin = 0;
@@ -104,51 +184,78 @@ public final class VolumeFractionSurface extends VolumeFractionOp {
         final int height = yMax - yMin;
         final int depth = zMax - zMin + 1;
 
-        ImagePlus outImp = IJ.createImage("Out", "8black", width, height, depth);
-        ImagePlus maskImp = IJ.createImage("Mask", "8black", width, height, depth);
-
-        Calibration calibration = getImage().get().getCalibration();
-        outImp.setCalibration(calibration);
-        maskImp.setCalibration(calibration);
-
-        final ImageStack outStack = outImp.getStack();
-        final ImageStack maskStack = maskImp.getStack();
+        final byte[][] outPlanes = new byte[depth][width * height];
+        final byte[][] maskPlanes = new byte[depth][width * height];
 
         if (getRoiManager().isPresent()) {
-            drawSurfaceMasksWithRois(zMin, zMax, xMin, yMin, stack, maskStack, outStack);
+            drawSurfaceMasksWithRois(zMin, zMax, xMin, yMin, width, stack, maskPlanes, outPlanes);
         } else {
-            drawSurfaceMasksWithNoRoi(zMin, zMax, xMin, yMin, stack, maskStack, outStack);
+            drawSurfaceMasksWithNoRoi(zMin, zMax, xMin, yMin, width, stack, maskPlanes, outPlanes);
+        }
+
+        final ImagePlus outImp = createMaskImage("Out", width, height, outPlanes, image.getCalibration());
+        final ImagePlus maskImp = createMaskImage("Mask", width, height, maskPlanes, image.getCalibration());
+
+        if (PRINT_MASK_STATISTICS) {
+            analyzeMask("Foreground mask", outImp.getStack(), 1, outImp.getStackSize());
+            analyzeMask("Total sample mask", maskImp.getStack(), 1, maskImp.getStackSize());
         }
 
-        analyzeMask("Foreground mask", outStack, 1 , 1);
-        analyzeMask("Total sample mask", maskStack, 1, 1);
+        if (adaptiveResampling) {
+            meshAdaptively(outPlanes, maskPlanes, width, height, image.getCalibration());
+            return;
+        }
 
-        Color3f yellow = new Color3f(1.0f, 1.0f, 0.0f);
         boolean[] channels = { true, false, false };
         MCTriangulator mct = new MCTriangulator();
-        java.util.List points = mct.getTriangles(outImp, 128, channels, surfaceResampling);
-        foregroundSurface = new CustomTriangleMesh(points, yellow, 0.4f);
+        List<Point3f> points = mct.getTriangles(outImp, 128, channels, surfaceResampling);
+        foregroundSurface = new CustomTriangleMesh(points, FOREGROUND_COLOR, FOREGROUND_TRANSPARENCY);
         float foregroundVolume = Math.abs(foregroundSurface.getVolume());
         setForegroundVolume(foregroundVolume);
 
-        Color3f blue = new Color3f(0.0f, 0.0f, 1.0f);
         points = mct.getTriangles(maskImp, 128, channels, surfaceResampling);
-        totalSurface = new CustomTriangleMesh(points, blue, 0.65f);
+        totalSurface = new CustomTriangleMesh(points, TOTAL_COLOR, TOTAL_TRANSPARENCY);
         float totalVolume = Math.abs(totalSurface.getVolume());
         setTotalVolume(totalVolume);
+    }
 
-        setVolumeRatio();
+    private void meshAdaptively(final byte[][] outPlanes, final byte[][] maskPlanes, final int width,
+                                final int height, final Calibration calibration) {
+        final AdaptiveSurfaceMesher.Mesh foregroundMesh = new AdaptiveSurfaceMesher(outPlanes, width, height,
+                calibration, surfaceResampling, volumeTolerance).createMesh();
+        foregroundSurface = new CustomTriangleMesh(foregroundMesh.getPoints(), FOREGROUND_COLOR,
+                FOREGROUND_TRANSPARENCY);
+        setForegroundVolume(foregroundMesh.getVolume());
+
+        final AdaptiveSurfaceMesher.Mesh totalMesh = new AdaptiveSurfaceMesher(maskPlanes, width, height,
+                calibration, surfaceResampling, volumeTolerance).createMesh();
+        totalSurface = new CustomTriangleMesh(totalMesh.getPoints(), TOTAL_COLOR, TOTAL_TRANSPARENCY);
+        setTotalVolume(totalMesh.getVolume());
     }
 
     /**
-     * Code for print debugging
-     * @todo Remove when no longer necessary
+     * Wraps the given mask planes into an image for the mesher without copying them
      */
-    private void analyzeMask(final String maskName, final ImageStack maskStack, final int zMin, final int zMax) {
-        System.out.println(maskName);
+    private static ImagePlus createMaskImage(final String title, final int width, final int height,
+                                             final byte[][] planes, final Calibration calibration) {
+        final ImageStack stack = new ImageStack(width, height);
+        for (byte[] plane : planes) {
+            stack.addSlice("", plane);
+        }
+
+        final ImagePlus imagePlus = new ImagePlus(title, stack);
+        imagePlus.setCalibration(calibration);
+        return imagePlus;
+    }
 
-        int fgPixels = 0;
-        int totalPixels = 0;
+    /**
+     * Logs the number of foreground pixels in the given slices of a mask
+     *
+     * @implNote Only called if the system property "bonej.debug.volumeFraction" is true
+     */
+    private void analyzeMask(final String maskName, final ImageStack maskStack, final int zMin, final int zMax) {
+        long fgPixels = 0;
+        long totalPixels = 0;
         for (int z = zMin; z <= zMax; z++) {
             final byte[] slice = (byte[]) maskStack.getPixels(z);
             for (byte pixel : slice) {
@@ -159,117 +266,113 @@ public final class VolumeFractionSurface extends VolumeFractionOp {
             totalPixels += slice.length;
         }
 
-        System.out.println("Foreground / total pixels: " + fgPixels + "/" + totalPixels);
-        System.out.println();
+        IJ.log(maskName + ", foreground / total pixels: " + fgPixels + "/" + totalPixels);
     }
 
     private void drawSurfaceMasksWithNoRoi(final int zMin, final int zMax, final int xMin, final int yMin,
-                                           final ImageStack inputStack, final ImageStack maskStack,
-                                           final ImageStack outStack) {
+                                           final int outWidth, final ImageStack inputStack,
+                                           final byte[][] maskPlanes, final byte[][] outPlanes) {
         final Roi defaultRoi = new Roi(0, 0, inputStack.getWidth(), inputStack.getHeight());
 
         IntStream.rangeClosed(zMin, zMax).parallel().forEach( z -> {
             final ImageProcessor slice = inputStack.getProcessor(z);
-            slice.setRoi(defaultRoi);
-
-            final ImageProcessor mask = slice.getMask();
-            if (mask == null) {
-                drawSurfaceMasks(slice, maskStack, outStack, z, xMin, yMin, zMin);
-            } else {
-                drawSurfaceMasksWithProcessorMask(slice, mask, maskStack, outStack, z, xMin, yMin, zMin);
-            }
+            final int outIndex = z - zMin;
+            drawSurfaceMasks(slice, RoiMaskCache.get(defaultRoi), maskPlanes[outIndex], outPlanes[outIndex], xMin,
+                    yMin, outWidth);
         });
     }
 
     private void drawSurfaceMasksWithRois(final int zMin, final int zMax, final int xMin, final int yMin,
-                                          final ImageStack inputStack, final ImageStack maskStack,
-                                          final ImageStack outStack) {
-        final RoiManager roiManager = getRoiManager().get();
+                                          final int outWidth, final ImageStack inputStack,
+                                          final byte[][] maskPlanes, final byte[][] outPlanes) {
+        final SliceMasks sliceMasks = SliceMasks.of(getRoiManager().get(), inputStack, getInterpolateRois());
 
 		IntStream.rangeClosed(zMin, zMax).parallel().forEach(z -> {
-			final ArrayList<Roi> rois = RoiUtil.getSliceRoi(roiManager, inputStack, z);
-			if (rois.isEmpty()) {
+			final List<RoiMaskCache.Mask> masks = sliceMasks.getMasks(z);
+			if (masks.isEmpty()) {
 				return;
 			}
 
             final ImageProcessor slice = inputStack.getProcessor(z);
-            for (Roi roi : rois) {
-                slice.setRoi(roi);
-
-                final ImageProcessor mask = slice.getMask();
-                if (mask == null) {
-                    drawSurfaceMasks(slice, maskStack, outStack, z, xMin, yMin, zMin);
-                } else {
-                    drawSurfaceMasksWithProcessorMask(slice, mask, maskStack, outStack, z, xMin, yMin, zMin);
-                }
+            final int outIndex = z - zMin;
+            for (RoiMaskCache.Mask mask : masks) {
+                drawSurfaceMasks(slice, mask, maskPlanes[outIndex], outPlanes[outIndex], xMin, yMin, outWidth);
             }
 		});
     }
 
     /**
+     * Draws the total sample mask and the foreground mask of the ROI of the given slice in a single pass.
+     *
+     * Each row of the ROI is split into runs of pixels inside the ROI mask. A run is filled into the sample mask
+     * with Arrays.fill, and thresholded into the foreground mask directly from the primitive pixel array.
+     *
+     * @param slice         The input slice
+     * @param mask          The mask of the ROI from RoiMaskCache
+     * @param maskPlane     Pixels of the total sample mask slice
+     * @param outPlane      Pixels of the foreground mask slice
+     * @param xMin          Horizontal offset of the mask slices in the input slice
+     * @param yMin          Vertical offset of the mask slices in the input slice
+     * @param outWidth      Width of the mask slices
      * @todo Test results against BoneJ1 with a polygonal ROI (a ROI with a mask)
      */
-    private void drawSurfaceMasksWithProcessorMask(final ImageProcessor slice, final ImageProcessor mask,
-                                                   final ImageStack maskStack, final ImageStack outStack,
-                                                   final int sliceNumber, final int xMin, final int yMin,
-                                                   final int zMin) {
-        final int white = 255;
-        final int minThreshold = getMinThreshold();
-        final int maxThreshold = getMaxThreshold();
+    private void drawSurfaceMasks(final ImageProcessor slice, final RoiMaskCache.Mask mask,
+                                  final byte[] maskPlane, final byte[] outPlane, final int xMin, final int yMin,
+                                  final int outWidth) {
+        final Object pixels = slice.getPixels();
+        final int sliceWidth = slice.getWidth();
+
+        final Rectangle r = mask.getBounds();
+        if (!RoiUtil.getSafeRoiBounds(r, sliceWidth, slice.getHeight())) {
+            return;
+        }
 
-        final Rectangle r = slice.getRoi();
         final int x0 = r.x;
         final int y0 = r.y;
         final int x1 = x0 + r.width;
         final int y1 = y0 + r.height;
 
-        final int outSlice = sliceNumber - zMin + 1;
-        final ImageProcessor maskProcessor = maskStack.getProcessor(outSlice);
-        final ImageProcessor outProcessor = outStack.getProcessor(outSlice);
-
-
         for (int y = y0; y < y1; y++) {
-            final int maskY = y - y0;
-            final int outY = y - yMin;
-            for (int x = x0; x < x1; x++) {
-                final int outX = x - xMin;
-                final int maskX = x - x0;
-                if (mask.get(maskX, maskY) == 0) {
-                    continue;
-                }
-                maskProcessor.set(outX, outY, white);
-                final int pixel = slice.get(x, y);
-                if (pixel >= minThreshold && pixel <= maxThreshold) {
-                    outProcessor.set(outX, outY, white);
-                }
+            final int inOffset = y * sliceWidth;
+            final int outOffset = (y - yMin) * outWidth - xMin;
+
+            int runStart = mask.nextInside(x0, y, x1);
+            while (runStart < x1) {
+                final int runEnd = mask.nextOutside(runStart, y, x1);
+                Arrays.fill(maskPlane, outOffset + runStart, outOffset + runEnd, WHITE);
+                thresholdRun(pixels, inOffset, outPlane, outOffset, runStart, runEnd);
+                runStart = mask.nextInside(runEnd, y, x1);
             }
         }
     }
 
-    private void drawSurfaceMasks(final ImageProcessor slice, final ImageStack maskStack, final ImageStack outStack,
-                                  final int sliceNumber, final int xMin, final int yMin, final int zMin) {
-        final int white = 255;
+    /**
+     * Sets the pixels within the thresholds white in the given run [start, end) of a row
+     *
+     * @param pixels    Pixel array of the input slice (byte[] or short[])
+     * @param inOffset  Index of the first pixel of the row in the input pixels
+     * @param outPlane  Pixels of the foreground mask slice
+     * @param outOffset Index of the first pixel of the row in the foreground mask
+     */
+    private void thresholdRun(final Object pixels, final int inOffset, final byte[] outPlane, final int outOffset,
+                              final int start, final int end) {
         final int minThreshold = getMinThreshold();
         final int maxThreshold = getMaxThreshold();
 
-        final Rectangle r = slice.getRoi();
-        final int x0 = r.x;
-        final int y0 = r.y;
-        final int x1 = x0 + r.width;
-        final int y1 = y0 + r.height;
-
-        final int outSlice = sliceNumber - zMin + 1;
-        final ImageProcessor maskProcessor = maskStack.getProcessor(outSlice);
-        final ImageProcessor outProcessor = outStack.getProcessor(outSlice);
-
-        for (int y = y0; y < y1; y++) {
-            final int outY = y - yMin;
-            for (int x = x0; x < x1; x++) {
-                final int outX = x - xMin;
-                maskProcessor.set(outX, outY, white);
-                final int pixel = slice.get(x, y);
+        if (pixels instanceof byte[]) {
+            final byte[] bytes = (byte[]) pixels;
+            for (int x = start; x < end; x++) {
+                final int pixel = bytes[inOffset + x] & 0xFF;
+                if (pixel >= minThreshold && pixel <= maxThreshold) {
+                    outPlane[outOffset + x] = WHITE;
+                }
+            }
+        } else {
+            final short[] shorts = (short[]) pixels;
+            for (int x = start; x < end; x++) {
+                final int pixel = shorts[inOffset + x] & 0xFFFF;
                 if (pixel >= minThreshold && pixel <= maxThreshold) {
-                    outProcessor.set(outX, outY, white);
+                    outPlane[outOffset + x] = WHITE;
                 }
             }
         }
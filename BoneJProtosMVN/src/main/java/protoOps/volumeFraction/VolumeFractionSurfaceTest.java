@@ -1,6 +1,13 @@
 package protoOps.volumeFraction;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.vecmath.Point3f;
 
 import org.junit.*;
 import org.junit.rules.ExpectedException;
@@ -70,4 +77,49 @@ public class VolumeFractionSurfaceTest {
         double volumeRatio = volumeFractionSurface.getVolumeRatio();
         assertEquals(CUBOID_VOLUME / TOTAL_VOLUME, volumeRatio, DELTA);
 	}
+
+    @Test
+    public void testSetVolumeToleranceThrowsIllegalArgumentExceptionIfArgumentIsOutOfRange() throws Exception {
+        expectedException.expect(IllegalArgumentException.class);
+        expectedException.expectMessage("Volume tolerance must be in the range [0.0, 1.0]");
+
+        volumeFractionSurface.setVolumeTolerance(1.1);
+    }
+
+    @Test
+    public void testAdaptiveResamplingVolumeIsWithinToleranceOfFullResolution() throws Exception {
+        final double tolerance = 0.01;
+        // Larger than the top level blocks of the octree, and has struts too thin to survive resampling
+        final ImagePlus wireFrame = StaticTestImageHelper.createWireFrameCuboid(160, 150, 140, 4);
+
+        volumeFractionSurface.setImage(wireFrame);
+        volumeFractionSurface.setSurfaceResampling(1);
+        volumeFractionSurface.run();
+        final double fullResolutionVolume = volumeFractionSurface.getForegroundVolume();
+
+        volumeFractionSurface.setSurfaceResampling(8);
+        volumeFractionSurface.setAdaptiveResampling(true);
+        volumeFractionSurface.setVolumeTolerance(tolerance);
+        volumeFractionSurface.run();
+        final double adaptiveVolume = volumeFractionSurface.getForegroundVolume();
+
+        assertEquals("Adaptive volume differs too much from full resolution", fullResolutionVolume, adaptiveVolume,
+                tolerance * fullResolutionVolume);
+    }
+
+    @Test
+    public void testCachedMeshesAreNotChangedThroughTheirVertices() throws Exception {
+        final Point3f shared = new Point3f(1, 1, 1);
+        final List<Point3f> points = Arrays.asList(shared, new Point3f(2, 1, 1), new Point3f(1, 2, 1), shared);
+        final SurfaceMeshCache.Meshes meshes = new SurfaceMeshCache.Meshes(points, 1.0, points, 1.0);
+
+        shared.set(5, 5, 5);
+        final List<Point3f> cachedPoints = meshes.getForegroundPoints();
+        cachedPoints.get(0).set(7, 7, 7);
+
+        final List<Point3f> copy = meshes.getForegroundPoints();
+        assertEquals("Changing the original mesh changed the cached mesh", new Point3f(1, 1, 1), copy.get(0));
+        assertNotSame("Cached vertex was returned", cachedPoints.get(0), copy.get(0));
+        assertSame("Vertex shared by triangles is no longer shared", copy.get(0), copy.get(3));
+    }
 }
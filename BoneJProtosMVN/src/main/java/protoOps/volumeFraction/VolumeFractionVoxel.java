@@ -1,20 +1,21 @@
 package protoOps.volumeFraction;
 
 import java.awt.*;
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.stream.IntStream;
 
 import net.imagej.ops.Op;
 import net.imagej.ops.OpEnvironment;
 
+import org.bonej.common.RoiMaskCache;
 import org.bonej.common.RoiUtil;
+import org.bonej.common.SliceMasks;
 import org.scijava.plugin.Plugin;
 
 import ij.ImageStack;
 import ij.gui.Roi;
 import ij.measure.Calibration;
-import ij.plugin.frame.RoiManager;
 import ij.process.ImageProcessor;
 
 /**
@@ -77,22 +78,58 @@ public class VolumeFractionVoxel extends VolumeFractionOp {
     private void voxelVolumeWithRois(final ImageStack stack, final long[] sliceTotalVolumes,
                                      final long[] sliceForeGroundsVolumes) {
         final int stackSize = stack.getSize();
-        final RoiManager roiManager = getRoiManager().get();
+        final SliceMasks sliceMasks = SliceMasks.of(getRoiManager().get(), stack, getInterpolateRois());
 
 		IntStream.rangeClosed(1, stackSize).parallel().forEach(z -> {
-			final ArrayList<Roi> rois = RoiUtil.getSliceRoi(roiManager, stack, z);
+			final List<RoiMaskCache.Mask> masks = sliceMasks.getMasks(z);
 
-			if (rois.isEmpty()) {
+			if (masks.isEmpty()) {
 				return;
 			}
 
 			final ImageProcessor processor = stack.getProcessor(z);
-			for (Roi roi : rois) {
-				calculateVoxelSliceVolumes(processor, roi, sliceTotalVolumes, sliceForeGroundsVolumes, z);
+			for (RoiMaskCache.Mask mask : masks) {
+				calculateVoxelRoiVolumes(processor, mask, sliceTotalVolumes, sliceForeGroundsVolumes, z);
 			}
 		});
     }
 
+    /**
+     * Counts the voxels inside the given ROI mask on a slice
+     *
+     * @implNote The voxels are counted in runs of pixels inside the mask
+     */
+    private void calculateVoxelRoiVolumes(final ImageProcessor processor, final RoiMaskCache.Mask mask,
+                                          final long[] sliceTotalVolumes, final long[] sliceForegroundVolumes,
+                                          final int sliceNumber) {
+        final Rectangle r = mask.getBounds();
+        if (!RoiUtil.getSafeRoiBounds(r, processor.getWidth(), processor.getHeight())) {
+            return;
+        }
+
+        final int x0 = r.x;
+        final int y0 = r.y;
+        final int x1 = x0 + r.width;
+        final int y1 = y0 + r.height;
+        final int minThreshold = getMinThreshold();
+        final int maxThreshold = getMaxThreshold();
+
+        for (int y = y0; y < y1; y++) {
+            int runStart = mask.nextInside(x0, y, x1);
+            while (runStart < x1) {
+                final int runEnd = mask.nextOutside(runStart, y, x1);
+                sliceTotalVolumes[sliceNumber] += runEnd - runStart;
+                for (int x = runStart; x < runEnd; x++) {
+                    final int pixel = processor.get(x, y);
+                    if (pixel >= minThreshold && pixel <= maxThreshold) {
+                        sliceForegroundVolumes[sliceNumber]++;
+                    }
+                }
+                runStart = mask.nextInside(runEnd, y, x1);
+            }
+        }
+    }
+
     private void calculateVoxelSliceVolumes(final ImageProcessor processor, final Roi roi,
                                             final long[] sliceTotalVolumes, final long[] sliceForegroundVolumes,
                                             final int sliceNumber) {
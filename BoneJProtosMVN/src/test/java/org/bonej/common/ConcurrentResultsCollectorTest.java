@@ -0,0 +1,64 @@
+package org.bonej.common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Unit tests for the org.bonej.common.ConcurrentResultsCollector class
+ *
+ * @author Richard Domander
+ */
+public class ConcurrentResultsCollectorTest {
+    private static final double DELTA = 1E-12;
+
+    @Test(expected = NullPointerException.class)
+    public void testConstructorThrowsNullPointerExceptionIfTargetIsNull() throws Exception {
+        new ConcurrentResultsCollector(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddMeasurementThrowsIllegalArgumentExceptionIfHeadingIsEmpty() throws Exception {
+        new ConcurrentResultsCollector(new ResultsInserter()).addMeasurement("Label", "", 1.0);
+    }
+
+    @Test
+    public void testCloseMergesThreadsOrderedByLabel() throws Exception {
+        final ResultsTable table = new ResultsTable();
+        final ResultsInserter inserter = new ResultsInserter();
+        inserter.setResultsTable(table);
+        final ConcurrentResultsCollector collector = new ConcurrentResultsCollector(inserter);
+        final int images = 8;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int i = images - 1; i >= 0; i--) {
+            final int image = i;
+            futures.add(executor.submit(() -> {
+                collector.addMeasurement("Image " + image, "Volume", image);
+                collector.addMeasurement("Image " + image, "Ratio", image / 10.0);
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        collector.close();
+
+        assertEquals("Wrong number of rows", images, table.getCounter());
+        for (int i = 0; i < images; i++) {
+            assertEquals("Rows should be ordered by label", "Image " + i, table.getLabel(i));
+            assertEquals(i, table.getValue("Volume", i), DELTA);
+            assertEquals(i / 10.0, table.getValue("Ratio", i), DELTA);
+        }
+    }
+}
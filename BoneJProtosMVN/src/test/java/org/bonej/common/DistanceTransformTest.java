@@ -0,0 +1,142 @@
+package org.bonej.common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.ImageStack;
+import ij.measure.Calibration;
+import ij.process.ByteProcessor;
+
+/**
+ * Unit tests for the org.bonej.common.DistanceTransform class
+ *
+ * @author Richard Domander
+ */
+public class DistanceTransformTest {
+    @Test(expected = NullPointerException.class)
+    public void testComputeThrowsNullPointerExceptionIfStackIsNull() throws Exception {
+        DistanceTransform.compute(null, true);
+    }
+
+    @Test
+    public void testComputeMatchesBruteForce() throws Exception {
+        final ImageStack stack = createRandomStack(17, 11, 9, 0.7);
+
+        final float[][] map = DistanceTransform.compute(stack, true);
+
+        assertMatchesBruteForce(stack, map, true);
+    }
+
+    @Test
+    public void testComputeBackground() throws Exception {
+        final ImageStack stack = createRandomStack(13, 15, 7, 0.3);
+
+        final float[][] map = DistanceTransform.compute(stack, false);
+
+        assertMatchesBruteForce(stack, map, false);
+    }
+
+    @Test
+    public void testComputeSingleSlice() throws Exception {
+        final ImageStack stack = createRandomStack(20, 20, 1, 0.8);
+
+        final float[][] map = DistanceTransform.compute(stack, true);
+
+        assertMatchesBruteForce(stack, map, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testComputeThrowsIllegalArgumentExceptionIfVoxelSizeIsNotPositive() throws Exception {
+        final Calibration calibration = new Calibration();
+        calibration.pixelDepth = 0.0;
+
+        DistanceTransform.compute(createRandomStack(5, 5, 5, 0.5), true, calibration);
+    }
+
+    @Test
+    public void testComputeAnisotropicMatchesBruteForce() throws Exception {
+        final ImageStack stack = createRandomStack(15, 13, 11, 0.8);
+        final Calibration calibration = new Calibration();
+        calibration.pixelWidth = 0.5;
+        calibration.pixelHeight = 0.75;
+        calibration.pixelDepth = 2.0;
+
+        final float[][] map = DistanceTransform.compute(stack, true, calibration);
+
+        assertMatchesBruteForce(stack, map, true, calibration);
+    }
+
+    //region -- Helper methods --
+    private static ImageStack createRandomStack(final int width, final int height, final int depth,
+                                                final double foregroundRatio) {
+        final Random random = new Random(0xC0FFEE);
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < depth; z++) {
+            final byte[] pixels = new byte[width * height];
+            for (int i = 0; i < pixels.length; i++) {
+                pixels[i] = random.nextDouble() < foregroundRatio ? (byte) 0xFF : 0x00;
+            }
+            stack.addSlice("", new ByteProcessor(width, height, pixels));
+        }
+        return stack;
+    }
+
+    private static void assertMatchesBruteForce(final ImageStack stack, final float[][] map,
+                                                final boolean foreground) {
+        assertMatchesBruteForce(stack, map, foreground, new Calibration());
+    }
+
+    private static void assertMatchesBruteForce(final ImageStack stack, final float[][] map,
+                                                final boolean foreground, final Calibration calibration) {
+        final int width = stack.getWidth();
+        final int height = stack.getHeight();
+        final int depth = stack.getSize();
+        for (int z = 0; z < depth; z++) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (!inPhase(stack, x, y, z, foreground)) {
+                        assertEquals("Voxels outside the phase should have no distance", 0.0f,
+                                map[z][y * width + x], 0.0f);
+                        continue;
+                    }
+                    final double expected = Math.sqrt(nearestOutside(stack, x, y, z, foreground, calibration));
+                    assertEquals("Wrong distance", expected, map[z][y * width + x], 1e-4);
+                }
+            }
+        }
+    }
+
+    private static double nearestOutside(final ImageStack stack, final int x, final int y, final int z,
+                                         final boolean foreground, final Calibration calibration) {
+        final int width = stack.getWidth();
+        final int height = stack.getHeight();
+        final int depth = stack.getSize();
+        final int longest = Math.max(width, Math.max(height, depth));
+        final double maxSize = Math.max(calibration.pixelWidth,
+                Math.max(calibration.pixelHeight, calibration.pixelDepth));
+        double min = 3.0 * (longest + 1) * (longest + 1) * maxSize * maxSize;
+        for (int k = 0; k < depth; k++) {
+            for (int j = 0; j < height; j++) {
+                for (int i = 0; i < width; i++) {
+                    if (!inPhase(stack, i, j, k, foreground)) {
+                        final double dx = (x - i) * calibration.pixelWidth;
+                        final double dy = (y - j) * calibration.pixelHeight;
+                        final double dz = (z - k) * calibration.pixelDepth;
+                        min = Math.min(min, dx * dx + dy * dy + dz * dz);
+                    }
+                }
+            }
+        }
+        return min;
+    }
+
+    private static boolean inPhase(final ImageStack stack, final int x, final int y, final int z,
+                                   final boolean foreground) {
+        final byte[] pixels = (byte[]) stack.getPixels(z + 1);
+        return ((pixels[y * stack.getWidth() + x] & 0xFF) == 0xFF) == foreground;
+    }
+    //endregion
+}
@@ -0,0 +1,74 @@
+package org.bonej.common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import ij.measure.ResultsTable;
+
+/**
+ * Unit tests for the org.bonej.common.HistogramTable class
+ *
+ * @author Richard Domander
+ */
+public class HistogramTableTest {
+    private static final double DELTA = 1E-12;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(expected = NullPointerException.class)
+    public void testToResultsTableThrowsNullPointerExceptionIfHistogramsIsNull() throws Exception {
+        HistogramTable.toResultsTable(null, "mm");
+    }
+
+    @Test
+    public void testToResultsTable() throws Exception {
+        final ResultsTable table = HistogramTable.toResultsTable(createHistograms(), "mm");
+
+        assertEquals("Wrong number of rows", 5, table.getCounter());
+        assertEquals("Tb.Th", table.getLabel(0));
+        assertEquals("Tb.Sp", table.getLabel(3));
+        assertEquals(0.5, table.getValue("Bin start (mm)", 1), DELTA);
+        assertEquals(1.0, table.getValue("Bin end (mm)", 1), DELTA);
+        assertEquals(2.0, table.getValue(HistogramTable.COUNT_HEADING, 1), DELTA);
+    }
+
+    @Test
+    public void testWriteCsv() throws Exception {
+        final Path file = folder.newFile("histograms.csv").toPath();
+
+        HistogramTable.writeCsv(createHistograms(), "", file);
+
+        final List<String> lines = Files.readAllLines(file);
+        assertEquals("Wrong number of lines", 6, lines.size());
+        assertEquals("Label,Bin start,Bin end,Count", lines.get(0));
+        assertEquals("Tb.Th,0.5,1.0,2", lines.get(2));
+        assertEquals("Tb.Sp,0.5,1.0,1", lines.get(5));
+    }
+
+    //region -- Helper methods --
+    private static Map<String, StreamingStatistics> createHistograms() {
+        final StreamingStatistics thickness = StreamingStatistics.withBinWidth(0.0, 0.5);
+        for (double value : new double[]{0.25, 0.5, 0.75, 1.25}) {
+            thickness.add(value);
+        }
+        final StreamingStatistics spacing = StreamingStatistics.withBinWidth(0.0, 0.5);
+        spacing.add(0.0);
+        spacing.add(0.5);
+
+        final Map<String, StreamingStatistics> histograms = new LinkedHashMap<>();
+        histograms.put("Tb.Th", thickness);
+        histograms.put("Tb.Sp", spacing);
+        return histograms;
+    }
+    //endregion
+}
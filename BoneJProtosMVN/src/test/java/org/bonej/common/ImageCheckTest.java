@@ -8,8 +8,9 @@ import static org.mockito.Mockito.when;
 import org.junit.Test;
 
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.measure.Calibration;
-import ij.process.ImageStatistics;
+import ij.process.ByteProcessor;
 
 /**
  * @author Richard Domander
@@ -36,47 +37,51 @@ public class ImageCheckTest {
 	}
 
 	@Test
-	public void testIsBinaryUsesHistogramCorrectly() throws Exception {
-		final int EIGHT_BYTES = 256;
-
+	public void testIsBinaryChecksAllPixels() throws Exception {
 		// more than two colors
-		ImageStatistics nonBinaryStats = new ImageStatistics();
-		nonBinaryStats.pixelCount = 3;
-		nonBinaryStats.histogram = new int[EIGHT_BYTES];
-		nonBinaryStats.histogram[Common.BINARY_BLACK] = 1;
-		nonBinaryStats.histogram[Common.BINARY_WHITE] = 1;
+		ImagePlus testImage = new ImagePlus("", createStack(Common.BINARY_BLACK, Common.BINARY_WHITE, 0x01));
+		assertFalse("Image with more than two colors must not be binary", ImageCheck.isBinary(testImage));
 
-		ImagePlus testImage = mock(ImagePlus.class);
-		when(testImage.getStatistics()).thenReturn(nonBinaryStats);
+		// wrong two colors
+		testImage = new ImagePlus("", createStack(Common.BINARY_BLACK, Common.BINARY_BLACK + 1));
+		assertFalse("Image with wrong two colors (not " + Common.BINARY_BLACK + " & " + Common.BINARY_WHITE
+				+ ") must not be binary", ImageCheck.isBinary(testImage));
 
-		boolean result = ImageCheck.isBinary(testImage);
-		assertFalse("Image with more than two colors must not be binary", result);
+		// binary colors
+		testImage = new ImagePlus("", createStack(Common.BINARY_BLACK, Common.BINARY_WHITE));
+		assertTrue("Image with two colors (" + Common.BINARY_BLACK + " & " + Common.BINARY_WHITE + ") should be binary",
+				ImageCheck.isBinary(testImage));
+	}
 
-		// wrong two colors
-		ImageStatistics wrongBinaryStats = new ImageStatistics();
-		wrongBinaryStats.pixelCount = 2;
-		wrongBinaryStats.histogram = new int[EIGHT_BYTES];
-		wrongBinaryStats.histogram[Common.BINARY_BLACK] = 1;
-		wrongBinaryStats.histogram[Common.BINARY_BLACK + 1] = 1;
+	@Test
+	public void testIsBinaryChecksAllSlices() throws Exception {
+		final ImageStack stack = createStack(Common.BINARY_BLACK, Common.BINARY_WHITE);
+		stack.getProcessor(stack.getSize()).set(5, 5, 0x7F);
 
-		when(testImage.getStatistics()).thenReturn(wrongBinaryStats);
+		final ImagePlus testImage = new ImagePlus("", stack);
 
-		result = ImageCheck.isBinary(testImage);
-		assertFalse("Image with wrong two colors (not " + Common.BINARY_BLACK + " & " + Common.BINARY_WHITE
-				+ ") must not be binary", result);
+		assertFalse("A non-binary pixel on the last slice was not found", ImageCheck.isBinary(testImage));
+	}
 
-		// binary colors
-		ImageStatistics binaryStats = new ImageStatistics();
-		binaryStats.pixelCount = 2;
-		binaryStats.histogram = new int[EIGHT_BYTES];
-		binaryStats.histogram[Common.BINARY_BLACK] = 1;
-		binaryStats.histogram[Common.BINARY_WHITE] = 1;
+	@Test
+	public void testIsBinaryChecksAgainIfStackIsReplaced() throws Exception {
+		final ImagePlus testImage = new ImagePlus("", createStack(Common.BINARY_BLACK, 0x01));
+		assertFalse(ImageCheck.isBinary(testImage));
 
-		when(testImage.getStatistics()).thenReturn(binaryStats);
+		testImage.setStack(createStack(Common.BINARY_BLACK, Common.BINARY_WHITE));
 
-		result = ImageCheck.isBinary(testImage);
-		assertTrue("Image with two colors (" + Common.BINARY_BLACK + " & " + Common.BINARY_WHITE + ") should be binary",
-				result);
+		assertTrue("Result of the old stack was reused", ImageCheck.isBinary(testImage));
+	}
+
+	@Test
+	public void testIsBinaryNoticesPixelsChangedInPlace() throws Exception {
+		final ImageStack stack = createStack(Common.BINARY_BLACK, Common.BINARY_WHITE);
+		final ImagePlus testImage = new ImagePlus("", stack);
+		assertTrue(ImageCheck.isBinary(testImage));
+
+		stack.getProcessor(1).set(0, 0, 0x01);
+
+		assertFalse("Result before the pixels changed was reused", ImageCheck.isBinary(testImage));
 	}
 
 	@Test
@@ -134,4 +139,25 @@ public class ImageCheckTest {
 			assertTrue("Grayscale type should be grayscale", ImageCheck.isGrayscale(testImage));
 		}
 	}
-}
\ No newline at end of file
+
+	//region -- Helper methods --
+	/**
+	 * Creates a stack whose pixels cycle through the given colors
+	 */
+	private static ImageStack createStack(final int... colors) {
+		final int size = 10;
+		final ImageStack stack = new ImageStack(size, size);
+		int i = 0;
+		for (int z = 0; z < 3; z++) {
+			final ByteProcessor processor = new ByteProcessor(size, size);
+			for (int y = 0; y < size; y++) {
+				for (int x = 0; x < size; x++) {
+					processor.set(x, y, colors[i++ % colors.length]);
+				}
+			}
+			stack.addSlice("", processor);
+		}
+		return stack;
+	}
+	//endregion
+}
@@ -0,0 +1,65 @@
+package org.bonej.common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for the org.bonej.common.ResultsFileSink class
+ *
+ * @author Richard Domander
+ */
+public class ResultsFileSinkTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test(expected = NullPointerException.class)
+    public void testOpenThrowsNullPointerExceptionIfFileIsNull() throws Exception {
+        ResultsFileSink.open(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddMeasurementThrowsIllegalArgumentExceptionIfLabelIsEmpty() throws Exception {
+        try (ResultsFileSink sink = ResultsFileSink.open(folder.getRoot().toPath().resolve("results.csv"))) {
+            sink.addMeasurement("", "Connectivity", 1.0);
+        }
+    }
+
+    @Test
+    public void testAddMeasurementAppendsToFile() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("results.csv");
+
+        try (ResultsFileSink sink = ResultsFileSink.open(file)) {
+            sink.addMeasurement("bone.tif", "Connectivity", 2.0);
+        }
+        try (ResultsFileSink sink = ResultsFileSink.open(file)) {
+            sink.addMeasurement("bone, cropped.tif", "Connectivity", 1.0);
+        }
+
+        final List<String> lines = Files.readAllLines(file);
+        assertEquals("The header should be written only once", 3, lines.size());
+        assertEquals("Label,Measurement,Value", lines.get(0));
+        assertEquals("bone.tif,Connectivity,2.0", lines.get(1));
+        assertEquals("A label with a delimiter should be quoted", "\"bone, cropped.tif\",Connectivity,1.0",
+                lines.get(2));
+    }
+
+    @Test
+    public void testOpenTsv() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("results.tsv");
+
+        try (ResultsFileSink sink = ResultsFileSink.open(file)) {
+            sink.addMeasurement("bone, cropped.tif", "Tb.Th Mean (mm)", 0.5);
+        }
+
+        final List<String> lines = Files.readAllLines(file);
+        assertEquals("Label\tMeasurement\tValue", lines.get(0));
+        assertEquals("bone, cropped.tif\tTb.Th Mean (mm)\t0.5", lines.get(1));
+    }
+}
@@ -1,6 +1,7 @@
 package org.bonej.common;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -139,4 +140,83 @@ public class ResultsInserterTest {
 		assertEquals("The new value was inserted on the wrong row", Double.NaN, resultsTable.getValueAsDouble(1, 2),
 				0.00000001);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testSetImageMeasurementInFirstFreeRowAfterTableIsReset() throws Exception {
+		resultsInserter.setMeasurementInFirstFreeRow(LABEL, MEASUREMENT_HEADING, MEASUREMENT_VALUE);
+		resultsInserter.setMeasurementInFirstFreeRow(LABEL, MEASUREMENT_HEADING, MEASUREMENT_VALUE);
+		resultsTable.reset();
+		resultsTable.incrementCounter();
+		resultsTable.addLabel("Another label");
+
+		resultsInserter.setMeasurementInFirstFreeRow(LABEL, MEASUREMENT_HEADING, NEW_MEASUREMENT_VALUE);
+
+		assertEquals("Rows removed from the table should not be reused", 2, resultsTable.getCounter());
+		assertEquals(LABEL, resultsTable.getLabel(1));
+		assertEquals(NEW_MEASUREMENT_VALUE, resultsTable.getValue(MEASUREMENT_HEADING, 1), DELTA);
+	}
+
+	@Test
+	public void testSetImageMeasurementInFirstFreeRowAfterColumnIsDeleted() throws Exception {
+		resultsInserter.setMeasurementInFirstFreeRow(LABEL, MEASUREMENT_HEADING, MEASUREMENT_VALUE);
+		resultsInserter.setMeasurementInFirstFreeRow(LABEL, MEASUREMENT_HEADING, MEASUREMENT_VALUE);
+		resultsTable.deleteColumn(MEASUREMENT_HEADING);
+
+		resultsInserter.setMeasurementInFirstFreeRow(LABEL, MEASUREMENT_HEADING, NEW_MEASUREMENT_VALUE);
+		resultsInserter.setMeasurementInFirstFreeRow(LABEL, MEASUREMENT_HEADING, NEW_MEASUREMENT_VALUE);
+
+		assertEquals("Rows freed by deleting the column were not reused", 2, resultsTable.getCounter());
+		assertEquals(NEW_MEASUREMENT_VALUE, resultsTable.getValue(MEASUREMENT_HEADING, 0), DELTA);
+		assertEquals(NEW_MEASUREMENT_VALUE, resultsTable.getValue(MEASUREMENT_HEADING, 1), DELTA);
+	}
+
+	@Test
+	public void testSetImageMeasurementInFirstFreeRowAfterLastValueIsCleared() throws Exception {
+		resultsInserter.setMeasurementInFirstFreeRow(LABEL, MEASUREMENT_HEADING, MEASUREMENT_VALUE);
+		resultsInserter.setMeasurementInFirstFreeRow(LABEL, MEASUREMENT_HEADING, MEASUREMENT_VALUE);
+		resultsTable.setValue(MEASUREMENT_HEADING, 1, Double.NaN);
+
+		resultsInserter.setMeasurementInFirstFreeRow(LABEL, MEASUREMENT_HEADING, NEW_MEASUREMENT_VALUE);
+
+		assertEquals("The cleared row was not reused", 2, resultsTable.getCounter());
+		assertEquals(NEW_MEASUREMENT_VALUE, resultsTable.getValue(MEASUREMENT_HEADING, 1), DELTA);
+	}
+
+	@Test
+	public void testNewInsertersDoNotScanTheTableAgain() throws Exception {
+		final int rows = 10_000;
+		final int inserters = 100;
+		final LabelCountingTable table = new LabelCountingTable();
+		final ResultsInserter firstInserter = new ResultsInserter();
+		firstInserter.setResultsTable(table);
+		for (int i = 0; i < rows; i++) {
+			firstInserter.setMeasurementInFirstFreeRow("Specimen " + i, MEASUREMENT_HEADING, i);
+		}
+		table.labelReads = 0;
+
+		for (int i = 0; i < inserters; i++) {
+			final ResultsInserter inserter = new ResultsInserter();
+			inserter.setResultsTable(table);
+			inserter.setMeasurementInFirstFreeRow("Specimen " + (rows + i), MEASUREMENT_HEADING, rows + i);
+			inserter.setMeasurementInFirstFreeRow("Specimen " + i, NEW_MEASUREMENT_HEADING, i);
+		}
+
+		assertEquals(rows + inserters, table.getCounter());
+		assertEquals("Measurement was inserted on the wrong row", 42.0, table.getValue(NEW_MEASUREMENT_HEADING, 42),
+				DELTA);
+		assertEquals(rows + 42.0, table.getValue(MEASUREMENT_HEADING, rows + 42), DELTA);
+		assertTrue("A new inserter scanned the whole table", table.labelReads <= 2 * inserters);
+	}
+
+	//region -- Helper classes --
+	private static final class LabelCountingTable extends ResultsTable {
+		private int labelReads = 0;
+
+		@Override
+		public String getLabel(int row) {
+			labelReads++;
+			return super.getLabel(row);
+		}
+	}
+	//endregion
+}
@@ -0,0 +1,98 @@
+package org.bonej.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.*;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+
+/**
+ * Unit tests for the org.bonej.common.RoiMaskCache class
+ *
+ * @author Richard Domander
+ */
+public class RoiMaskCacheTest {
+    @After
+    public void tearDown() {
+        RoiMaskCache.clear();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testGetThrowsNullPointerExceptionIfRoiIsNull() throws Exception {
+        RoiMaskCache.get(null);
+    }
+
+    @Test
+    public void testGetRectangle() throws Exception {
+        final RoiMaskCache.Mask mask = RoiMaskCache.get(new Roi(2, 3, 4, 5));
+
+        assertTrue(mask.isRectangle());
+        assertEquals(new Rectangle(2, 3, 4, 5), mask.getBounds());
+        assertTrue(mask.contains(2, 3));
+        assertFalse(mask.contains(6, 3));
+        assertEquals(4, mask.nextInside(4, 3, 6));
+        assertEquals(6, mask.nextOutside(4, 3, 6));
+    }
+
+    @Test
+    public void testGetPolygon() throws Exception {
+        final Roi roi = createLRoi(10, 100);
+
+        final RoiMaskCache.Mask mask = RoiMaskCache.get(roi);
+
+        assertFalse(mask.isRectangle());
+        assertTrue("Pixel inside the L is not in the mask", mask.contains(79, 15));
+        assertFalse("Pixel outside the L is in the mask", mask.contains(79, 105));
+        assertEquals("Wrong start of the run in the mask", 10, mask.nextInside(10, 15, 110));
+        assertEquals("Wrong end of the run in the mask", 110, mask.nextOutside(10, 15, 110));
+        assertEquals("Wrong end of the run in the mask", 60, mask.nextOutside(10, 105, 110));
+        assertEquals("Run should not be found", 110, mask.nextInside(60, 105, 110));
+    }
+
+    @Test
+    public void testGetReusesMask() throws Exception {
+        final Roi roi = createLRoi(0, 10);
+
+        final RoiMaskCache.Mask mask = RoiMaskCache.get(roi);
+
+        assertSame("Mask was rasterised again", mask, RoiMaskCache.get(roi));
+        assertNotSame("Different ROIs share a mask", mask, RoiMaskCache.get(createLRoi(0, 10)));
+    }
+
+    @Test
+    public void testGetMovedRoi() throws Exception {
+        final Roi roi = createLRoi(0, 10);
+        final RoiMaskCache.Mask mask = RoiMaskCache.get(roi);
+
+        roi.setLocation(5, 5);
+        final RoiMaskCache.Mask movedMask = RoiMaskCache.get(roi);
+
+        assertNotSame("Mask of a moved ROI was not rasterised again", mask, movedMask);
+        assertEquals(new Rectangle(5, 5, 10, 10), movedMask.getBounds());
+        assertTrue(movedMask.contains(5, 5));
+    }
+
+    //region -- Helper methods --
+    /**
+     * Creates an L-shaped ROI that leaves out the lower right-hand quarter of its bounds
+     */
+    private static Roi createLRoi(final int offset, final int size) {
+        final Polygon polygon = new Polygon();
+        polygon.addPoint(offset, offset);
+        polygon.addPoint(offset + size, offset);
+        polygon.addPoint(offset + size, offset + size / 2);
+        polygon.addPoint(offset + size / 2, offset + size / 2);
+        polygon.addPoint(offset + size / 2, offset + size);
+        polygon.addPoint(offset, offset + size);
+        return new PolygonRoi(polygon, Roi.POLYGON);
+    }
+    //endregion
+}
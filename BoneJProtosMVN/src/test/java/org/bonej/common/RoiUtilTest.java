@@ -16,6 +16,7 @@ import protoOps.testImageCreators.StaticTestImageHelper;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.gui.PolygonRoi;
 import ij.gui.Roi;
 import ij.plugin.frame.RoiManager;
 import ij.process.ByteProcessor;
@@ -340,6 +341,100 @@ public class RoiUtilTest {
         assertEquals("Cropped stack has wrong depth", 1, resultStack.getSize());
     }
 
+    @Test
+    public void testCropToRoisVirtualReturnsEmptyIfNoRois() throws Exception {
+        when(mockRoiManager.getCount()).thenReturn(0);
+
+        assertFalse(RoiUtil.cropToRoisVirtual(null, testStack, false, 0x00, 0).isPresent());
+        assertFalse(RoiUtil.cropToRoisVirtual(mockRoiManager, null, false, 0x00, 0).isPresent());
+        assertFalse(RoiUtil.cropToRoisVirtual(mockRoiManager, testStack, false, 0x00, 0).isPresent());
+    }
+
+    @Test
+    public void testCropToRoisVirtualMatchesCropToRois() throws Exception {
+        final int PADDING = 2;
+        final byte TEST_COLOR = 0x40;
+        final byte FILL_COLOR = 0x10;
+
+        Roi roi1 = new Roi(2, 2, 2, 2);
+        roi1.setName("0002-0000-0001");
+        Roi roi2 = new Roi(6, 3, 2, 2);
+        roi2.setName("0004-0000-0001");
+        Roi roi3 = createLRoi(6, 6);
+        roi3.setName("0004-0000-0002");
+        Roi rois[] = {roi1, roi2, roi3};
+
+        when(mockRoiManager.getCount()).thenReturn(rois.length);
+        when(mockRoiManager.getSliceNumber(anyString())).thenCallRealMethod();
+        when(mockRoiManager.getRoisAsArray()).thenReturn(rois);
+
+        ImagePlus image = StaticTestImageHelper.createCuboid(10, 10, 10, TEST_COLOR, 1);
+        ImageStack originalStack = image.getStack();
+
+        ImageStack expected = RoiUtil.cropToRois(mockRoiManager, originalStack, true, FILL_COLOR, PADDING).get();
+        ImageStack result = RoiUtil.cropToRoisVirtual(mockRoiManager, originalStack, true, FILL_COLOR, PADDING)
+                .get();
+
+        assertEquals("Virtual stack has wrong width", expected.getWidth(), result.getWidth());
+        assertEquals("Virtual stack has wrong height", expected.getHeight(), result.getHeight());
+        assertEquals("Virtual stack has wrong depth", expected.getSize(), result.getSize());
+        // Read the slices twice, so that some of them come from the cache
+        for (int i = 0; i < 2; i++) {
+            for (int z = 1; z <= expected.getSize(); z++) {
+                assertArrayEquals("Slice " + z + " differs", (byte[]) expected.getPixels(z),
+                        (byte[]) result.getPixels(z));
+            }
+        }
+    }
+
+    @Test
+    public void testCropToRoisVirtualSlicesCanBeModified() throws Exception {
+        final int PADDING = 1;
+        final byte TEST_COLOR = 0x40;
+        final byte FILL_COLOR = 0x10;
+        Roi roi = new Roi(2, 2, 4, 4);
+        roi.setName("0002-0000-0001");
+        Roi rois[] = {roi};
+        when(mockRoiManager.getCount()).thenReturn(rois.length);
+        when(mockRoiManager.getSliceNumber(anyString())).thenCallRealMethod();
+        when(mockRoiManager.getRoisAsArray()).thenReturn(rois);
+        ImageStack originalStack = StaticTestImageHelper.createCuboid(10, 10, 10, TEST_COLOR, 1).getStack();
+
+        ImageStack result = RoiUtil.cropToRoisVirtual(mockRoiManager, originalStack, true, FILL_COLOR, PADDING)
+                .get();
+        result.getProcessor(2).invert();
+        ((byte[]) result.getPixels(1))[0] = TEST_COLOR;
+
+        final byte[] expectedSlice = (byte[]) RoiUtil.cropToRois(mockRoiManager, originalStack, true, FILL_COLOR,
+                PADDING).get().getPixels(2);
+        assertArrayEquals("Modifying a slice changed the view", expectedSlice, (byte[]) result.getPixels(2));
+        assertEquals("Modifying a padding slice changed the view", FILL_COLOR, ((byte[]) result.getPixels(1))[0]);
+        assertEquals("Modifying a padding slice changed the other padding slices", FILL_COLOR,
+                ((byte[]) result.getPixels(3))[0]);
+    }
+
+    @Test
+    public void testCropStackInterpolatesRois() throws Exception {
+        final byte TEST_COLOR = 0x40;
+        Roi lowerRoi = new Roi(2, 2, 4, 4);
+        lowerRoi.setName("0002-0000-0001");
+        Roi upperRoi = new Roi(2, 2, 4, 4);
+        upperRoi.setName("0006-0000-0001");
+        Roi rois[] = {lowerRoi, upperRoi};
+        when(mockRoiManager.getCount()).thenReturn(rois.length);
+        when(mockRoiManager.getSliceNumber(anyString())).thenCallRealMethod();
+        when(mockRoiManager.getRoisAsArray()).thenReturn(rois);
+        ImageStack originalStack = StaticTestImageHelper.createCuboid(10, 10, 10, TEST_COLOR, 1).getStack();
+
+        ImageStack result = RoiUtil.cropToRois(mockRoiManager, originalStack, false, 0x00, 0, false).get();
+        assertEquals("Only the slices with ROIs should be cropped", 2, result.getSize());
+
+        result = RoiUtil.cropToRois(mockRoiManager, originalStack, false, 0x00, 0, true).get();
+        assertEquals("The slices between the ROIs should be cropped too", 5, result.getSize());
+        assertEquals("Interpolated ROIs cropped wrong amount of foreground", 5 * 4 * 4,
+                countColorPixels(result, TEST_COLOR));
+    }
+
     @Test
     public void testGetSafeRoiBounds() throws Exception {
         final int X = 10;
@@ -378,10 +473,7 @@ public class RoiUtilTest {
     }
 
     /**
-     * A test for copying from source stack to target stack with a mask
-     *
-     * Complements testCropStack(), because I don't know how to set up a ImageStack with a mask on one of its slices.
-     * @throws Exception
+     * A test for copying from source stack to target stack with the mask of a non-rectangular ROI
      */
     @Test
     public void testCopyRoiWithMask() throws Exception
@@ -390,31 +482,22 @@ public class RoiUtilTest {
         final int HEIGHT = 10;
         final int TEST_COLOR = 0x20;
         final int TEST_COLOR_COUNT = 75;
-        final ImageProcessor mask = createLMask(WIDTH, HEIGHT);
 
         //Set up mock RoiManager
-        final Roi roi = new Roi(0, 0, WIDTH, HEIGHT);
+        final Roi roi = createLRoi(WIDTH, HEIGHT);
         roi.setName("0001-0000-0001");
         when(mockRoiManager.getRoisAsArray()).thenReturn(new Roi[]{roi});
         when(mockRoiManager.getCount()).thenReturn(1);
         when(mockRoiManager.getSliceNumber(anyString())).thenCallRealMethod();
 
-        //Set up mock ImageStack
-        ImageProcessor mockProcessor = mock(ImageProcessor.class);
-        when(mockProcessor.get(anyInt(), anyInt())).thenReturn(TEST_COLOR);
-        when(mockProcessor.getMask()).thenReturn(mask);
-        when(mockProcessor.getWidth()).thenReturn(WIDTH);
-        when(mockProcessor.getHeight()).thenReturn(HEIGHT);
-        when(mockProcessor.createProcessor(WIDTH, HEIGHT)).thenReturn(new ByteProcessor(WIDTH, HEIGHT));
-
-        ImageStack mockStack = mock(ImageStack.class);
-        when(mockStack.getWidth()).thenReturn(WIDTH);
-        when(mockStack.getHeight()).thenReturn(HEIGHT);
-        when(mockStack.getSize()).thenReturn(1);
-        when(mockStack.getProcessor(anyInt())).thenReturn(mockProcessor);
+        ImageProcessor processor = new ByteProcessor(WIDTH, HEIGHT);
+        processor.setColor(TEST_COLOR);
+        processor.fill();
+        ImageStack stack = new ImageStack(WIDTH, HEIGHT);
+        stack.addSlice("", processor);
 
         // Assert results
-        Optional<ImageStack> optionalResult = RoiUtil.cropToRois(mockRoiManager, mockStack, false, 0x00);
+        Optional<ImageStack> optionalResult = RoiUtil.cropToRois(mockRoiManager, stack, false, 0x00);
         assertTrue("Empty ImageStack Optional", optionalResult.isPresent());
         ImageStack result = optionalResult.get();
 
@@ -422,19 +505,46 @@ public class RoiUtilTest {
         assertEquals("Masking didn't work correctly", TEST_COLOR_COUNT, foregroundCount);
     }
 
+    @Test
+    public void testCropStackKeepsRoiPositions() throws Exception {
+        final int WIDTH = 10;
+        final int HEIGHT = 10;
+        final int PADDING = 1;
+        final int TEST_COLOR = 0x20;
+
+        final Roi topLeft = new Roi(2, 2, 2, 2);
+        topLeft.setName("0001-0000-0001");
+        final Roi bottomRight = new Roi(5, 4, 2, 2);
+        bottomRight.setName("0001-0000-0002");
+        when(mockRoiManager.getRoisAsArray()).thenReturn(new Roi[]{topLeft, bottomRight});
+        when(mockRoiManager.getCount()).thenReturn(2);
+        when(mockRoiManager.getSliceNumber(anyString())).thenCallRealMethod();
+
+        ImageProcessor processor = new ByteProcessor(WIDTH, HEIGHT);
+        processor.setColor(TEST_COLOR);
+        processor.fill();
+        ImageStack stack = new ImageStack(WIDTH, HEIGHT);
+        stack.addSlice("", processor);
+
+        Optional<ImageStack> optionalResult = RoiUtil.cropToRois(mockRoiManager, stack, false, 0x00, PADDING);
+        assertTrue("Empty ImageStack Optional", optionalResult.isPresent());
+        ImageProcessor result = optionalResult.get().getProcessor(1 + PADDING);
+
+        assertEquals("Top left ROI is in the wrong position", TEST_COLOR, result.get(PADDING, PADDING));
+        assertEquals("Bottom right ROI is in the wrong position", TEST_COLOR, result.get(PADDING + 3, PADDING + 2));
+        assertEquals("Bottom right ROI is in the wrong position", TEST_COLOR, result.get(PADDING + 4, PADDING + 3));
+        assertEquals("Pixel outside the ROIs was copied", 0x00, result.get(PADDING + 3, PADDING));
+        assertEquals("Wrong number of pixels copied", 8, countColorPixels(optionalResult.get(), TEST_COLOR));
+    }
+
     /**
-     * Creates an L-shaped mask that blocks the lower right-hand corner of an image
-     *
-     * NB width & height need to be the same than the dimensions of the image this mask is used on.
+     * Creates an L-shaped ROI that leaves out the lower right-hand corner of an image
      *
-     * @param width     Width of the mask
-     * @param height    Height of the mask
-     * @return An ImageProcessor that can be passed to ImageProcessor#setMask
+     * @param width     Width of the ROI
+     * @param height    Height of the ROI
+     * @return A polygon ROI, whose mask has the shape of an L
      */
-    private ImageProcessor createLMask(final int width, final int height) {
-        ImageProcessor mask = new ByteProcessor(width, height);
-        ImageProcessor tmp = new ByteProcessor(width, height);
-
+    private static Roi createLRoi(final int width, final int height) {
         Polygon polygon = new Polygon();
         polygon.addPoint(0, 0);
         polygon.addPoint(width, 0);
@@ -443,10 +553,8 @@ public class RoiUtilTest {
         polygon.addPoint(width / 2, height);
         polygon.addPoint(0, height);
         polygon.addPoint(0, 0);
-        tmp.setRoi(polygon);
 
-        mask.setPixels(tmp.getMask().getPixels());
-        return mask;
+        return new PolygonRoi(polygon, Roi.POLYGON);
     }
 
     /**
@@ -0,0 +1,95 @@
+package org.bonej.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ij.ImageStack;
+import ij.gui.Roi;
+import ij.plugin.frame.RoiManager;
+import ij.process.ByteProcessor;
+
+/**
+ * Unit tests for the org.bonej.common.SliceMasks class
+ *
+ * @author Richard Domander
+ */
+public class SliceMasksTest {
+    private static final int SIZE = 20;
+    private static final int DEPTH = 6;
+
+    private final RoiManager mockRoiManager = mock(RoiManager.class);
+    private ImageStack stack;
+
+    @Before
+    public void setUp() {
+        // A 10x10 square on slice 1, and a 20x20 square around it on slice 5
+        final Roi smallRoi = new Roi(5, 5, 10, 10);
+        smallRoi.setName("0001-0000-0001");
+        final Roi largeRoi = new Roi(0, 0, SIZE, SIZE);
+        largeRoi.setName("0005-0000-0001");
+        when(mockRoiManager.getRoisAsArray()).thenReturn(new Roi[]{smallRoi, largeRoi});
+        when(mockRoiManager.getCount()).thenReturn(2);
+        when(mockRoiManager.getSliceNumber(anyString())).thenCallRealMethod();
+
+        stack = new ImageStack(SIZE, SIZE);
+        for (int i = 0; i < DEPTH; i++) {
+            stack.addSlice("", new ByteProcessor(SIZE, SIZE));
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testOfThrowsNullPointerExceptionIfRoiManagerIsNull() throws Exception {
+        SliceMasks.of(null, stack, true);
+    }
+
+    @Test
+    public void testGetMasksWithoutInterpolation() throws Exception {
+        final SliceMasks masks = SliceMasks.of(mockRoiManager, stack, false);
+
+        assertEquals("Key slice should have a mask", 1, masks.getMasks(1).size());
+        assertFalse("Slice between key slices should not have a mask", masks.hasMasks(3));
+        assertTrue(masks.getMasks(3).isEmpty());
+    }
+
+    @Test
+    public void testGetMasksInterpolatesBetweenKeySlices() throws Exception {
+        final SliceMasks masks = SliceMasks.of(mockRoiManager, stack, true);
+
+        assertTrue(masks.hasMasks(3));
+        assertFalse("Slice outside the key slices should not have a mask", masks.hasMasks(6));
+        final List<RoiMaskCache.Mask> sliceMasks = masks.getMasks(3);
+        assertEquals(1, sliceMasks.size());
+
+        // Halfway between the squares, the edge is 2.5 pixels from both
+        final RoiMaskCache.Mask mask = sliceMasks.get(0);
+        assertTrue(mask.contains(10, 10));
+        assertTrue(mask.contains(3, 10));
+        assertFalse(mask.contains(2, 10));
+        assertTrue(mask.contains(16, 10));
+        assertFalse(mask.contains(17, 10));
+        assertTrue(mask.contains(10, 3));
+        assertFalse(mask.contains(10, 2));
+    }
+
+    @Test
+    public void testGetMasksAddsRoisOnAllSlices() throws Exception {
+        final Roi allSlices = new Roi(0, 0, 2, 2);
+        allSlices.setName("All slices");
+        when(mockRoiManager.getRoisAsArray()).thenReturn(new Roi[]{allSlices});
+
+        final SliceMasks masks = SliceMasks.of(mockRoiManager, stack, true);
+
+        for (int z = 1; z <= DEPTH; z++) {
+            assertEquals("A ROI without a slice number should be on every slice", 1, masks.getMasks(z).size());
+        }
+    }
+}
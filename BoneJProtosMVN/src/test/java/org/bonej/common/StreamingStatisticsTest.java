@@ -0,0 +1,147 @@
+package org.bonej.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the org.bonej.common.StreamingStatistics class
+ *
+ * @author Richard Domander
+ */
+public class StreamingStatisticsTest {
+    private static final double DELTA = 1E-12;
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructorThrowsIllegalArgumentExceptionIfRangeIsEmpty() throws Exception {
+        new StreamingStatistics(1.0, 1.0, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructorThrowsIllegalArgumentExceptionIfNoBins() throws Exception {
+        new StreamingStatistics(0.0, 1.0, 0);
+    }
+
+    @Test
+    public void testEmptyStatisticsAreNaN() throws Exception {
+        final StreamingStatistics statistics = new StreamingStatistics(0.0, 1.0, 10);
+
+        assertEquals(0, statistics.getCount());
+        assertTrue(Double.isNaN(statistics.getMean()));
+        assertTrue(Double.isNaN(statistics.getStandardDeviation()));
+        assertTrue(Double.isNaN(statistics.getMin()));
+        assertTrue(Double.isNaN(statistics.getMax()));
+        assertTrue(Double.isNaN(statistics.getPercentile(50.0)));
+    }
+
+    @Test
+    public void testMoments() throws Exception {
+        final StreamingStatistics statistics = new StreamingStatistics(0.0, 10.0, 10);
+
+        for (double value : new double[]{2.0, 4.0, 4.0, 4.0, 5.0, 5.0, 7.0, 9.0}) {
+            statistics.add(value);
+        }
+        statistics.add(Double.NaN);
+
+        assertEquals(8, statistics.getCount());
+        assertEquals(5.0, statistics.getMean(), DELTA);
+        assertEquals(32.0 / 7.0, statistics.getVariance(), DELTA);
+        assertEquals(2.0, statistics.getMin(), DELTA);
+        assertEquals(9.0, statistics.getMax(), DELTA);
+        assertEquals(40.0, statistics.getSum(), DELTA);
+    }
+
+    @Test
+    public void testMergeEqualsSingleStream() throws Exception {
+        final Random random = new Random(0xC0FFEE);
+        final StreamingStatistics all = new StreamingStatistics(0.0, 1.0, 100);
+        final StreamingStatistics first = StreamingStatistics.withHistogramOf(all);
+        final StreamingStatistics second = StreamingStatistics.withHistogramOf(all);
+
+        for (int i = 0; i < 1000; i++) {
+            final double value = random.nextDouble();
+            all.add(value);
+            (i % 3 == 0 ? first : second).add(value);
+        }
+        first.merge(second);
+
+        assertEquals(all.getCount(), first.getCount());
+        assertEquals(all.getMean(), first.getMean(), DELTA);
+        assertEquals(all.getVariance(), first.getVariance(), DELTA);
+        assertEquals(all.getMin(), first.getMin(), 0.0);
+        assertEquals(all.getMax(), first.getMax(), 0.0);
+        assertArrayEquals(all.getHistogram(), first.getHistogram());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeThrowsIllegalArgumentExceptionIfHistogramsDiffer() throws Exception {
+        new StreamingStatistics(0.0, 1.0, 10).merge(new StreamingStatistics(0.0, 1.0, 20));
+    }
+
+    @Test
+    public void testPercentileIsWithinBinWidth() throws Exception {
+        final StreamingStatistics statistics = new StreamingStatistics(0.0, 1000.0, 100);
+
+        for (int i = 0; i <= 1000; i++) {
+            statistics.add(i);
+        }
+
+        assertEquals(0.0, statistics.getPercentile(0.0), DELTA);
+        assertEquals(500.0, statistics.getPercentile(50.0), statistics.getBinWidth());
+        assertEquals(250.0, statistics.getPercentile(25.0), statistics.getBinWidth());
+        assertEquals(1000.0, statistics.getPercentile(100.0), DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetPercentileThrowsIllegalArgumentExceptionIfOutOfRange() throws Exception {
+        new StreamingStatistics(0.0, 1.0, 10).getPercentile(100.1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWithBinWidthThrowsIllegalArgumentExceptionIfWidthIsNotPositive() throws Exception {
+        StreamingStatistics.withBinWidth(0.0, 0.0);
+    }
+
+    @Test
+    public void testBinWidthHistogramGrowsToFitValues() throws Exception {
+        final StreamingStatistics statistics = StreamingStatistics.withBinWidth(0.0, 0.5);
+
+        statistics.add(0.2);
+        statistics.add(-1.0);
+        statistics.add(99.9);
+
+        final long[] histogram = statistics.getHistogram();
+        assertEquals("Histogram should end at the last non-empty bin", 200, histogram.length);
+        assertEquals("Values below the minimum belong to the first bin", 2, histogram[0]);
+        assertEquals(1, histogram[199]);
+        assertEquals(100.0, statistics.getHistogramMax(), DELTA);
+        assertEquals(0.5, statistics.getBinWidth(), DELTA);
+    }
+
+    @Test
+    public void testMergeBinWidthHistograms() throws Exception {
+        final StreamingStatistics all = StreamingStatistics.withBinWidth(0.0, 1.0);
+        final StreamingStatistics small = StreamingStatistics.withHistogramOf(all);
+        final StreamingStatistics large = StreamingStatistics.withHistogramOf(all);
+
+        for (int i = 0; i < 100; i++) {
+            all.add(i);
+            (i < 50 ? small : large).add(i);
+        }
+        small.merge(large);
+
+        assertEquals(all.getCount(), small.getCount());
+        assertEquals(all.getMean(), small.getMean(), DELTA);
+        assertArrayEquals(all.getHistogram(), small.getHistogram());
+        assertEquals(all.getPercentile(50.0), small.getPercentile(50.0), DELTA);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMergeThrowsIllegalArgumentExceptionIfBinWidthsDiffer() throws Exception {
+        StreamingStatistics.withBinWidth(0.0, 1.0).merge(StreamingStatistics.withBinWidth(0.0, 2.0));
+    }
+}
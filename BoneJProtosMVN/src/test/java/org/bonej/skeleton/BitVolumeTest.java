@@ -0,0 +1,81 @@
+package org.bonej.skeleton;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.bonej.common.ImageFingerprint;
+import org.junit.Test;
+
+import ij.ImageStack;
+
+/**
+ * Unit tests for the org.bonej.skeleton.BitVolume class
+ *
+ * @author Richard Domander
+ */
+public class BitVolumeTest {
+    @Test
+    public void testPackUnpack() throws Exception {
+        final ImageStack stack = createStack(70, 3, 2);
+
+        final BitVolume volume = BitVolume.pack(stack);
+        final ImageStack unpacked = volume.unpack(null);
+
+        assertEquals(stack.getSize(), unpacked.getSize());
+        for (int i = 1; i <= stack.getSize(); i++) {
+            assertArrayEquals("Unpacked slice differs from the original", (byte[]) stack.getPixels(i),
+                    (byte[]) unpacked.getPixels(i));
+        }
+    }
+
+    @Test
+    public void testGetOutsideVolumeIsBackground() throws Exception {
+        final BitVolume volume = BitVolume.acquire(2, 2, 2);
+        volume.set(0, 0, 0);
+
+        assertTrue(volume.get(0, 0, 0));
+        assertFalse(volume.get(-1, 0, 0));
+        assertFalse(volume.get(0, 2, 0));
+        assertFalse(volume.get(0, 0, 2));
+    }
+
+    @Test
+    public void testAcquireReturnsEmptyVolumeAfterRelease() throws Exception {
+        final BitVolume volume = BitVolume.pack(createStack(70, 3, 2));
+        volume.release();
+
+        final BitVolume reused = BitVolume.acquire(70, 3, 2);
+
+        for (int z = 0; z < 2; z++) {
+            for (int y = 0; y < 3; y++) {
+                for (int x = 0; x < 70; x++) {
+                    assertFalse("Pooled volume was not cleared", reused.get(x, y, z));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testVirtualStackHasSameFingerprintAsUnpackedStack() throws Exception {
+        final BitVolume volume = BitVolume.pack(createStack(70, 3, 2));
+
+        assertEquals(ImageFingerprint.of(volume.unpack(null)), ImageFingerprint.of(volume.asVirtualStack()));
+    }
+
+    //region -- Helper methods --
+    private static ImageStack createStack(final int width, final int height, final int depth) {
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < depth; z++) {
+            final byte[] pixels = new byte[width * height];
+            for (int i = z; i < pixels.length; i += 3) {
+                pixels[i] = (byte) 0xFF;
+            }
+            stack.addSlice("", pixels);
+        }
+
+        return stack;
+    }
+    //endregion
+}
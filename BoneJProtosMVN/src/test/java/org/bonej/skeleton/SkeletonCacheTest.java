@@ -0,0 +1,72 @@
+package org.bonej.skeleton;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.bonej.common.ImageFingerprint;
+import org.junit.After;
+import org.junit.Test;
+
+import protoOps.testImageCreators.StaticTestImageHelper;
+import sc.fiji.analyzeSkeleton.Graph;
+import ij.ImagePlus;
+
+/**
+ * Unit tests for the org.bonej.skeleton.SkeletonCache class
+ *
+ * @author Richard Domander
+ */
+public class SkeletonCacheTest {
+    @After
+    public void tearDown() {
+        SkeletonCache.clear();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testGetSkeletonThrowsNullPointerExceptionIfImageIsNull() throws Exception {
+        SkeletonCache.getSkeleton(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetSkeletonThrowsIllegalArgumentExceptionIfImageIsNotBinary() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createCuboid(10, 10, 10, 0x7F, 1);
+
+        SkeletonCache.getSkeleton(image);
+    }
+
+    @Test
+    public void testGetSkeletonDoesNotModifyInputImage() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createWireFrameCuboid(32, 32, 32, 4);
+        final long fingerprint = ImageFingerprint.of(image.getStack());
+
+        SkeletonCache.getSkeleton(image);
+
+        assertEquals("Skeletonising changed the input image", fingerprint, ImageFingerprint.of(image.getStack()));
+    }
+
+    @Test
+    public void testGetSkeletonReturnsCopiesOfTheSameSkeleton() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createWireFrameCuboid(32, 32, 32, 4);
+
+        final ImagePlus skeleton = SkeletonCache.getSkeleton(image);
+        final ImagePlus cachedSkeleton = SkeletonCache.getSkeleton(image);
+
+        assertNotSame("Cached skeleton must be a copy", skeleton.getStack(), cachedSkeleton.getStack());
+        for (int i = 1; i <= skeleton.getStackSize(); i++) {
+            assertArrayEquals("Cached skeleton differs from the first one", (byte[]) skeleton.getStack().getPixels(i),
+                    (byte[]) cachedSkeleton.getStack().getPixels(i));
+        }
+    }
+
+    @Test
+    public void testGetGraphsReturnsSameGraphsForSkeleton() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createWireFrameCuboid(32, 32, 32, 4);
+
+        final Graph[] graphs = SkeletonCache.getGraphs(image);
+        final Graph[] skeletonGraphs = SkeletonCache.getGraphs(SkeletonCache.getSkeleton(image));
+
+        assertSame("The skeleton of an image should find the same cache entry", graphs, skeletonGraphs);
+    }
+}
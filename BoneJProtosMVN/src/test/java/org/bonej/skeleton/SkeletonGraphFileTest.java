@@ -0,0 +1,133 @@
+package org.bonej.skeleton;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import protoOps.testImageCreators.StaticTestImageHelper;
+import sc.fiji.analyzeSkeleton.Edge;
+import sc.fiji.analyzeSkeleton.Graph;
+import sc.fiji.analyzeSkeleton.Point;
+import sc.fiji.analyzeSkeleton.Vertex;
+import ij.ImagePlus;
+
+/**
+ * Unit tests for the SkeletonGraphWriter and SkeletonGraphFile classes
+ *
+ * @author Richard Domander
+ */
+public class SkeletonGraphFileTest {
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        SkeletonCache.clear();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOpenThrowsIllegalArgumentExceptionIfFileIsNotAGraphFile() throws Exception {
+        final Path file = folder.newFile().toPath();
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16});
+
+        SkeletonGraphFile.open(file);
+    }
+
+    @Test
+    public void testWriteEmptyGraphs() throws Exception {
+        final Path file = folder.newFile().toPath();
+
+        SkeletonGraphWriter.write(new Graph[0], file);
+
+        try (SkeletonGraphFile graphFile = SkeletonGraphFile.open(file)) {
+            assertEquals("File should have no graphs", 0, graphFile.getGraphCount());
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createWireFrameCuboid(64, 64, 64, 16);
+        final Graph[] graphs = SkeletonCache.getGraphs(image);
+        final Path file = writeGraphs(graphs);
+
+        try (SkeletonGraphFile graphFile = SkeletonGraphFile.open(file)) {
+            assertEquals("Wrong number of graphs", graphs.length, graphFile.getGraphCount());
+            for (int g = 0; g < graphs.length; g++) {
+                final List<Vertex> vertices = graphs[g].getVertices();
+                final List<Edge> edges = graphs[g].getEdges();
+                final SkeletonGraphFile.GraphView view = graphFile.getGraph(g);
+
+                assertEquals("Wrong number of vertices", vertices.size(), view.getVertexCount());
+                assertEquals("Wrong number of edges", edges.size(), view.getEdgeCount());
+                for (int v = 0; v < vertices.size(); v++) {
+                    assertArrayEquals("Wrong vertex points", coordinates(vertices.get(v).getPoints()),
+                            view.getVertexPoints(v));
+                    assertEquals("Wrong number of branches", vertices.get(v).getBranches().size(),
+                            view.getBranches(v).length);
+                }
+                for (int e = 0; e < edges.size(); e++) {
+                    final Edge edge = edges.get(e);
+                    assertArrayEquals("Wrong slab points", coordinates(edge.getSlabs()), view.getSlabPoints(e));
+                    assertEquals("Wrong first vertex", vertices.indexOf(edge.getV1()), view.getV1(e));
+                    assertEquals("Wrong second vertex", vertices.indexOf(edge.getV2()), view.getV2(e));
+                    assertEquals("Wrong edge length", edge.getLength(), view.getLength(e), 0.0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testReadGraphsRecreatesTopology() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createWireFrameCuboid(64, 64, 64, 16);
+        final Graph[] graphs = SkeletonCache.getGraphs(image);
+        final Path file = writeGraphs(graphs);
+
+        final Graph[] readGraphs;
+        try (SkeletonGraphFile graphFile = SkeletonGraphFile.open(file)) {
+            readGraphs = graphFile.readGraphs();
+        }
+
+        assertEquals("Wrong number of graphs", graphs.length, readGraphs.length);
+        for (int g = 0; g < graphs.length; g++) {
+            final List<Vertex> vertices = readGraphs[g].getVertices();
+            for (int v = 0; v < vertices.size(); v++) {
+                final Vertex vertex = vertices.get(v);
+                assertEquals("Wrong number of branches", graphs[g].getVertices().get(v).getBranches().size(),
+                        vertex.getBranches().size());
+                for (Edge branch : vertex.getBranches()) {
+                    assertEquals("Branch is not connected to its vertex", vertex, branch.getOppositeVertex(
+                            branch.getOppositeVertex(vertex)));
+                }
+            }
+        }
+    }
+
+    //region -- Helper methods --
+    private Path writeGraphs(final Graph[] graphs) throws IOException {
+        final Path file = folder.newFile().toPath();
+        SkeletonGraphWriter.write(graphs, file);
+        return file;
+    }
+
+    private static int[] coordinates(final List<Point> points) {
+        final int[] coordinates = new int[points.size() * 3];
+        for (int i = 0; i < points.size(); i++) {
+            final Point point = points.get(i);
+            coordinates[3 * i] = point.x;
+            coordinates[3 * i + 1] = point.y;
+            coordinates[3 * i + 2] = point.z;
+        }
+
+        return coordinates;
+    }
+    //endregion
+}
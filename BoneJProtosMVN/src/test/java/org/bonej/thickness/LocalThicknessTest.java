@@ -0,0 +1,225 @@
+package org.bonej.thickness;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.bonej.common.ImageFingerprint;
+import org.bonej.common.StreamingStatistics;
+import org.junit.Test;
+
+import protoOps.testImageCreators.StaticTestImageHelper;
+import sc.fiji.localThickness.LocalThicknessWrapper;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.StackStatistics;
+
+/**
+ * Unit tests for the org.bonej.thickness.LocalThickness class
+ *
+ * @author Richard Domander
+ */
+public class LocalThicknessTest {
+    private static final double DELTA = 1e-4;
+
+    @Test(expected = NullPointerException.class)
+    public void testCreateMapThrowsNullPointerExceptionIfImageIsNull() throws Exception {
+        LocalThickness.createMap(null, true, true);
+    }
+
+    @Test
+    public void testCreateMapDoesNotModifyInputImage() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createCuboid(10, 10, 10, 0xFF, 5);
+        final long fingerprint = ImageFingerprint.of(image.getStack());
+
+        LocalThickness.createMap(image, true, true);
+
+        assertEquals("Creating the map changed the input image", fingerprint, ImageFingerprint.of(image.getStack()));
+    }
+
+    @Test
+    public void testCreateMapBackgroundIsNaN() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createCuboid(10, 10, 10, 0xFF, 5);
+
+        final ImagePlus map = LocalThickness.createMap(image, true, true);
+
+        final float[] firstSlice = (float[]) map.getStack().getPixels(1);
+        for (float value : firstSlice) {
+            assertTrue("Background should be NaN", Float.isNaN(value));
+        }
+    }
+
+    @Test
+    public void testCreateMapPlate() throws Exception {
+        final ImagePlus image = createPlate(40, 40, 5);
+
+        final StackStatistics statistics = new StackStatistics(LocalThickness.createMap(image, true, true));
+
+        // The diameter of the spheres is measured from voxel centre to voxel centre on the other side
+        assertEquals("Wrong plate thickness", 6.0, statistics.mean, DELTA);
+        assertEquals("Wrong plate thickness", 6.0, statistics.max, DELTA);
+    }
+
+    @Test
+    public void testCreateMapScalesByPixelWidth() throws Exception {
+        final ImagePlus image = createPlate(40, 40, 5);
+        image.getCalibration().pixelWidth = 0.5;
+        image.getCalibration().pixelHeight = 0.5;
+        image.getCalibration().pixelDepth = 0.5;
+
+        final StackStatistics statistics = new StackStatistics(LocalThickness.createMap(image, true, true));
+
+        assertEquals("Thickness should be calibrated", 3.0, statistics.mean, DELTA);
+    }
+
+    @Test
+    public void testCreateMapAnisotropicPlate() throws Exception {
+        final ImagePlus image = createPlate(40, 40, 5);
+        image.getCalibration().pixelWidth = 0.5;
+        image.getCalibration().pixelHeight = 0.5;
+        image.getCalibration().pixelDepth = 2.0;
+
+        final StackStatistics statistics = new StackStatistics(LocalThickness.createMap(image, true, true));
+
+        // The plate is six slices thick from centre to centre
+        assertEquals("Wrong plate thickness", 12.0, statistics.mean, DELTA);
+        assertEquals("Wrong plate thickness", 12.0, statistics.max, DELTA);
+    }
+
+    @Test
+    public void testCreateStatisticsMatchesAnisotropicMap() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createWireFrameCuboid(32, 32, 16, 4);
+        image.getCalibration().pixelHeight = 1.5;
+        image.getCalibration().pixelDepth = 2.0;
+
+        final StackStatistics expected = new StackStatistics(LocalThickness.createMap(image, true, true));
+
+        final StreamingStatistics actual = LocalThickness.createStatistics(image, true, true);
+
+        assertEquals("Mean differs from the map", expected.mean, actual.getMean(), DELTA);
+        assertEquals("Max differs from the map", expected.max, actual.getMax(), DELTA);
+    }
+
+    @Test
+    public void testCreateMapMatchesLocalThicknessWrapper() throws Exception {
+        final ImagePlus[] images = {StaticTestImageHelper.createCuboid(16, 12, 8, 0xFF, 4),
+                StaticTestImageHelper.createWireFrameCuboid(32, 32, 32, 4),
+                StaticTestImageHelper.createCrossedCircle(64)};
+
+        for (ImagePlus image : images) {
+            for (boolean foreground : new boolean[]{true, false}) {
+                for (boolean mask : new boolean[]{true, false}) {
+                    final StackStatistics expected = new StackStatistics(wrapperMap(image, foreground, mask));
+                    final StackStatistics actual =
+                            new StackStatistics(LocalThickness.createMap(image, foreground, mask));
+
+                    assertEquals("Mean differs from LocalThickness", expected.mean, actual.mean, DELTA);
+                    assertEquals("SD differs from LocalThickness", expected.stdDev, actual.stdDev, DELTA);
+                    assertEquals("Max differs from LocalThickness", expected.max, actual.max, DELTA);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCreateMapsMatchesCreateMap() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createWireFrameCuboid(32, 32, 32, 4);
+
+        final ImagePlus[] maps = LocalThickness.createMaps(image, true);
+
+        assertEquals("Wrong number of maps", 2, maps.length);
+        assertSameStatistics(LocalThickness.createMap(image, true, true), maps[0]);
+        assertSameStatistics(LocalThickness.createMap(image, false, true), maps[1]);
+    }
+
+    @Test
+    public void testCreateStatisticsMatchesMap() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createWireFrameCuboid(32, 32, 32, 4);
+        image.getCalibration().pixelWidth = 0.25;
+
+        for (boolean foreground : new boolean[]{true, false}) {
+            final StackStatistics expected = new StackStatistics(LocalThickness.createMap(image, foreground, true));
+
+            final StreamingStatistics actual = LocalThickness.createStatistics(image, foreground, true);
+
+            assertEquals("Mean differs from the map", expected.mean, actual.getMean(), DELTA);
+            assertEquals("SD differs from the map", expected.stdDev, actual.getStandardDeviation(), DELTA);
+            assertEquals("Max differs from the map", expected.max, actual.getMax(), DELTA);
+        }
+    }
+
+    @Test
+    public void testCreateStatisticsOfBothPhases() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createCuboid(16, 12, 8, 0xFF, 4);
+
+        final StreamingStatistics[] statistics = LocalThickness.createStatistics(image, true);
+
+        assertEquals("Wrong number of statistics", 2, statistics.length);
+        assertEquals(LocalThickness.createStatistics(image, true, true).getMean(), statistics[0].getMean(), DELTA);
+        assertEquals(LocalThickness.createStatistics(image, false, true).getMean(), statistics[1].getMean(), DELTA);
+    }
+
+    @Test
+    public void testCreateMapAddsValuesToStatistics() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createWireFrameCuboid(32, 32, 32, 4);
+        image.getCalibration().pixelWidth = 0.25;
+        final StreamingStatistics statistics = StreamingStatistics.withBinWidth(0.0, 0.1);
+
+        final StackStatistics expected = new StackStatistics(LocalThickness.createMap(image, true, true, statistics));
+
+        assertEquals("Count differs from the map", expected.pixelCount, statistics.getCount());
+        assertEquals("Mean differs from the map", expected.mean, statistics.getMean(), DELTA);
+        assertEquals("Max differs from the map", expected.max, statistics.getMax(), DELTA);
+    }
+
+    @Test
+    public void testCreateStatisticsWithBinWidth() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createWireFrameCuboid(32, 32, 32, 4);
+
+        final StreamingStatistics expected = LocalThickness.createStatistics(image, true, true);
+        final StreamingStatistics statistics = LocalThickness.createStatistics(image, true, true, 0.5);
+
+        assertEquals("Wrong bin width", 0.5, statistics.getBinWidth(), 0.0);
+        assertEquals("Bin width shouldn't affect the values", expected.getMean(), statistics.getMean(), DELTA);
+        assertEquals("All values should be in the histogram", statistics.getCount(),
+                Arrays.stream(statistics.getHistogram()).sum());
+    }
+
+    //region -- Helper methods --
+    private static void assertSameStatistics(final ImagePlus expectedMap, final ImagePlus map) {
+        final StackStatistics expected = new StackStatistics(expectedMap);
+        final StackStatistics actual = new StackStatistics(map);
+        assertEquals("Mean differs", expected.mean, actual.mean, DELTA);
+        assertEquals("SD differs", expected.stdDev, actual.stdDev, DELTA);
+        assertEquals("Max differs", expected.max, actual.max, DELTA);
+    }
+
+    /**
+     * Creates a plate, which spans the width and height of the image, between two background slices
+     */
+    private static ImagePlus createPlate(final int width, final int height, final int thickness) {
+        final ImageStack stack = new ImageStack(width, height);
+        for (int z = 0; z < thickness + 2; z++) {
+            final ByteProcessor slice = new ByteProcessor(width, height);
+            if (z > 0 && z <= thickness) {
+                slice.setColor(0xFF);
+                slice.fill();
+            }
+            stack.addSlice("", slice);
+        }
+        return new ImagePlus("Plate", stack);
+    }
+
+    private static ImagePlus wrapperMap(final ImagePlus image, final boolean foreground, final boolean mask) {
+        final LocalThicknessWrapper thicknessWrapper = new LocalThicknessWrapper();
+        thicknessWrapper.setSilence(true);
+        thicknessWrapper.inverse = !foreground;
+        thicknessWrapper.setShowOptions(false);
+        thicknessWrapper.maskThicknessMap = mask;
+        thicknessWrapper.calibratePixels = true;
+        return thicknessWrapper.processImage(image);
+    }
+    //endregion
+}
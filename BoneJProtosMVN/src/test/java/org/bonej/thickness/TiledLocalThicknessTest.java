@@ -0,0 +1,77 @@
+package org.bonej.thickness;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.bonej.common.StreamingStatistics;
+import org.junit.Test;
+
+import protoOps.testImageCreators.StaticTestImageHelper;
+import ij.ImagePlus;
+
+/**
+ * Unit tests for the org.bonej.thickness.TiledLocalThickness class
+ *
+ * @author Richard Domander
+ */
+public class TiledLocalThicknessTest {
+    private static final double DELTA = 1e-9;
+
+    @Test(expected = NullPointerException.class)
+    public void testCreateStatisticsThrowsNullPointerExceptionIfImageIsNull() throws Exception {
+        TiledLocalThickness.createStatistics(null, true, true, 16, 8.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateStatisticsThrowsIllegalArgumentExceptionIfBrickSizeIsNotPositive() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createWireFrameCuboid(32, 32, 32, 4);
+
+        TiledLocalThickness.createStatistics(image, true, true, 0, 8.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCreateStatisticsThrowsIllegalArgumentExceptionIfSpheresAreTooLarge() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createCuboid(32, 32, 32, 0xFF, 4);
+
+        TiledLocalThickness.createStatistics(image, true, true, 8, 4.0);
+    }
+
+    @Test
+    public void testCreateStatisticsMatchesUntiled() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createWireFrameCuboid(64, 48, 40, 4);
+
+        for (boolean mask : new boolean[]{true, false}) {
+            final StreamingStatistics expected = LocalThickness.createStatistics(image, true, mask);
+
+            final StreamingStatistics actual = TiledLocalThickness.createStatistics(image, true, mask, 10, 3.0);
+
+            assertSameStatistics(expected, actual);
+        }
+    }
+
+    @Test
+    public void testCreateStatisticsAnisotropicMatchesUntiled() throws Exception {
+        final ImagePlus image = StaticTestImageHelper.createWireFrameCuboid(64, 48, 40, 4);
+        image.getCalibration().pixelWidth = 0.5;
+        image.getCalibration().pixelHeight = 0.75;
+        image.getCalibration().pixelDepth = 1.5;
+
+        final StreamingStatistics expected = LocalThickness.createStatistics(image, true, true);
+
+        final StreamingStatistics actual = TiledLocalThickness.createStatistics(image, true, true, 12, 4.0);
+
+        assertSameStatistics(expected, actual);
+    }
+
+    //region -- Helper methods --
+    private static void assertSameStatistics(final StreamingStatistics expected, final StreamingStatistics actual) {
+        assertEquals("Count differs from the untiled result", expected.getCount(), actual.getCount());
+        assertEquals("Mean differs from the untiled result", expected.getMean(), actual.getMean(), DELTA);
+        assertEquals("SD differs from the untiled result", expected.getStandardDeviation(),
+                actual.getStandardDeviation(), DELTA);
+        assertEquals("Max differs from the untiled result", expected.getMax(), actual.getMax(), 0.0);
+        assertArrayEquals("Histogram differs from the untiled result", expected.getHistogram(),
+                actual.getHistogram());
+    }
+    //endregion
+}